@@ -0,0 +1,86 @@
+package it.trvi.easyxml.benchmarks;
+
+import it.trvi.easyxml.XMLBinder;
+import it.trvi.easyxml.XMLElement;
+import it.trvi.easyxml.XMLTreeBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binding of the leaves of the documents to objects with XMLBinder, compared with the same binding written by hand.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BindingBenchmark {
+
+    /**
+     * The object bound to a leaf, which has the attributes id and type and some text.
+     */
+    public static final class Leaf {
+        int id;
+        String type;
+        @XMLBinder.Text
+        String text;
+    }
+
+    @Param({"MEDIUM", "LARGE", "WIDE"})
+    public DocumentShape shape;
+
+    private ArrayList<XMLElement> leaves;
+    private ArrayList<Leaf> objects;
+    private XMLBinder<Leaf> binder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ParseException {
+        leaves = XMLTreeBuilder.buildFromString(shape.generate()).getDescendantsWithTag(DocumentShape.LEAF_TAG);
+        binder = XMLBinder.of(Leaf.class);
+        objects = binder.readAll(leaves);
+    }
+
+    @Benchmark
+    public ArrayList<Leaf> readByHand() {
+        ArrayList<Leaf> result = new ArrayList<>(leaves.size());
+        for(XMLElement element : leaves){
+            Leaf leaf = new Leaf();
+            leaf.id = Integer.parseInt(element.getAttribute("id"));
+            leaf.type = element.getAttribute("type");
+            leaf.text = element.getTextContent();
+            result.add(leaf);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public ArrayList<Leaf> readWithBinder() {
+        return binder.readAll(leaves);
+    }
+
+    @Benchmark
+    public ArrayList<XMLElement> writeByHand() {
+        ArrayList<XMLElement> result = new ArrayList<>(objects.size());
+        for(Leaf leaf : objects){
+            XMLElement element = new XMLElement("leaf");
+            element.addAttribute("id",Integer.toString(leaf.id));
+            element.addAttribute("type",leaf.type);
+            element.setTextContent(leaf.text);
+            result.add(element);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public ArrayList<XMLElement> writeWithBinder() {
+        ArrayList<XMLElement> result = new ArrayList<>(objects.size());
+        for(Leaf leaf : objects){
+            result.add(binder.write(leaf));
+        }
+        return result;
+    }
+}
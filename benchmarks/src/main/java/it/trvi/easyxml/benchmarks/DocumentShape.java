@@ -0,0 +1,86 @@
+package it.trvi.easyxml.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Shapes of the documents used by the benchmarks. Every element below the root has the same number of children (the fan-out)
+ * down to the given depth, so the size of a document is determined by its depth and fan-out.
+ * The documents are generated from a fixed seed, so every run uses the same XML code.
+ */
+public enum DocumentShape {
+    //about 150 elements
+    SMALL(3,5),
+    //about 11 thousand elements
+    MEDIUM(4,10),
+    //about 220 thousand elements
+    LARGE(3,60),
+    //a single long chain of elements
+    DEEP(2000,1),
+    //a flat list of elements under the root
+    WIDE(1,100000);
+
+    private static final String[] TAG_NAMES = {"item", "entry", "node", "record"};
+    static final String LEAF_TAG = "leaf";
+
+    private final int depth;
+    private final int fanOut;
+
+    DocumentShape(int depth, int fanOut){
+        this.depth=depth;
+        this.fanOut=fanOut;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getFanOut() {
+        return fanOut;
+    }
+
+    /**
+     * Generates the XML code of a document with this shape. The elements have a few attributes and some text,
+     * and the elements at the maximum depth have the tag name "leaf".
+     * @return the XML code
+     */
+    public String generate(){
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        //the elements are written iteratively, since DEEP would overflow the stack
+        int[] remaining = new int[depth+1];
+        String[] open = new String[depth+1];
+        open[0] = "root";
+        builder.append("<root version=\"1\">");
+        remaining[0] = fanOut;
+        int level = 0;
+        while(level>=0){
+            if(level==depth || remaining[level]==0){
+                builder.append("</").append(open[level]).append('>');
+                level--;
+                continue;
+            }
+            remaining[level]--;
+            level++;
+            open[level] = level==depth ? LEAF_TAG : TAG_NAMES[random.nextInt(TAG_NAMES.length)];
+            remaining[level] = fanOut;
+            builder.append('<').append(open[level])
+                    .append(" id=\"").append(random.nextInt(1000000))
+                    .append("\" type=\"t").append(random.nextInt(16)).append("\">");
+            appendText(builder,random);
+        }
+        return builder.toString();
+    }
+
+    private static void appendText(StringBuilder builder, Random random){
+        int words = random.nextInt(8);
+        for(int i=0;i<words;i++){
+            if(i>0){
+                builder.append(' ');
+            }
+            for(int j=3+random.nextInt(6);j>0;j--){
+                builder.append((char) ('a'+random.nextInt(26)));
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package it.trvi.easyxml.benchmarks;
+
+import it.trvi.easyxml.XMLElement;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Addition of children at the bottom of deep trees. addChild checks that the child is not an ancestor of the new parent,
+ * so its cost grows with the depth. The added child is removed right away, so the tree stays the same between invocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MutateBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int depth;
+
+    private XMLElement deepest;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        deepest = new XMLElement("root");
+        XMLElement child;
+        for(int i=0;i<depth;i++){
+            child = new XMLElement("node");
+            deepest.addChild(child);
+            deepest = child;
+        }
+    }
+
+    @Benchmark
+    public XMLElement addNewChild() {
+        XMLElement child = new XMLElement("leaf");
+        deepest.addChild(child);
+        deepest.removeChild(0);
+        return child;
+    }
+
+    @Benchmark
+    public XMLElement addChildWithSubtree() {
+        XMLElement child = new XMLElement("leaf");
+        child.addChild(new XMLElement("a"));
+        child.addChild(new XMLElement("b"));
+        deepest.addChild(child);
+        deepest.removeChild(0);
+        return child;
+    }
+}
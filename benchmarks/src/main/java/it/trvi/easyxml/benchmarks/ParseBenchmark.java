@@ -0,0 +1,57 @@
+package it.trvi.easyxml.benchmarks;
+
+import it.trvi.easyxml.XMLElement;
+import it.trvi.easyxml.XMLTreeBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of generated documents from a string and from a file, with every engine.
+ * The LAZY engine defers most of the work until the elements are accessed, so its results measure only the first pass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE", "DEEP", "WIDE"})
+    public DocumentShape shape;
+
+    @Param({"DOM", "STAX", "LAZY"})
+    public XMLTreeBuilder.Engine engine;
+
+    private String xml;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        xml = shape.generate();
+        file = File.createTempFile("easyxml-"+shape,".xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(),xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public XMLElement buildFromString() throws ParseException {
+        return XMLTreeBuilder.buildFromString(xml,engine);
+    }
+
+    @Benchmark
+    public XMLElement buildFromFile() throws IOException, ParseException {
+        return XMLTreeBuilder.buildFromFile(file,engine);
+    }
+}
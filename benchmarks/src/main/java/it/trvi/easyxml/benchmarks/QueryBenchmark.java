@@ -0,0 +1,55 @@
+package it.trvi.easyxml.benchmarks;
+
+import it.trvi.easyxml.FrozenXMLElement;
+import it.trvi.easyxml.XMLElement;
+import it.trvi.easyxml.XMLTreeBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search of the descendants with a tag name, with and without the tag index, and in the frozen snapshot of the tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE", "DEEP", "WIDE"})
+    public DocumentShape shape;
+
+    @Param({"false", "true"})
+    public boolean tagIndex;
+
+    private XMLElement root;
+    private FrozenXMLElement frozenRoot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ParseException {
+        root = XMLTreeBuilder.buildFromString(shape.generate());
+        frozenRoot = root.freeze();
+        if(tagIndex){
+            root.enableTagIndex();
+        }
+    }
+
+    @Benchmark
+    public ArrayList<XMLElement> getLeaves() {
+        return root.getDescendantsWithTag(DocumentShape.LEAF_TAG);
+    }
+
+    @Benchmark
+    public ArrayList<XMLElement> getMissingTag() {
+        return root.getDescendantsWithTag("missing");
+    }
+
+    @Benchmark
+    public ArrayList<FrozenXMLElement> getFrozenLeaves() {
+        return frozenRoot.getDescendantsWithTag(DocumentShape.LEAF_TAG);
+    }
+}
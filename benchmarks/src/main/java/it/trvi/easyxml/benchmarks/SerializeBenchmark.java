@@ -0,0 +1,45 @@
+package it.trvi.easyxml.benchmarks;
+
+import it.trvi.easyxml.XMLElement;
+import it.trvi.easyxml.XMLTreeBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copy and serialisation of parsed documents.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializeBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE", "DEEP", "WIDE"})
+    public DocumentShape shape;
+
+    private XMLElement root;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ParseException {
+        root = XMLTreeBuilder.buildFromString(shape.generate());
+    }
+
+    @Benchmark
+    public Object deepClone() {
+        return root.clone();
+    }
+
+    @Benchmark
+    public XMLElement copyOnWriteClone() {
+        return root.copyOnWriteClone();
+    }
+
+    @Benchmark
+    public String serialize() {
+        return root.toString();
+    }
+}
@@ -0,0 +1,185 @@
+package it.trvi.easyxml;
+
+import java.util.*;
+
+/**
+ * Map that stores the attributes of an XMLElement in insertion order.
+ * Up to ARRAY_CAPACITY attributes are stored in a flat array of names and values, which is what most elements need;
+ * elements with more attributes switch to a LinkedHashMap.
+ */
+final class AttributeMap extends AbstractMap<String, String> {
+    private static final int ARRAY_CAPACITY = 8;
+
+    //names at even indices, values at odd indices; null once the map switches to the LinkedHashMap
+    private String[] array;
+    private int size;
+    private LinkedHashMap<String, String> map;
+    private int modCount;
+    private Set<Map.Entry<String, String>> entrySet;
+    //set when the map is shared with a copy made by XMLElement.copyOnWriteClone: it must be copied before it's modified
+    boolean shared;
+
+    AttributeMap(){
+        array = new String[4];
+    }
+
+    AttributeMap(AttributeMap other){
+        if(other.map!=null){
+            map = new LinkedHashMap<>(other.map);
+        }else{
+            array = Arrays.copyOf(other.array,Math.max(other.size*2,4));
+            size = other.size;
+        }
+    }
+
+    @Override
+    public int size() {
+        return map!=null ? map.size() : size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map!=null ? map.containsKey(key) : indexOf(key)>=0;
+    }
+
+    @Override
+    public String get(Object key) {
+        if(map!=null){
+            return map.get(key);
+        }
+        int i = indexOf(key);
+        return i>=0 ? array[i+1] : null;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if(map!=null){
+            return map.put(key,value);
+        }
+        int i = indexOf(key);
+        if(i>=0){
+            String old = array[i+1];
+            array[i+1] = value;
+            return old;
+        }
+        modCount++;
+        if(size==ARRAY_CAPACITY){
+            map = new LinkedHashMap<>();
+            for(int j=0;j<size*2;j+=2){
+                map.put(array[j],array[j+1]);
+            }
+            map.put(key,value);
+            array = null;
+            size = 0;
+            return null;
+        }
+        if(size*2==array.length){
+            array = Arrays.copyOf(array,array.length*2);
+        }
+        array[size*2] = key;
+        array[size*2+1] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    public String remove(Object key) {
+        if(map!=null){
+            return map.remove(key);
+        }
+        int i = indexOf(key);
+        return i>=0 ? removeAt(i) : null;
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        if(map!=null){
+            map.clear();
+        }else{
+            Arrays.fill(array,null);
+            size = 0;
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        if(map!=null){
+            return map.entrySet();
+        }
+        if(entrySet==null){
+            entrySet = new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return map!=null ? map.entrySet().iterator() : new ArrayIterator();
+                }
+
+                @Override
+                public int size() {
+                    return AttributeMap.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private int indexOf(Object key){
+        for(int i=0;i<size*2;i+=2){
+            if(Objects.equals(array[i],key)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String removeAt(int i){
+        modCount++;
+        String old = array[i+1];
+        System.arraycopy(array,i+2,array,i,size*2-i-2);
+        size--;
+        array[size*2] = null;
+        array[size*2+1] = null;
+        return old;
+    }
+
+    /*
+    Fail-fast iterator over the flat array.
+     */
+    private final class ArrayIterator implements Iterator<Map.Entry<String, String>> {
+        private int next;
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next<size*2;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if(modCount!=expectedModCount || map!=null) throw new ConcurrentModificationException();
+            if(next>=size*2) throw new NoSuchElementException();
+            last = next;
+            next += 2;
+            final int i = last;
+            return new AbstractMap.SimpleEntry<String, String>(array[i],array[i+1]){
+                @Override
+                public String setValue(String value) {
+                    if(modCount!=expectedModCount) throw new ConcurrentModificationException();
+                    array[i+1] = value;
+                    return super.setValue(value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if(last<0) throw new IllegalStateException();
+            if(modCount!=expectedModCount) throw new ConcurrentModificationException();
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+}
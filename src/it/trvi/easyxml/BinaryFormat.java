@@ -0,0 +1,260 @@
+package it.trvi.easyxml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary snapshot of an XMLElement tree, which is read much faster than the XML code because nothing has to be parsed.
+ * The snapshot begins with MAGIC and a table of all the tag names and attribute names, followed by the elements in document order.
+ * Each element is stored as the index of its name, the number of its attributes, the index of the name and the value of each attribute,
+ * its text content and the number of its children. Numbers are stored as variable-length integers, 7 bits per byte,
+ * and strings as their length in bytes followed by their UTF-8 encoding.
+ */
+final class BinaryFormat {
+    //"EXB" and the version of the format
+    private static final byte[] MAGIC = {'E', 'X', 'B', 1};
+
+    private BinaryFormat(){
+    }
+
+    static void write(XMLElement root, OutputStream stream) throws IOException {
+        SnapshotWriter writer = new SnapshotWriter(stream);
+        writer.out(MAGIC,0,MAGIC.length);
+        //first pass: the name table
+        HashMap<String, Integer> names = new HashMap<>();
+        ArrayList<String> table = new ArrayList<>();
+        ArrayList<XMLElement> stack = new ArrayList<>();
+        stack.add(root);
+        XMLElement element;
+        while(!stack.isEmpty()){
+            element = stack.remove(stack.size()-1);
+            addName(names,table,element.getTagName());
+            AttributeMap attributes = element.getLoadedAttributes();
+            if(attributes!=null){
+                for(String name : attributes.keySet()){
+                    addName(names,table,name);
+                }
+            }
+            for(int i=element.getNumberOfChildren()-1;i>=0;i--){
+                stack.add(element.getChildAt(i));
+            }
+        }
+        writer.writeInt(table.size());
+        for(String name : table){
+            writer.writeString(name);
+        }
+        //second pass: the elements
+        stack.add(root);
+        while(!stack.isEmpty()){
+            element = stack.remove(stack.size()-1);
+            writer.writeInt(names.get(element.getTagName()));
+            AttributeMap attributes = element.getLoadedAttributes();
+            if(attributes==null){
+                writer.writeInt(0);
+            }else{
+                writer.writeInt(attributes.size());
+                for(Map.Entry<String, String> attribute : attributes.entrySet()){
+                    writer.writeInt(names.get(attribute.getKey()));
+                    writer.writeString(attribute.getValue());
+                }
+            }
+            writer.writeString(element.getTextContent());
+            writer.writeInt(element.getNumberOfChildren());
+            for(int i=element.getNumberOfChildren()-1;i>=0;i--){
+                stack.add(element.getChildAt(i));
+            }
+        }
+        writer.flush();
+    }
+
+    private static void addName(HashMap<String, Integer> names, ArrayList<String> table, String name){
+        if(names.putIfAbsent(name,table.size())==null){
+            table.add(name);
+        }
+    }
+
+    static XMLElement read(ByteBuffer buffer) throws ParseException {
+        try{
+            for(byte b : MAGIC){
+                if(buffer.get()!=b){
+                    throw new ParseException("The data is not an EasyXML binary snapshot.",0);
+                }
+            }
+            SnapshotReader reader = new SnapshotReader(buffer);
+            //a name takes at least the byte of its length
+            String[] names = new String[reader.readCount(1)];
+            for(int i=0;i<names.length;i++){
+                names[i] = reader.readString();
+            }
+            //the open elements and the number of children that each of them still has to receive
+            XMLElement[] open = new XMLElement[16];
+            int[] remaining = new int[16];
+            int depth = 0;
+            XMLElement root = null;
+            XMLElement element;
+            do{
+                element = new XMLElement(names[reader.readInt()]);
+                //an attribute takes at least the bytes of its name and of the length of its value
+                for(int i=reader.readCount(2);i>0;i--){
+                    String name = names[reader.readInt()];
+                    element.addLoadedAttribute(name,reader.readString());
+                }
+                element.appendLoadedText(reader.readString());
+                if(depth==0){
+                    root = element;
+                }else{
+                    open[depth-1].addLoadedChild(element);
+                    remaining[depth-1]--;
+                }
+                //an element takes at least the bytes of its name, of the numbers of attributes and children and of the length of its text
+                int children = reader.readCount(4);
+                if(children>0){
+                    if(depth==open.length){
+                        open = Arrays.copyOf(open,depth*2);
+                        remaining = Arrays.copyOf(remaining,depth*2);
+                    }
+                    open[depth] = element;
+                    remaining[depth] = children;
+                    depth++;
+                }
+                while(depth>0 && remaining[depth-1]==0){
+                    depth--;
+                    open[depth] = null;
+                }
+            }while(depth>0);
+            if(buffer.hasRemaining()){
+                throw new ParseException("Unexpected data after the end of the snapshot.",buffer.position());
+            }
+            return root;
+        }catch (BufferUnderflowException | ArrayIndexOutOfBoundsException | IllegalArgumentException e){
+            throw new ParseException("Malformed binary snapshot.",buffer.position());
+        }
+    }
+
+    /*
+    Buffered writer of variable-length integers and strings.
+     */
+    private static final class SnapshotWriter {
+        private final OutputStream stream;
+        private final byte[] buffer = new byte[8192];
+        private int count;
+
+        SnapshotWriter(OutputStream stream){
+            this.stream=stream;
+        }
+
+        void writeInt(int value) throws IOException {
+            if(count+5>buffer.length){
+                flushBuffer();
+            }
+            while((value & ~0x7F)!=0){
+                buffer[count++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[count++] = (byte) value;
+        }
+
+        void writeString(String string) throws IOException {
+            if(string.isEmpty()){
+                writeInt(0);
+                return;
+            }
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            out(bytes,0,bytes.length);
+        }
+
+        void out(byte[] bytes, int offset, int length) throws IOException {
+            if(length>buffer.length-count){
+                flushBuffer();
+                if(length>buffer.length){
+                    stream.write(bytes,offset,length);
+                    return;
+                }
+            }
+            System.arraycopy(bytes,offset,buffer,count,length);
+            count += length;
+        }
+
+        private void flushBuffer() throws IOException {
+            stream.write(buffer,0,count);
+            count = 0;
+        }
+
+        void flush() throws IOException {
+            flushBuffer();
+            stream.flush();
+        }
+    }
+
+    /*
+    Reader of variable-length integers and strings from a heap or mapped buffer.
+     */
+    private static final class SnapshotReader {
+        private final ByteBuffer buffer;
+        //used to decode the strings of buffers without an accessible array
+        private byte[] scratch = new byte[256];
+
+        SnapshotReader(ByteBuffer buffer){
+            this.buffer=buffer;
+        }
+
+        int readInt() throws ParseException {
+            int value = 0;
+            byte b;
+            for(int shift=0;shift<35;shift+=7){
+                b = buffer.get();
+                value |= (b & 0x7F)<<shift;
+                if(b>=0){
+                    if(value<0){
+                        break;
+                    }
+                    return value;
+                }
+            }
+            throw new ParseException("Malformed number in the binary snapshot.",buffer.position());
+        }
+
+        /*
+        Reads the number of items of a list, each of which takes at least itemSize bytes. The number is checked against
+        the bytes left in the buffer, so that a corrupted or crafted snapshot can't make the reader allocate more than the data allows.
+         */
+        int readCount(int itemSize) throws ParseException {
+            int count = readInt();
+            if(count>buffer.remaining()/itemSize){
+                throw new ParseException("The binary snapshot is truncated or corrupted: "+count+" items don't fit in the data that follows.",buffer.position());
+            }
+            return count;
+        }
+
+        String readString() throws ParseException {
+            int length = readInt();
+            if(length==0){
+                return "";
+            }
+            if(length>buffer.remaining()){
+                throw new BufferUnderflowException();
+            }
+            String string;
+            if(buffer.hasArray()){
+                string = new String(buffer.array(),buffer.arrayOffset()+buffer.position(),length,StandardCharsets.UTF_8);
+                buffer.position(buffer.position()+length);
+            }else{
+                if(scratch.length<length){
+                    scratch = new byte[Math.max(length,scratch.length*2)];
+                }
+                buffer.get(scratch,0,length);
+                string = new String(scratch,0,length,StandardCharsets.UTF_8);
+            }
+            return string;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package it.trvi.easyxml;
+
+import java.util.List;
+
+/**
+ * Path that selects elements while a document is read as a stream, shared by XMLElementIterator and XMLTransformer.
+ * A single tag name matches the elements with that tag name at any depth, while a list of tag names separated by "/"
+ * (like "root/record") matches the elements that are found by following that path from the root. A path that begins with "/"
+ * is always followed from the root, so "/root" matches only the root. "*" matches any tag name.
+ */
+final class ElementPath {
+    private final String[] path;
+    private final boolean anyDepth;
+
+    ElementPath(String path) throws IllegalArgumentException{
+        boolean anchored = path.startsWith("/");
+        if(anchored){
+            path = path.substring(1);
+        }
+        if(path.isEmpty()){
+            throw new IllegalArgumentException("The path of the elements can't be empty.");
+        }
+        this.path=path.split("/");
+        this.anyDepth=!anchored && this.path.length==1;
+    }
+
+    /*
+    Returns true if the element whose tag is the last of the currently open tags matches the path.
+     */
+    boolean matches(List<String> openTags){
+        if(anyDepth){
+            return tagMatches(path[0],openTags.get(openTags.size()-1));
+        }
+        if(openTags.size()!=path.length){
+            return false;
+        }
+        for(int i=0;i<path.length;i++){
+            if(!tagMatches(path[i],openTags.get(i))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean tagMatches(String pattern, String tagName){
+        return pattern.equals("*") || pattern.equals(tagName);
+    }
+}
@@ -0,0 +1,14 @@
+package it.trvi.easyxml;
+
+/**
+ * Source from which the text content, the attributes and the children of an XMLElement are loaded the first time they are accessed.
+ * An XMLElement created with a source has only its tag name until then.
+ */
+abstract class ElementSource {
+
+    /*
+    Loads the content into the element, which has no content yet, through addLoadedAttribute, appendLoadedText and addLoadedChild.
+    An error in the content is thrown as a RuntimeException.
+     */
+    abstract void load(XMLElement element);
+}
@@ -0,0 +1,121 @@
+package it.trvi.easyxml;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The JDK Flight Recorder events of XMLMetrics. This class is loaded only if the runtime includes the jdk.jfr module.
+ */
+final class FlightEvents {
+    private static final EventType PARSE_TYPE = EventType.getEventType(ParseEvent.class);
+    private static final EventType SERIALIZATION_TYPE = EventType.getEventType(SerializationEvent.class);
+
+    private FlightEvents(){
+    }
+
+    static boolean isParseEnabled(){
+        return PARSE_TYPE.isEnabled();
+    }
+
+    static boolean isSerializationEnabled(){
+        return SERIALIZATION_TYPE.isEnabled();
+    }
+
+    static Object beginParse(){
+        if(!PARSE_TYPE.isEnabled()){
+            return null;
+        }
+        ParseEvent event = new ParseEvent();
+        event.begin();
+        return event;
+    }
+
+    static Object beginSerialization(){
+        if(!SERIALIZATION_TYPE.isEnabled()){
+            return null;
+        }
+        SerializationEvent event = new SerializationEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commit(Object object, XMLMetrics.ParseMetrics metrics){
+        ParseEvent event = (ParseEvent) object;
+        event.end();
+        if(event.shouldCommit()){
+            event.engine = metrics.getEngine().name();
+            event.bytesRead = orMissing(metrics.getBytesRead());
+            event.charactersRead = metrics.getCharactersRead();
+            event.elementCount = metrics.getElementCount();
+            event.attributeCount = metrics.getAttributeCount();
+            event.maxDepth = metrics.getMaxDepth();
+            event.domParseDuration = orMissing(metrics.getDomParseDuration());
+            event.conversionDuration = orMissing(metrics.getConversionDuration());
+            event.commit();
+        }
+    }
+
+    static void commit(Object object, XMLMetrics.SerializationMetrics metrics){
+        SerializationEvent event = (SerializationEvent) object;
+        event.end();
+        if(event.shouldCommit()){
+            event.elementCount = metrics.getElementCount();
+            event.charactersWritten = metrics.getCharactersWritten();
+            event.commit();
+        }
+    }
+
+    /*
+    Flight Recorder shows Long.MIN_VALUE as a missing amount or timespan.
+     */
+    private static long orMissing(long value){
+        return value<0 ? Long.MIN_VALUE : value;
+    }
+
+    @Name("it.trvi.easyxml.Parse")
+    @Label("XML Parse")
+    @Category("EasyXML")
+    @Description("A document parsed into an XMLElement tree")
+    static final class ParseEvent extends Event {
+        @Label("Engine")
+        String engine;
+        @Label("Bytes Read")
+        @Description("Missing if the document was read as characters")
+        @DataAmount
+        long bytesRead;
+        @Label("Characters Read")
+        @Description("-1 if the document was read as bytes")
+        long charactersRead;
+        @Label("Elements")
+        long elementCount;
+        @Label("Attributes")
+        long attributeCount;
+        @Label("Maximum Depth")
+        int maxDepth;
+        @Label("DOM Parse Duration")
+        @Description("Missing if the engine is not DOM")
+        @Timespan
+        long domParseDuration;
+        @Label("Conversion Duration")
+        @Description("Time spent converting the DOM document into XMLElements, missing if the engine is not DOM")
+        @Timespan
+        long conversionDuration;
+    }
+
+    @Name("it.trvi.easyxml.Serialize")
+    @Label("XML Serialize")
+    @Category("EasyXML")
+    @Description("An XMLElement tree written as XML code")
+    static final class SerializationEvent extends Event {
+        @Label("Elements")
+        long elementCount;
+        @Label("Characters Written")
+        long charactersWritten;
+    }
+}
@@ -0,0 +1,412 @@
+package it.trvi.easyxml;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of an XMLElement and its descendants, created by XMLElement.freeze. It has the same read methods of XMLElement,
+ * and since it can't be modified it can be shared by any number of threads without locks or copies.
+ * <p>
+ * The elements of a snapshot are not objects: they are stored in document order in a few arrays of the tree, which contain the id of
+ * the tag name, the parent, the end of the subtree and the position of the children, of the attributes and of the text of each element.
+ * A FrozenXMLElement is only a reference to a position in those arrays, created when it's returned, so two FrozenXMLElements
+ * for the same element are equal but not necessarily the same object.
+ */
+public final class FrozenXMLElement {
+    private final Tree tree;
+    private final int index;
+
+    private FrozenXMLElement(Tree tree, int index){
+        this.tree=tree;
+        this.index=index;
+    }
+
+    /*
+    Returns the snapshot of element and of its descendants, loading them if they were parsed lazily.
+     */
+    static FrozenXMLElement freeze(XMLElement element){
+        return new FrozenXMLElement(new Tree(element),0);
+    }
+
+    /**
+     * Returns the tag name of this element.
+     *
+     * @return the tag name of this element
+     */
+    public String getTagName() {
+        return tree.tagNames[tree.tags[index]];
+    }
+
+    /**
+     * Returns the parent of this element. The element that was frozen has no parent, even if the XMLElement it was created from had one.
+     *
+     * @return the parent of this element, null if this element is the root of the snapshot
+     */
+    public FrozenXMLElement getParent() {
+        int parent = tree.parents[index];
+        return parent<0 ? null : new FrozenXMLElement(tree,parent);
+    }
+
+    /**
+     * Returns the text content of this element.
+     *
+     * @return the text content of this element
+     */
+    public String getTextContent() {
+        return tree.text.substring(tree.textStarts[index],tree.textStarts[index+1]);
+    }
+
+    /**
+     * Returns the value of the attribute that has a specific name.
+     *
+     * @param name is the name of the attribute whose value must be returned
+     * @return the value of the attribute with that specific name
+     * @throws NoSuchElementException if this element has no attribute with that name
+     */
+    public String getAttribute(String name) throws NoSuchElementException{
+        int i = indexOfAttribute(name);
+        if(i<0){
+            throw new NoSuchElementException("This FrozenXMLElement with tag name \""+getTagName()+"\" doesn't have an attribute with name \""+name+"\".");
+        }
+        return tree.attributeValues[i];
+    }
+
+    /**
+     * Returns true if this element has a specific attribute.
+     *
+     * @param name is the name of the attribute
+     * @return true if this element has an attribute named name, false otherwise
+     */
+    public boolean hasAttribute(String name){
+        return indexOfAttribute(name)>=0;
+    }
+
+    /**
+     * Returns a HashMap that contains all the attributes of this element. Modifying the map doesn't modify the element.
+     *
+     * @return a HashMap&lt;String, String&gt; containing all the attributes of this element
+     */
+    public HashMap<String, String> getAllAttributes(){
+        HashMap<String, String> attributes = new HashMap<>();
+        for(int i=tree.attributeStarts[index];i<tree.attributeStarts[index+1];i++){
+            attributes.put(tree.attributeNames[i],tree.attributeValues[i]);
+        }
+        return attributes;
+    }
+
+    private int indexOfAttribute(String name){
+        for(int i=tree.attributeStarts[index];i<tree.attributeStarts[index+1];i++){
+            if(tree.attributeNames[i].equals(name)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the ith child of this element.
+     *
+     * @param i is the index of the child in the children of this element
+     * @return the ith child of this element
+     * @throws IndexOutOfBoundsException if i is negative or not less than the number of children
+     */
+    public FrozenXMLElement getChildAt(int i) throws IndexOutOfBoundsException{
+        Objects.checkIndex(i,getNumberOfChildren());
+        return new FrozenXMLElement(tree,tree.children[tree.childStarts[index]+i]);
+    }
+
+    /**
+     * Returns the number of direct children of this element.
+     *
+     * @return the number of children of this element
+     */
+    public int getNumberOfChildren(){
+        return tree.childStarts[index+1]-tree.childStarts[index];
+    }
+
+    /**
+     * Returns an ArrayList that contains all the children of this element.
+     *
+     * @return an ArrayList&lt;FrozenXMLElement&gt; containing all the children of this element
+     */
+    public ArrayList<FrozenXMLElement> getAllChildren(){
+        ArrayList<FrozenXMLElement> result = new ArrayList<>(getNumberOfChildren());
+        for(int i=tree.childStarts[index];i<tree.childStarts[index+1];i++){
+            result.add(new FrozenXMLElement(tree,tree.children[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns all the descendants of this element that have a specific tag name, in document order.
+     * The descendants of an element are next to each other in the arrays of the snapshot, so they are searched by a single scan of the tag ids.
+     *
+     * @param tagName is tag name of the descendants that must be returned
+     * @return an ArrayList&lt;FrozenXMLElement&gt; containing all the descendants of this element whose tag name is tagName.
+     */
+    public ArrayList<FrozenXMLElement> getDescendantsWithTag(String tagName){
+        ArrayList<FrozenXMLElement> result = new ArrayList<>();
+        Integer id = tree.tagIds.get(tagName);
+        if(id==null){
+            return result;
+        }
+        int tag = id;
+        int[] tags = tree.tags;
+        for(int i=index;i<tree.subtreeEnds[index];i++){
+            if(tags[i]==tag){
+                result.add(new FrozenXMLElement(tree,i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new XMLElement with the same content of this element and of its descendants, which can be modified.
+     *
+     * @return a mutable copy of this element
+     */
+    public XMLElement toXMLElement(){
+        XMLElement[] elements = new XMLElement[tree.subtreeEnds[index]-index];
+        for(int i=index;i<tree.subtreeEnds[index];i++){
+            XMLElement element = new XMLElement(tree.tagNames[tree.tags[i]]);
+            if(tree.textStarts[i]<tree.textStarts[i+1]){
+                element.appendLoadedText(tree.text,tree.textStarts[i],tree.textStarts[i+1]);
+            }
+            for(int j=tree.attributeStarts[i];j<tree.attributeStarts[i+1];j++){
+                element.addLoadedAttribute(tree.attributeNames[j],tree.attributeValues[j]);
+            }
+            //the parent comes before its children in document order
+            if(i>index){
+                elements[tree.parents[i]-index].addLoadedChild(element);
+            }
+            elements[i-index] = element;
+        }
+        return elements[0];
+    }
+
+    /**
+     * Returns the XML code corresponding to this element, which is the same returned by toString() of the XMLElement it was created from.
+     *
+     * @return the string representation of this element.
+     */
+    public String toString(){
+        return toString("\t");
+    }
+
+    /**
+     * Returns the XML code corresponding to this element, with the possibility of choosing the tabulation.
+     *
+     * @param tabulationCharacters is the tabulation that will be used
+     * @return the string representation of this element.
+     */
+    public String toString(String tabulationCharacters){
+        StringWriter writer = new StringWriter();
+        try{
+            writeTo(writer,tabulationCharacters);
+        }catch (IOException e){
+            throw new RuntimeException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes the XML code corresponding to this element to a Writer. The text is the same returned by toString().
+     * The Writer is neither flushed nor closed.
+     *
+     * @param writer is the Writer to which the XML code is written
+     * @throws IOException if there's an error while writing to the Writer
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writeTo(writer,"\t");
+    }
+
+    /**
+     * Writes the XML code corresponding to this element to a Writer, with the possibility of choosing the tabulation.
+     * The text is the same returned by toString(tabulationCharacters). The Writer is neither flushed nor closed.
+     *
+     * @param writer is the Writer to which the XML code is written
+     * @param tabulationCharacters is the tabulation that will be used
+     * @throws IOException if there's an error while writing to the Writer
+     */
+    public void writeTo(Writer writer, String tabulationCharacters) throws IOException {
+        //the elements are written in document order; the end tags of the elements whose subtree is over are written before the next element
+        int[] open = new int[16];
+        int depth = 0;
+        for(int i=index;i<tree.subtreeEnds[index];i++){
+            while(depth>0 && tree.subtreeEnds[open[depth-1]]<=i){
+                depth--;
+                writeEndTag(writer,open[depth],tabulationCharacters,depth);
+            }
+            if(depth>0){
+                writer.write('\n');
+                XMLElement.writeIndentation(writer,tabulationCharacters,depth);
+            }
+            writeStartTag(writer,i,tabulationCharacters,depth);
+            if(depth==open.length){
+                open = Arrays.copyOf(open,depth*2);
+            }
+            open[depth++] = i;
+        }
+        while(depth>0){
+            depth--;
+            writeEndTag(writer,open[depth],tabulationCharacters,depth);
+        }
+    }
+
+    /*
+    Writes the start tag of an element with its attributes, followed by its text content, as XMLElement.writeStartTag and writeText do.
+     */
+    private void writeStartTag(Writer writer, int element, String tabulationCharacters, int depth) throws IOException {
+        writer.write('<');
+        writer.write(tree.tagNames[tree.tags[element]]);
+        for(int i=tree.attributeStarts[element];i<tree.attributeStarts[element+1];i++){
+            writer.write(' ');
+            writer.write(tree.attributeNames[i]);
+            writer.write("=\"");
+            XMLElement.writeEscaped(writer,tree.attributeValues[i],0,tree.attributeValues[i].length(),true,null,0);
+            writer.write('"');
+        }
+        writer.write('>');
+        if(tree.textStarts[element]<tree.textStarts[element+1]){
+            writer.write('\n');
+            XMLElement.writeIndentation(writer,tabulationCharacters,depth+1);
+            XMLElement.writeEscaped(writer,tree.text,tree.textStarts[element],tree.textStarts[element+1],false,tabulationCharacters,depth+1);
+        }
+    }
+
+    private void writeEndTag(Writer writer, int element, String tabulationCharacters, int depth) throws IOException {
+        writer.write('\n');
+        XMLElement.writeIndentation(writer,tabulationCharacters,depth);
+        writer.write("</");
+        writer.write(tree.tagNames[tree.tags[element]]);
+        writer.write('>');
+    }
+
+    /**
+     * Returns true if the other object is a FrozenXMLElement for the same element of the same snapshot.
+     * Two snapshots of equal trees are not equal (see XMLElement.structuralEquals to compare the content of two trees).
+     *
+     * @param other is the object that is compared with this one
+     * @return true if the two objects refer to the same element of the same snapshot
+     */
+    @Override
+    public boolean equals(Object other){
+        if(!(other instanceof FrozenXMLElement)){
+            return false;
+        }
+        FrozenXMLElement element = (FrozenXMLElement) other;
+        return tree==element.tree && index==element.index;
+    }
+
+    @Override
+    public int hashCode(){
+        return System.identityHashCode(tree)*31+index;
+    }
+
+    /*
+    The arrays of a snapshot, indexed by the position of the elements in document order, so that the descendants of the element
+    at position i are at the positions from i+1 to subtreeEnds[i]-1: the first child of an element follows it, and its next sibling
+    is at the end of its subtree. All the fields are final and the arrays are never modified after the constructor,
+    so the snapshot is safely published to any thread that gets a reference to it.
+     */
+    private static final class Tree {
+        //the distinct tag names, and the id of the tag name of each element
+        private final String[] tagNames;
+        private final HashMap<String, Integer> tagIds;
+        private final int[] tags;
+        //-1 for the root
+        private final int[] parents;
+        private final int[] subtreeEnds;
+        //the children of the element at position i are children[childStarts[i]] to children[childStarts[i+1]-1], so getChildAt takes constant time
+        private final int[] childStarts;
+        private final int[] children;
+        //the attributes of the element at position i are at the positions from attributeStarts[i] to attributeStarts[i+1]-1
+        private final int[] attributeStarts;
+        private final String[] attributeNames;
+        private final String[] attributeValues;
+        //the text contents of all the elements, one after the other
+        private final String text;
+        private final int[] textStarts;
+
+        Tree(XMLElement root){
+            ArrayList<XMLElement> elements = new ArrayList<>();
+            ArrayList<Integer> parentsList = new ArrayList<>();
+            ArrayList<XMLElement> stack = new ArrayList<>();
+            ArrayList<Integer> stackParents = new ArrayList<>();
+            stack.add(root);
+            stackParents.add(-1);
+            XMLElement element;
+            while(!stack.isEmpty()){
+                element = stack.remove(stack.size()-1);
+                int position = elements.size();
+                elements.add(element);
+                parentsList.add(stackParents.remove(stackParents.size()-1));
+                for(int i=element.getNumberOfChildren()-1;i>=0;i--){
+                    stack.add(element.getChildAt(i));
+                    stackParents.add(position);
+                }
+            }
+            int n = elements.size();
+            tags = new int[n];
+            parents = new int[n];
+            subtreeEnds = new int[n];
+            childStarts = new int[n+1];
+            children = new int[n-1];
+            attributeStarts = new int[n+1];
+            textStarts = new int[n+1];
+            tagIds = new HashMap<>();
+            ArrayList<String> names = new ArrayList<>();
+            NameTable attributeNameTable = new NameTable();
+            ArrayList<String> attributeNamesList = new ArrayList<>();
+            ArrayList<String> attributeValuesList = new ArrayList<>();
+            StringBuilder textBuilder = new StringBuilder();
+            for(int i=0;i<n;i++){
+                element = elements.get(i);
+                Integer tag = tagIds.get(element.getTagName());
+                if(tag==null){
+                    tag = names.size();
+                    names.add(element.getTagName());
+                    tagIds.put(element.getTagName(),tag);
+                }
+                tags[i] = tag;
+                parents[i] = parentsList.get(i);
+                subtreeEnds[i] = i+1;
+                childStarts[i+1] = element.getNumberOfChildren();
+                AttributeMap attributes = element.getLoadedAttributes();
+                if(attributes!=null){
+                    attributes.forEach((name,value) -> {
+                        attributeNamesList.add(attributeNameTable.get(name));
+                        attributeValuesList.add(value);
+                    });
+                }
+                attributeStarts[i+1] = attributeNamesList.size();
+                String content = element.getTextContent();
+                if(content!=null){
+                    textBuilder.append(content);
+                }
+                textStarts[i+1] = textBuilder.length();
+            }
+            //each subtree ends where the last of its descendants ends, and the descendants follow their ancestors
+            for(int i=n-1;i>0;i--){
+                subtreeEnds[parents[i]] = Math.max(subtreeEnds[parents[i]],subtreeEnds[i]);
+            }
+            for(int i=0;i<n;i++){
+                childStarts[i+1] += childStarts[i];
+            }
+            int[] filled = new int[n];
+            for(int i=1;i<n;i++){
+                children[childStarts[parents[i]]+filled[parents[i]]++] = i;
+            }
+            tagNames = names.toArray(new String[0]);
+            attributeNames = attributeNamesList.toArray(new String[0]);
+            attributeValues = attributeValuesList.toArray(new String[0]);
+            text = textBuilder.toString();
+        }
+    }
+}
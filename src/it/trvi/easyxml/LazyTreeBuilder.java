@@ -0,0 +1,533 @@
+package it.trvi.easyxml;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Parsing engine that builds the XMLElement tree lazily. The document is kept in memory as a string, and a first pass
+ * records only the extent of each element, checking that the tags are balanced; the attributes, the text content and the children
+ * of an element are parsed the first time one of them is accessed, by the ElementSource of the element.
+ * The content follows the same rules of the other engines: namespaces are not processed, CDATA sections are ignored
+ * and every text node is trimmed line by line. Documents with a DOCTYPE are not supported, since their DTD can define entities.
+ */
+final class LazyTreeBuilder {
+
+    private LazyTreeBuilder(){
+    }
+
+    /*
+    Returns the root of the document, whose content is not loaded yet, or null if the document has a DOCTYPE.
+     */
+    static XMLElement build(String text) throws ParseException {
+        Document document = new Document(text);
+        if(!document.scan()){
+            return null;
+        }
+        return document.newElement(0);
+    }
+
+    /*
+    Decodes a document, detecting its encoding from the byte order mark or from the XML declaration, as the XML parsers do.
+    Bytes that are not valid in the encoding are an error, as they are for the XML parsers, instead of being replaced.
+     */
+    static String decode(byte[] bytes) throws ParseException {
+        int length = bytes.length;
+        if(length>=3 && (bytes[0]&0xFF)==0xEF && (bytes[1]&0xFF)==0xBB && (bytes[2]&0xFF)==0xBF){
+            return decode(bytes,3,StandardCharsets.UTF_8);
+        }
+        if(length>=2 && (bytes[0]&0xFF)==0xFE && (bytes[1]&0xFF)==0xFF){
+            return decode(bytes,2,StandardCharsets.UTF_16BE);
+        }
+        if(length>=2 && (bytes[0]&0xFF)==0xFF && (bytes[1]&0xFF)==0xFE){
+            return decode(bytes,2,StandardCharsets.UTF_16LE);
+        }
+        //"<?" in UTF-16 without byte order mark
+        if(length>=4 && bytes[0]==0 && bytes[1]=='<' && bytes[2]==0 && bytes[3]=='?'){
+            return decode(bytes,0,StandardCharsets.UTF_16BE);
+        }
+        if(length>=4 && bytes[0]=='<' && bytes[1]==0 && bytes[2]=='?' && bytes[3]==0){
+            return decode(bytes,0,StandardCharsets.UTF_16LE);
+        }
+        return decode(bytes,0,declaredCharset(bytes));
+    }
+
+    /*
+    Decodes the bytes from offset on, throwing a ParseException at the first malformed or unmappable sequence.
+     */
+    private static String decode(byte[] bytes, int offset, Charset charset) throws ParseException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer input = ByteBuffer.wrap(bytes,offset,bytes.length-offset);
+        CharBuffer output = CharBuffer.allocate((int) Math.min(Integer.MAX_VALUE-8,input.remaining()*(double)decoder.averageCharsPerByte()+16));
+        CoderResult result;
+        while((result = decoder.decode(input,output,true)).isOverflow()){
+            output = grow(output);
+        }
+        if(result.isError()){
+            //the position of the input is the offset of the invalid sequence in the document
+            throw new ParseException("Invalid byte sequence for the encoding "+charset.name()+".",input.position());
+        }
+        while(decoder.flush(output).isOverflow()){
+            output = grow(output);
+        }
+        return output.flip().toString();
+    }
+
+    private static CharBuffer grow(CharBuffer buffer){
+        return CharBuffer.allocate((int) Math.min(Integer.MAX_VALUE-8,buffer.capacity()*2L)).put(buffer.flip());
+    }
+
+    /*
+    Returns the charset in the XML declaration of a document in an ASCII-compatible encoding, UTF-8 if there's none.
+     */
+    private static Charset declaredCharset(byte[] bytes) throws ParseException {
+        int end = 0;
+        while(end<bytes.length && end<1024 && bytes[end]!='>'){
+            end++;
+        }
+        String declaration = new String(bytes,0,end,StandardCharsets.ISO_8859_1);
+        if(!declaration.startsWith("<?xml")){
+            return StandardCharsets.UTF_8;
+        }
+        int i = declaration.indexOf("encoding");
+        if(i<0){
+            return StandardCharsets.UTF_8;
+        }
+        i = declaration.indexOf('=',i);
+        while(i>=0 && ++i<declaration.length() && declaration.charAt(i)!='"' && declaration.charAt(i)!='\''){
+        }
+        if(i<0 || i>=declaration.length()){
+            throw new ParseException("Malformed XML declaration.",0);
+        }
+        int close = declaration.indexOf(declaration.charAt(i),i+1);
+        if(close<0){
+            throw new ParseException("Malformed XML declaration.",0);
+        }
+        String name = declaration.substring(i+1,close);
+        try{
+            return Charset.forName(name);
+        }catch (IllegalCharsetNameException | UnsupportedCharsetException e){
+            throw new ParseException("Unsupported encoding \""+name+"\".",0);
+        }
+    }
+
+    private static boolean isWhitespace(char c){
+        return c==' ' || c=='\n' || c=='\t' || c=='\r';
+    }
+
+    /*
+    The text of a document and the extents of its elements, in document order.
+    The descendants of the element i are the elements from i+1 to i+sizes[i]-1.
+     */
+    private static final class Document {
+        private final String text;
+        private final NameTable names = new NameTable();
+        //position of the '<' of the start tag of each element
+        private int[] starts = new int[64];
+        //position that follows the '>' of the end tag of each element
+        private int[] ends = new int[64];
+        //number of elements in the subtree of each element
+        private int[] sizes = new int[64];
+        private int count;
+
+        Document(String text){
+            this.text=text;
+        }
+
+        /*
+        Records the extents of all the elements. Returns false if the document has a DOCTYPE.
+         */
+        boolean scan() throws ParseException {
+            int position = skipMisc(0,true);
+            if(position<0){
+                return false;
+            }
+            //index, start of the name and end of the name of the open elements
+            int[] stack = new int[48];
+            int depth = 0;
+            while(true){
+                //position is on the '<' of a start tag
+                if(count==starts.length){
+                    starts = Arrays.copyOf(starts,count*2);
+                    ends = Arrays.copyOf(ends,count*2);
+                    sizes = Arrays.copyOf(sizes,count*2);
+                }
+                int index = count++;
+                starts[index] = position;
+                int nameEnd = scanName(position+1);
+                int tagEnd = scanTagEnd(nameEnd);
+                if(text.charAt(tagEnd-1)=='/'){
+                    ends[index] = tagEnd+1;
+                    sizes[index] = 1;
+                }else{
+                    if(depth==stack.length){
+                        stack = Arrays.copyOf(stack,depth*2);
+                    }
+                    stack[depth] = index;
+                    stack[depth+1] = position+1;
+                    stack[depth+2] = nameEnd;
+                    depth += 3;
+                }
+                position = tagEnd+1;
+                //skips the content until the next start tag, closing the elements that end
+                while(depth>0){
+                    position = text.indexOf('<',position);
+                    if(position<0){
+                        throw new ParseException("The document ends before the end tag of "+
+                                text.substring(stack[depth-2],stack[depth-1])+".",text.length());
+                    }
+                    if(text.startsWith("</",position)){
+                        int nameStart = stack[depth-2];
+                        int nameLength = stack[depth-1]-nameStart;
+                        int closeEnd = position+2+nameLength;
+                        if(!text.regionMatches(position+2,text,nameStart,nameLength) || closeEnd>=text.length()
+                                || !(isWhitespace(text.charAt(closeEnd)) || text.charAt(closeEnd)=='>')){
+                            throw new ParseException("The end tag at this position doesn't match the start tag of "+
+                                    text.substring(nameStart,nameStart+nameLength)+".",position);
+                        }
+                        closeEnd = skipWhitespace(closeEnd);
+                        if(closeEnd>=text.length() || text.charAt(closeEnd)!='>'){
+                            throw new ParseException("Malformed end tag.",position);
+                        }
+                        depth -= 3;
+                        index = stack[depth];
+                        ends[index] = closeEnd+1;
+                        sizes[index] = count-index;
+                        position = closeEnd+1;
+                    }else if(text.startsWith("<!--",position)){
+                        position = skipPast("-->",position+4);
+                    }else if(text.startsWith("<![CDATA[",position)){
+                        position = skipPast("]]>",position+9);
+                    }else if(text.startsWith("<?",position)){
+                        position = skipPast("?>",position+2);
+                    }else if(text.startsWith("<!",position)){
+                        throw new ParseException("Unexpected markup.",position);
+                    }else{
+                        break;
+                    }
+                }
+                if(depth==0){
+                    break;
+                }
+            }
+            skipMisc(position,false);
+            starts = Arrays.copyOf(starts,count);
+            ends = Arrays.copyOf(ends,count);
+            sizes = Arrays.copyOf(sizes,count);
+            return true;
+        }
+
+        /*
+        Skips whitespace, comments and processing instructions. In the prolog, returns the position of the root element,
+        or -1 if there's a DOCTYPE; after the root, checks that nothing else follows.
+         */
+        private int skipMisc(int position, boolean prolog) throws ParseException {
+            //byte order mark of a document read as characters
+            if(prolog && !text.isEmpty() && text.charAt(0)=='\uFEFF'){
+                position++;
+            }
+            while(true){
+                position = skipWhitespace(position);
+                if(position>=text.length()){
+                    if(prolog){
+                        throw new ParseException("The document has no root element.",position);
+                    }
+                    return position;
+                }
+                if(text.startsWith("<?",position)){
+                    position = skipPast("?>",position+2);
+                }else if(text.startsWith("<!--",position)){
+                    position = skipPast("-->",position+4);
+                }else if(prolog && text.startsWith("<!DOCTYPE",position)){
+                    return -1;
+                }else if(prolog && text.charAt(position)=='<' && position+1<text.length() && text.charAt(position+1)!='!'){
+                    return position;
+                }else{
+                    throw new ParseException(prolog ? "Content is not allowed in the prolog." : "Content is not allowed after the root element.",position);
+                }
+            }
+        }
+
+        private int skipWhitespace(int position){
+            while(position<text.length() && isWhitespace(text.charAt(position))){
+                position++;
+            }
+            return position;
+        }
+
+        private int skipPast(String terminator, int position) throws ParseException {
+            int end = text.indexOf(terminator,position);
+            if(end<0){
+                throw new ParseException("Missing \""+terminator+"\".",position);
+            }
+            return end+terminator.length();
+        }
+
+        /*
+        Returns the end of the name that begins at position.
+         */
+        private int scanName(int position) throws ParseException {
+            int end = position;
+            char c;
+            while(end<text.length()){
+                c = text.charAt(end);
+                if(isWhitespace(c) || c=='/' || c=='>' || c=='=' || c=='<' || c=='"' || c=='\''){
+                    break;
+                }
+                end++;
+            }
+            if(end==position){
+                throw new ParseException("Missing name.",position);
+            }
+            return end;
+        }
+
+        /*
+        Returns the position of the '>' that ends the tag, skipping the attribute values.
+         */
+        private int scanTagEnd(int position) throws ParseException {
+            char c;
+            while(position<text.length()){
+                c = text.charAt(position);
+                if(c=='>'){
+                    return position;
+                }else if(c=='"' || c=='\''){
+                    position = text.indexOf(c,position+1);
+                    if(position<0){
+                        break;
+                    }
+                }else if(c=='<'){
+                    throw new ParseException("Unexpected '<' in a tag.",position);
+                }
+                position++;
+            }
+            throw new ParseException("Unterminated tag.",text.length());
+        }
+
+        /*
+        Creates the element with index i, whose content is loaded the first time it is accessed.
+         */
+        XMLElement newElement(int i){
+            int nameStart = starts[i]+1;
+            String name;
+            //elements of the same tree can be loaded by different threads during the parallel traversals
+            synchronized (names){
+                name = names.get(text.substring(nameStart,nameEnd(nameStart)));
+            }
+            return new XMLElement(name,new Source(this,i));
+        }
+
+        private int nameEnd(int position){
+            char c;
+            while(position<text.length()){
+                c = text.charAt(position);
+                if(isWhitespace(c) || c=='/' || c=='>'){
+                    break;
+                }
+                position++;
+            }
+            return position;
+        }
+
+        /*
+        Parses the attributes and the content of the element i into element.
+         */
+        void load(int i, XMLElement element) throws ParseException {
+            int position = nameEnd(starts[i]+1);
+            boolean hasContent;
+            //attributes
+            while(true){
+                int afterPrevious = position;
+                position = skipWhitespace(position);
+                char c = text.charAt(position);
+                if(c=='>'){
+                    hasContent = true;
+                    position++;
+                    break;
+                }
+                if(c=='/'){
+                    hasContent = false;
+                    break;
+                }
+                if(position==afterPrevious){
+                    throw new ParseException("Missing whitespace before an attribute.",position);
+                }
+                int nameEnd = scanName(position);
+                String name;
+                synchronized (names){
+                    name = names.get(text.substring(position,nameEnd));
+                }
+                position = skipWhitespace(nameEnd);
+                if(text.charAt(position)!='='){
+                    throw new ParseException("Missing '=' after the attribute "+name+".",position);
+                }
+                position = skipWhitespace(position+1);
+                char quote = text.charAt(position);
+                if(quote!='"' && quote!='\''){
+                    throw new ParseException("The value of the attribute "+name+" must be quoted.",position);
+                }
+                int valueEnd = text.indexOf(quote,position+1);
+                if(element.hasAttribute(name)){
+                    throw new ParseException("The attribute "+name+" is repeated.",position);
+                }
+                element.addLoadedAttribute(name,attributeValue(position+1,valueEnd));
+                position = valueEnd+1;
+            }
+            if(!hasContent){
+                return;
+            }
+            int contentEnd = text.lastIndexOf('<',ends[i]-1);
+            int child = i+1;
+            int last = i+sizes[i];
+            StringBuilder segment = new StringBuilder();
+            int next;
+            while(true){
+                next = text.indexOf('<',position);
+                appendText(segment,position,next);
+                if(next==contentEnd){
+                    break;
+                }
+                //any markup ends the current text node
+                flushText(element,segment);
+                if(child<last && starts[child]==next){
+                    element.addLoadedChild(newElement(child));
+                    position = ends[child];
+                    child += sizes[child];
+                }else if(text.startsWith("<!--",next)){
+                    position = skipPast("-->",next+4);
+                }else if(text.startsWith("<![CDATA[",next)){
+                    position = skipPast("]]>",next+9);
+                }else{
+                    position = skipPast("?>",next+2);
+                }
+            }
+            flushText(element,segment);
+            element.compactText();
+        }
+
+        private static void flushText(XMLElement element, StringBuilder segment){
+            if(segment.length()==0){
+                return;
+            }
+            XMLTreeBuilder.appendNormalizedText(element,segment,0,segment.length());
+            segment.setLength(0);
+        }
+
+        /*
+        Appends the text between start and end, replacing the references and normalising the line ends.
+         */
+        private void appendText(StringBuilder segment, int start, int end) throws ParseException {
+            char c;
+            for(int i=start;i<end;i++){
+                c = text.charAt(i);
+                if(c=='&'){
+                    segment.append(text,start,i);
+                    i = appendReference(segment,i)-1;
+                    start = i+1;
+                }else if(c=='\r'){
+                    segment.append(text,start,i).append('\n');
+                    if(i+1<end && text.charAt(i+1)=='\n'){
+                        i++;
+                    }
+                    start = i+1;
+                }
+            }
+            segment.append(text,start,end);
+        }
+
+        /*
+        Returns the value of an attribute, replacing the references and normalising the whitespace as the XML parsers do.
+         */
+        private String attributeValue(int start, int end) throws ParseException {
+            int i = start;
+            char c;
+            while(i<end && (c=text.charAt(i))!='&' && c!='<' && c!='\n' && c!='\r' && c!='\t'){
+                i++;
+            }
+            if(i==end){
+                return text.substring(start,end);
+            }
+            StringBuilder value = new StringBuilder(end-start);
+            value.append(text,start,i);
+            for(;i<end;i++){
+                c = text.charAt(i);
+                if(c=='&'){
+                    i = appendReference(value,i)-1;
+                }else if(c=='<'){
+                    throw new ParseException("The value of an attribute can't contain '<'.",i);
+                }else if(c=='\r'){
+                    value.append(' ');
+                    if(i+1<end && text.charAt(i+1)=='\n'){
+                        i++;
+                    }
+                }else if(c=='\n' || c=='\t'){
+                    value.append(' ');
+                }else{
+                    value.append(c);
+                }
+            }
+            return value.toString();
+        }
+
+        /*
+        Appends the character of the reference that starts at position, and returns the position that follows it.
+         */
+        private int appendReference(StringBuilder builder, int position) throws ParseException {
+            int semicolon = text.indexOf(';',position);
+            if(semicolon<0 || semicolon-position>12){
+                throw new ParseException("Malformed reference.",position);
+            }
+            String name = text.substring(position+1,semicolon);
+            switch (name){
+                case "lt": builder.append('<'); break;
+                case "gt": builder.append('>'); break;
+                case "amp": builder.append('&'); break;
+                case "apos": builder.append('\''); break;
+                case "quot": builder.append('"'); break;
+                default:
+                    if(name.length()<2 || name.charAt(0)!='#'){
+                        throw new ParseException("The entity \""+name+"\" is not declared.",position);
+                    }
+                    try{
+                        int code = name.charAt(1)=='x' ? Integer.parseInt(name.substring(2),16) : Integer.parseInt(name.substring(1));
+                        builder.appendCodePoint(code);
+                    }catch (IllegalArgumentException e){
+                        throw new ParseException("Invalid character reference.",position);
+                    }
+            }
+            return semicolon+1;
+        }
+    }
+
+    /*
+    Source of an element of a lazily parsed document.
+     */
+    private static final class Source extends ElementSource {
+        private final Document document;
+        private final int index;
+
+        Source(Document document, int index){
+            this.document=document;
+            this.index=index;
+        }
+
+        @Override
+        void load(XMLElement element) {
+            try{
+                document.load(index,element);
+            }catch (ParseException e){
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package it.trvi.easyxml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * InputStream that reads a file through memory mapping, so that its bytes are copied directly from the page cache
+ * to the buffers of the parser, without a read system call for every block.
+ * Files larger than MAX_REGION are mapped one region at a time. The mapped regions are released by the garbage collector.
+ */
+final class MappedInputStream extends InputStream {
+    //files that are smaller than this are read with a normal stream, since the mapping has a fixed cost
+    static final long MAPPING_THRESHOLD = 1<<20;
+    private static final long MAX_REGION = 1<<30;
+
+    private final FileChannel channel;
+    private final long size;
+    //position in the file of the start of the current region
+    private long regionStart;
+    private MappedByteBuffer region;
+
+    MappedInputStream(Path path) throws IOException {
+        channel = FileChannel.open(path,StandardOpenOption.READ);
+        try{
+            size = channel.size();
+            region = map(0);
+        }catch (IOException e){
+            channel.close();
+            throw e;
+        }
+    }
+
+    private MappedByteBuffer map(long start) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY,start,Math.min(MAX_REGION,size-start));
+    }
+
+    /*
+    Makes sure that the current region has bytes left, moving to the next region if needed. Returns false at the end of the file.
+     */
+    private boolean fill() throws IOException {
+        if(region==null){
+            throw new IOException("The stream is closed.");
+        }
+        if(region.hasRemaining()){
+            return true;
+        }
+        long next = regionStart+region.capacity();
+        if(next>=size){
+            return false;
+        }
+        regionStart = next;
+        region = map(next);
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? region.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len==0){
+            return 0;
+        }
+        if(!fill()){
+            return -1;
+        }
+        len = Math.min(len,region.remaining());
+        region.get(b,off,len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if(n<=0 || !fill()){
+            return 0;
+        }
+        int skipped = (int) Math.min(n,region.remaining());
+        region.position(region.position()+skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return region==null ? 0 : (int) Math.min(Integer.MAX_VALUE,size-regionStart-region.position());
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,226 @@
+package it.trvi.easyxml;
+
+import org.xml.sax.InputSource;
+
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Takes the measurements of a single parse or serialisation for XMLMetrics. It's created only when the instrumentation is enabled,
+ * so the documents that are not measured don't pay for the counting streams or for the final walk of the tree.
+ */
+final class MetricsRecorder {
+    private final XMLTreeBuilder.Engine engine;
+    private final Object event;
+    private final long start;
+    private CountingInputStream countingStream;
+    private CountingReader countingReader;
+    private long charactersRead = -1;
+    private long domParsed = -1;
+    private long converted = -1;
+
+    private MetricsRecorder(XMLTreeBuilder.Engine engine, Object event){
+        this.engine=engine;
+        this.event=event;
+        this.start=System.nanoTime();
+    }
+
+    static MetricsRecorder startParse(XMLTreeBuilder.Engine engine){
+        return new MetricsRecorder(engine,XMLMetrics.beginParse());
+    }
+
+    static MetricsRecorder startSerialization(){
+        return new MetricsRecorder(null,XMLMetrics.beginSerialization());
+    }
+
+    /*
+    Returns a source that reads the same stream as source, counting the bytes or the characters.
+     */
+    InputSource count(InputSource source){
+        if(source.getByteStream()!=null){
+            countingStream = new CountingInputStream(source.getByteStream());
+            return new InputSource(countingStream);
+        }
+        countingReader = new CountingReader(source.getCharacterStream());
+        return new InputSource(countingReader);
+    }
+
+    /*
+    Records the number of characters of a document that isn't read through count.
+     */
+    void setCharactersRead(long charactersRead){
+        this.charactersRead=charactersRead;
+    }
+
+    /*
+    Marks the end of the DOM parse, which is followed by the conversion.
+     */
+    void domParsed(){
+        domParsed = System.nanoTime();
+    }
+
+    void converted(){
+        converted = System.nanoTime();
+    }
+
+    void parsed(XMLElement root){
+        long end = System.nanoTime();
+        long bytes = countingStream==null ? -1 : countingStream.count;
+        long characters = countingReader==null ? charactersRead : countingReader.count;
+        long domDuration = -1;
+        long conversionDuration = -1;
+        if(domParsed>=0 && converted>=0){
+            domDuration = domParsed-start;
+            conversionDuration = converted-domParsed;
+        }
+        //the elements of a lazy tree that haven't been loaded are not walked, so measuring doesn't load them
+        long elements = 0;
+        long attributes = 0;
+        int maxDepth = 0;
+        ArrayList<XMLElement> stack = new ArrayList<>();
+        ArrayList<Integer> depths = new ArrayList<>();
+        stack.add(root);
+        depths.add(1);
+        XMLElement element;
+        int depth;
+        while(!stack.isEmpty()){
+            element = stack.remove(stack.size()-1);
+            depth = depths.remove(depths.size()-1);
+            elements++;
+            maxDepth = Math.max(maxDepth,depth);
+            if(!element.isLoaded()){
+                continue;
+            }
+            AttributeMap attributesMap = element.getLoadedAttributes();
+            if(attributesMap!=null){
+                attributes += attributesMap.size();
+            }
+            for(int i=element.getNumberOfChildren()-1;i>=0;i--){
+                stack.add(element.getChildAt(i));
+                depths.add(depth+1);
+            }
+        }
+        XMLMetrics.parsed(event,new XMLMetrics.ParseMetrics(engine,bytes,characters,elements,attributes,maxDepth,end-start,domDuration,conversionDuration));
+    }
+
+    /*
+    Returns a Writer that writes to writer, counting the characters.
+     */
+    Writer count(Writer writer){
+        return new CountingWriter(writer);
+    }
+
+    void serialized(XMLElement root, Writer countingWriter){
+        long end = System.nanoTime();
+        long elements = 0;
+        ArrayList<XMLElement> stack = new ArrayList<>();
+        stack.add(root);
+        XMLElement element;
+        while(!stack.isEmpty()){
+            element = stack.remove(stack.size()-1);
+            elements++;
+            for(int i=element.getNumberOfChildren()-1;i>=0;i--){
+                stack.add(element.getChildAt(i));
+            }
+        }
+        XMLMetrics.serialized(event,new XMLMetrics.SerializationMetrics(elements,((CountingWriter) countingWriter).count,end-start));
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream stream){
+            super(stream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b>=0){
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer,offset,length);
+            if(read>0){
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static final class CountingReader extends FilterReader {
+        private long count;
+
+        CountingReader(Reader reader){
+            super(reader);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if(c>=0){
+                count++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer,offset,length);
+            if(read>0){
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static final class CountingWriter extends FilterWriter {
+        private long count;
+
+        CountingWriter(Writer writer){
+            super(writer);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            out.write(buffer,offset,length);
+            count += length;
+        }
+
+        @Override
+        public void write(String string, int offset, int length) throws IOException {
+            out.write(string,offset,length);
+            count += length;
+        }
+    }
+}
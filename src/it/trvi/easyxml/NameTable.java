@@ -0,0 +1,34 @@
+package it.trvi.easyxml;
+
+import java.util.HashMap;
+
+/**
+ * Table that deduplicates the tag and attribute names of a document while it is parsed,
+ * so that all the elements with the same name share the same String instance.
+ */
+final class NameTable {
+    private final HashMap<String, String> names = new HashMap<>();
+    //prefix -> local name -> qualified name, so that "prefix:localName" is built only the first time it's seen
+    private final HashMap<String, HashMap<String, String>> qualifiedNames = new HashMap<>();
+
+    /*
+    Returns the shared instance of the name.
+     */
+    String get(String name){
+        String shared = names.putIfAbsent(name,name);
+        return shared==null ? name : shared;
+    }
+
+    /*
+    Returns the shared instance of the name "prefix:localName".
+     */
+    String get(String prefix, String localName){
+        HashMap<String, String> localNames = qualifiedNames.computeIfAbsent(prefix,p -> new HashMap<>());
+        String name = localNames.get(localName);
+        if(name==null){
+            name = get(prefix+":"+localName);
+            localNames.put(localName,name);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,339 @@
+package it.trvi.easyxml;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Fork/join traversals of the tree of an XMLElement. The children of an element are split into ranges whose subtrees have about
+ * threshold elements, and each range is a task; a subtree with fewer elements than the threshold is always visited sequentially,
+ * so small trees and wide elements with many small children don't pay the overhead of a task for each child.
+ * The tree must not be modified while it's traversed.
+ */
+final class ParallelTraversal {
+    static final int DEFAULT_THRESHOLD = 8192;
+    //number of nested levels of tasks that split their elements, after which the subtrees are visited sequentially,
+    //since a task that isn't stolen runs inside the one that forked it and a deep tree would overflow the stack
+    private static final int MAX_SPLIT_DEPTH = 256;
+
+    private ParallelTraversal(){
+    }
+
+    /*
+    Returns the number of elements in the subtree of element, counting at most limit elements.
+     */
+    static int countUpTo(XMLElement element, int limit){
+        if(element.getNumberOfChildren()==0){
+            return 1;
+        }
+        ArrayList<XMLElement> stack = new ArrayList<>();
+        stack.add(element);
+        int count = 0;
+        XMLElement current;
+        while(!stack.isEmpty() && count<limit){
+            current = stack.remove(stack.size()-1);
+            count++;
+            for(int i=current.getNumberOfChildren()-1;i>=0;i--){
+                stack.add(current.getChildAt(i));
+            }
+        }
+        return count;
+    }
+
+    static ArrayList<XMLElement> getDescendantsWithTag(XMLElement element, String tagName, int threshold){
+        int splits = countUpTo(element,threshold)>=threshold ? MAX_SPLIT_DEPTH : 0;
+        return ForkJoinPool.commonPool().invoke(new SearchTask(element,true,0,element.getNumberOfChildren(),tagName,threshold,splits));
+    }
+
+    static void forEach(XMLElement element, Consumer<XMLElement> visitor, int threshold){
+        int splits = countUpTo(element,threshold)>=threshold ? MAX_SPLIT_DEPTH : 0;
+        ForkJoinPool.commonPool().invoke(new VisitTask(element,true,0,element.getNumberOfChildren(),visitor,threshold,splits));
+    }
+
+    /*
+    Splits the children of parent from index from to index to into consecutive ranges, whose subtrees have together
+    at least threshold elements and less than twice as many, except for the last range and for those that precede a large child.
+    A child whose subtree has threshold elements or more is large, and has a range of its own. A wide element with small children
+    is thus split into a few ranges of about threshold elements, rather than into a task for each child.
+    Each range is returned as {first child, last child + 1, 1 if it's a large child and 0 otherwise}.
+     */
+    private static ArrayList<int[]> splitChildren(XMLElement parent, int from, int to, int threshold){
+        ArrayList<int[]> ranges = new ArrayList<>();
+        int start = from;
+        int elements = 0;
+        int size;
+        for(int i=from;i<to;i++){
+            size = countUpTo(parent.getChildAt(i),threshold);
+            if(size>=threshold){
+                if(start<i){
+                    ranges.add(new int[]{start,i,0});
+                }
+                ranges.add(new int[]{i,i+1,1});
+                start = i+1;
+                elements = 0;
+                continue;
+            }
+            elements += size;
+            if(elements>=threshold){
+                ranges.add(new int[]{start,i+1,0});
+                start = i+1;
+                elements = 0;
+            }
+        }
+        if(start<to){
+            ranges.add(new int[]{start,to,0});
+        }
+        return ranges;
+    }
+
+    /*
+    Collects the elements with the tag name, in document order. The task covers the subtrees of the children of element
+    from index from to index to, and element itself if withElement is true. If splits is 0 they are searched sequentially,
+    otherwise the children are split into ranges by splitChildren and each range is searched by a new task;
+    a range with at least twice threshold children is first halved, without counting the elements of its subtrees.
+    splits is the number of levels of large children that can still be split, which is decreased for the task of each large child.
+    Whether a range must be split is decided by the task that creates it, so each subtree is counted once per level.
+    The tasks are never serialized.
+     */
+    @SuppressWarnings("serial")
+    private static final class SearchTask extends RecursiveTask<ArrayList<XMLElement>> {
+        private final XMLElement element;
+        private final boolean withElement;
+        private final int from;
+        private final int to;
+        private final String tagName;
+        private final int threshold;
+        private final int splits;
+
+        SearchTask(XMLElement element, boolean withElement, int from, int to, String tagName, int threshold, int splits){
+            this.element=element;
+            this.withElement=withElement;
+            this.from=from;
+            this.to=to;
+            this.tagName=tagName;
+            this.threshold=threshold;
+            this.splits=splits;
+        }
+
+        @Override
+        protected ArrayList<XMLElement> compute() {
+            ArrayList<XMLElement> result = new ArrayList<>();
+            if(withElement && element.getTagName().equals(tagName)){
+                result.add(element);
+            }
+            if(splits==0){
+                for(int i=from;i<to;i++){
+                    collect(element.getChildAt(i),result);
+                }
+                return result;
+            }
+            if(to-from>=2L*threshold){
+                //the range has enough elements for two tasks even without counting them, so the counting is split too
+                int middle = (from+to)>>>1;
+                SearchTask first = new SearchTask(element,false,from,middle,tagName,threshold,splits);
+                SearchTask second = new SearchTask(element,false,middle,to,tagName,threshold,splits);
+                invokeAll(first,second);
+                result.addAll(first.join());
+                result.addAll(second.join());
+                return result;
+            }
+            ArrayList<int[]> ranges = splitChildren(element,from,to,threshold);
+            SearchTask[] tasks = new SearchTask[ranges.size()];
+            int[] range;
+            XMLElement child;
+            for(int i=0;i<tasks.length;i++){
+                range = ranges.get(i);
+                if(range[2]==1){
+                    child = element.getChildAt(range[0]);
+                    tasks[i] = new SearchTask(child,true,0,child.getNumberOfChildren(),tagName,threshold,splits-1);
+                }else{
+                    tasks[i] = new SearchTask(element,false,range[0],range[1],tagName,threshold,0);
+                }
+            }
+            invokeAll(tasks);
+            for(SearchTask task : tasks){
+                result.addAll(task.join());
+            }
+            return result;
+        }
+
+        private void collect(XMLElement element, ArrayList<XMLElement> result){
+            ArrayList<XMLElement> stack = new ArrayList<>();
+            stack.add(element);
+            XMLElement current;
+            while(!stack.isEmpty()){
+                current = stack.remove(stack.size()-1);
+                if(current.getTagName().equals(tagName)){
+                    result.add(current);
+                }
+                for(int i=current.getNumberOfChildren()-1;i>=0;i--){
+                    stack.add(current.getChildAt(i));
+                }
+            }
+        }
+    }
+
+    /*
+    Passes every element to the visitor. The order is not defined. The work is split as for SearchTask.
+     */
+    @SuppressWarnings("serial")
+    private static final class VisitTask extends RecursiveAction {
+        private final XMLElement element;
+        private final boolean withElement;
+        private final int from;
+        private final int to;
+        private final Consumer<XMLElement> visitor;
+        private final int threshold;
+        private final int splits;
+
+        VisitTask(XMLElement element, boolean withElement, int from, int to, Consumer<XMLElement> visitor, int threshold, int splits){
+            this.element=element;
+            this.withElement=withElement;
+            this.from=from;
+            this.to=to;
+            this.visitor=visitor;
+            this.threshold=threshold;
+            this.splits=splits;
+        }
+
+        @Override
+        protected void compute() {
+            if(withElement){
+                visitor.accept(element);
+            }
+            if(splits==0){
+                for(int i=from;i<to;i++){
+                    visit(element.getChildAt(i));
+                }
+                return;
+            }
+            if(to-from>=2L*threshold){
+                int middle = (from+to)>>>1;
+                invokeAll(new VisitTask(element,false,from,middle,visitor,threshold,splits),new VisitTask(element,false,middle,to,visitor,threshold,splits));
+                return;
+            }
+            ArrayList<int[]> ranges = splitChildren(element,from,to,threshold);
+            VisitTask[] tasks = new VisitTask[ranges.size()];
+            int[] range;
+            XMLElement child;
+            for(int i=0;i<tasks.length;i++){
+                range = ranges.get(i);
+                if(range[2]==1){
+                    child = element.getChildAt(range[0]);
+                    tasks[i] = new VisitTask(child,true,0,child.getNumberOfChildren(),visitor,threshold,splits-1);
+                }else{
+                    tasks[i] = new VisitTask(element,false,range[0],range[1],visitor,threshold,0);
+                }
+            }
+            invokeAll(tasks);
+        }
+
+        private void visit(XMLElement element){
+            ArrayList<XMLElement> stack = new ArrayList<>();
+            stack.add(element);
+            XMLElement current;
+            while(!stack.isEmpty()){
+                current = stack.remove(stack.size()-1);
+                visitor.accept(current);
+                for(int i=current.getNumberOfChildren()-1;i>=0;i--){
+                    stack.add(current.getChildAt(i));
+                }
+            }
+        }
+    }
+
+    /*
+    Spliterator over an element and its descendants in document order. It holds a queue of pending items, each being either
+    a whole subtree or a single element; it splits by handing the first half of the queue to the new spliterator,
+    expanding a subtree into its root and its children when the queue has a single item.
+     */
+    static final class DescendantSpliterator implements Spliterator<XMLElement> {
+        private final ArrayDeque<XMLElement> pending;
+        //the elements of pending whose descendants must not be visited
+        private final ArrayDeque<Boolean> selfOnly;
+        private final int threshold;
+
+        DescendantSpliterator(XMLElement element, int threshold){
+            this(new ArrayDeque<>(),new ArrayDeque<>(),threshold);
+            pending.add(element);
+            selfOnly.add(false);
+        }
+
+        private DescendantSpliterator(ArrayDeque<XMLElement> pending, ArrayDeque<Boolean> selfOnly, int threshold){
+            this.pending=pending;
+            this.selfOnly=selfOnly;
+            this.threshold=threshold;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super XMLElement> action) {
+            XMLElement element = pending.pollFirst();
+            if(element==null){
+                return false;
+            }
+            if(!selfOnly.pollFirst()){
+                for(int i=element.getNumberOfChildren()-1;i>=0;i--){
+                    pending.addFirst(element.getChildAt(i));
+                    selfOnly.addFirst(false);
+                }
+            }
+            action.accept(element);
+            return true;
+        }
+
+        @Override
+        public Spliterator<XMLElement> trySplit() {
+            if(pending.size()==1){
+                XMLElement element = pending.peekFirst();
+                if(selfOnly.peekFirst() || element.getNumberOfChildren()==0){
+                    return null;
+                }
+                selfOnly.pollFirst();
+                selfOnly.addFirst(true);
+                for(int i=0;i<element.getNumberOfChildren();i++){
+                    pending.addLast(element.getChildAt(i));
+                    selfOnly.addLast(false);
+                }
+            }
+            if(pending.size()<2 || !hasAtLeast(threshold)){
+                return null;
+            }
+            ArrayDeque<XMLElement> prefix = new ArrayDeque<>();
+            ArrayDeque<Boolean> prefixSelfOnly = new ArrayDeque<>();
+            for(int i=pending.size()/2;i>0;i--){
+                prefix.addLast(pending.pollFirst());
+                prefixSelfOnly.addLast(selfOnly.pollFirst());
+            }
+            return new DescendantSpliterator(prefix,prefixSelfOnly,threshold);
+        }
+
+        /*
+        Returns true if the pending items contain at least limit elements.
+         */
+        private boolean hasAtLeast(int limit){
+            int count = 0;
+            java.util.Iterator<Boolean> flags = selfOnly.iterator();
+            for(XMLElement element : pending){
+                count += flags.next() ? 1 : countUpTo(element,limit-count);
+                if(count>=limit){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long estimateSize() {
+            return pending.isEmpty() ? 0 : Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | DISTINCT;
+        }
+    }
+}
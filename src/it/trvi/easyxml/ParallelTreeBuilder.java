@@ -0,0 +1,259 @@
+package it.trvi.easyxml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Parses a document on several threads, splitting it between the children of the root element.
+ * A fast pre-scan finds where the children of the root begin; consecutive children are grouped into chunks of similar size,
+ * and each chunk is parsed as the content of a placeholder element by the engine of the XMLTreeBuilder. The root itself is parsed
+ * from the document without its children, and the children of the chunks are then attached to it in document order.
+ * Every text node ends before the next child, so the text content is the same as the one of a sequential parse.
+ * Documents that can't be split safely, such as those with a DOCTYPE that could define entities, are parsed sequentially,
+ * and so are all the documents with an error, so that the error is reported as in a sequential parse.
+ */
+final class ParallelTreeBuilder {
+    //documents shorter than two chunks are parsed sequentially
+    static final int MIN_CHUNK_LENGTH = 1<<18;
+    private static final String PLACEHOLDER_START = "<_>";
+    private static final String PLACEHOLDER_END = "</_>";
+
+    private ParallelTreeBuilder(){
+    }
+
+    /*
+    Returns the tree of the document, or null if the document must be parsed sequentially.
+     */
+    static XMLElement build(XMLTreeBuilder builder, String text, Executor executor){
+        //with a single processor the chunks would only add work
+        if(text.length()<2*MIN_CHUNK_LENGTH || Runtime.getRuntime().availableProcessors()<2){
+            return null;
+        }
+        Split split = new Split(text);
+        if(!split.scan() || split.childStarts.size()<2){
+            return null;
+        }
+        int chunkLength = Math.max(MIN_CHUNK_LENGTH,text.length()/(4*Runtime.getRuntime().availableProcessors()));
+        //the chunks go from the start of a child to the start of the first child of the next chunk
+        ArrayList<Integer> bounds = new ArrayList<>();
+        int start = split.childStarts.get(0);
+        bounds.add(start);
+        for(int i=1;i<split.childStarts.size();i++){
+            if(split.childStarts.get(i)-start>=chunkLength){
+                start = split.childStarts.get(i);
+                bounds.add(start);
+            }
+        }
+        bounds.add(split.rootEnd);
+        if(bounds.size()<3){
+            return null;
+        }
+        ArrayList<CompletableFuture<XMLElement>> chunks = new ArrayList<>(bounds.size()-1);
+        for(int i=0;i<bounds.size()-1;i++){
+            Reader reader = new SegmentReader(split.declaration+PLACEHOLDER_START,text,bounds.get(i),bounds.get(i+1),PLACEHOLDER_END);
+            chunks.add(CompletableFuture.supplyAsync(() -> parse(builder,reader),executor));
+        }
+        try{
+            //the root with its attributes and the text before its first child
+            XMLElement root = parse(builder,new SegmentReader("",text,0,bounds.get(0),"")
+                    .append(text,split.rootEnd,text.length()));
+            XMLElement placeholder;
+            for(CompletableFuture<XMLElement> chunk : chunks){
+                placeholder = chunk.join();
+                root.appendLoadedText(placeholder.getTextContent());
+                for(int i=0;i<placeholder.getNumberOfChildren();i++){
+                    root.addLoadedChild(placeholder.getChildAt(i));
+                }
+            }
+            root.compactText();
+            return root;
+        }catch (CompletionException e){
+            return null;
+        }
+    }
+
+    private static XMLElement parse(XMLTreeBuilder builder, Reader reader){
+        try{
+            return builder.parseFragment(reader);
+        }catch (ParseException | IOException e){
+            throw new CompletionException(e);
+        }
+    }
+
+    /*
+    Finds the XML declaration, the start of each child of the root and the start of the end tag of the root.
+    Only the tags are followed: their names and the content are checked by the parsers of the chunks.
+     */
+    private static final class Split {
+        private final String text;
+        private String declaration = "";
+        private final ArrayList<Integer> childStarts = new ArrayList<>();
+        private int rootEnd;
+
+        Split(String text){
+            this.text=text;
+        }
+
+        /*
+        Returns false if the document can't be split.
+         */
+        boolean scan(){
+            int position = 0;
+            if(text.charAt(0)=='\uFEFF'){
+                position++;
+            }
+            if(text.startsWith("<?xml",position)){
+                int end = text.indexOf("?>",position);
+                if(end<0){
+                    return false;
+                }
+                //the chunks are parsed with the same version of XML
+                declaration = text.substring(position,end+2);
+            }
+            //prolog
+            while(true){
+                position = text.indexOf('<',position);
+                if(position<0){
+                    return false;
+                }
+                if(text.startsWith("<?",position)){
+                    position = skipPast("?>",position+2);
+                }else if(text.startsWith("<!--",position)){
+                    position = skipPast("-->",position+4);
+                }else if(text.startsWith("<!",position)){
+                    //DOCTYPE
+                    return false;
+                }else{
+                    break;
+                }
+                if(position<0){
+                    return false;
+                }
+            }
+            position = tagEnd(position+1);
+            if(position<0 || text.charAt(position-1)=='/'){
+                return false;
+            }
+            int depth = 1;
+            while(true){
+                position = text.indexOf('<',position+1);
+                if(position<0){
+                    return false;
+                }
+                if(text.startsWith("</",position)){
+                    if(--depth==0){
+                        rootEnd = position;
+                        return true;
+                    }
+                    position = text.indexOf('>',position);
+                }else if(text.startsWith("<!--",position)){
+                    position = skipPast("-->",position+4)-1;
+                }else if(text.startsWith("<![CDATA[",position)){
+                    position = skipPast("]]>",position+9)-1;
+                }else if(text.startsWith("<?",position)){
+                    position = skipPast("?>",position+2)-1;
+                }else if(text.startsWith("<!",position)){
+                    return false;
+                }else{
+                    if(depth==1){
+                        childStarts.add(position);
+                    }
+                    position = tagEnd(position+1);
+                    if(position>=0 && text.charAt(position-1)!='/'){
+                        depth++;
+                    }
+                }
+                if(position<0){
+                    return false;
+                }
+            }
+        }
+
+        /*
+        Returns the position that follows the terminator, or -1 if it's missing.
+         */
+        private int skipPast(String terminator, int position){
+            int end = text.indexOf(terminator,position);
+            return end<0 ? -1 : end+terminator.length();
+        }
+
+        /*
+        Returns the position of the '>' that ends the tag, skipping the attribute values, or -1 if it's missing.
+         */
+        private int tagEnd(int position){
+            char c;
+            while(position<text.length()){
+                c = text.charAt(position);
+                if(c=='>'){
+                    return position;
+                }else if(c=='"' || c=='\''){
+                    position = text.indexOf(c,position+1);
+                    if(position<0){
+                        return -1;
+                    }
+                }
+                position++;
+            }
+            return -1;
+        }
+    }
+
+    /*
+    Reader over a sequence of segments of strings, which are not copied.
+     */
+    private static final class SegmentReader extends Reader {
+        private final ArrayList<String> strings = new ArrayList<>(4);
+        private final ArrayList<int[]> ranges = new ArrayList<>(4);
+        private int segment;
+        //position of the next character in the current segment, -1 before the first read
+        private int next = -1;
+
+        SegmentReader(String prefix, String text, int start, int end, String suffix){
+            append(prefix,0,prefix.length());
+            append(text,start,end);
+            append(suffix,0,suffix.length());
+        }
+
+        SegmentReader append(String string, int start, int end){
+            if(start<end){
+                strings.add(string);
+                ranges.add(new int[]{start,end});
+            }
+            return this;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if(length==0){
+                return 0;
+            }
+            if(next<0 && !strings.isEmpty()){
+                next = ranges.get(0)[0];
+            }
+            while(segment<strings.size() && next>=ranges.get(segment)[1]){
+                segment++;
+                if(segment<strings.size()){
+                    next = ranges.get(segment)[0];
+                }
+            }
+            if(segment>=strings.size()){
+                return -1;
+            }
+            int end = Math.min(next+length,ranges.get(segment)[1]);
+            strings.get(segment).getChars(next,end,buffer,offset);
+            length = end-next;
+            next = end;
+            return length;
+        }
+
+        @Override
+        public void close() {
+            segment = strings.size();
+        }
+    }
+}
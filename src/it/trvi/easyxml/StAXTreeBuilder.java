@@ -0,0 +1,151 @@
+package it.trvi.easyxml;
+
+import org.xml.sax.InputSource;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import java.io.CharConversionException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+
+/**
+ * Parsing engine that builds the XMLElement tree directly from the StAX event stream, in a single pass.
+ * It follows the same rules of the DOM engine: namespaces are not processed, CDATA sections are ignored
+ * and every text node is trimmed line by line.
+ */
+final class StAXTreeBuilder {
+
+    /*
+    Makes the JDK parser report CDATA sections as separate events, like the DOM parser does.
+     */
+    private static final String REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private StAXTreeBuilder(){
+    }
+
+    /*
+    Creates a factory configured to behave like the default DocumentBuilderFactory.
+     */
+    static XMLInputFactory newFactory(){
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE,false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING,false);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES,true);
+        if(factory.isPropertySupported(REPORT_CDATA_EVENT)){
+            factory.setProperty(REPORT_CDATA_EVENT,true);
+        }
+        return factory;
+    }
+
+    /*
+    Parses the document read from the byte stream or the character stream of the source, and closes the stream.
+    If tagIndexing is true, the root gets a tag index that is filled while the elements are built.
+    The events after the root are read too, so that an error at the end of the document is reported as with the DOM engine.
+     */
+    static XMLElement build(XMLInputFactory factory, InputSource source, boolean tagIndexing) throws ParseException, IOException {
+        Closeable input = source.getByteStream()!=null ? source.getByteStream() : source.getCharacterStream();
+        try{
+            XMLStreamReader reader = source.getByteStream()!=null ? factory.createXMLStreamReader(source.getByteStream())
+                    : factory.createXMLStreamReader(source.getCharacterStream());
+            try{
+                while(reader.next()!=XMLStreamConstants.START_ELEMENT);
+                TagIndex index = tagIndexing ? new TagIndex() : null;
+                XMLElement root = buildElement(reader,new NameTable(),index);
+                root.setTagIndex(index);
+                while(reader.hasNext()){
+                    reader.next();
+                }
+                return root;
+            }finally {
+                reader.close();
+            }
+        }catch (XMLStreamException e){
+            throw toParseException(e);
+        }finally {
+            input.close();
+        }
+    }
+
+    /*
+    Builds the element on which the reader is positioned. The reader must be on a START_ELEMENT event,
+    and it is left on the matching END_ELEMENT event. The names are deduplicated through the table.
+    If index is not null, the elements are registered in it while they are built.
+     */
+    static XMLElement buildElement(XMLStreamReader reader, NameTable names, TagIndex index) throws XMLStreamException {
+        ArrayList<XMLElement> stack = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        XMLElement current = startElement(reader,names,index);
+        int event;
+        while(true){
+            event = reader.next();
+            if(event==XMLStreamConstants.CHARACTERS || event==XMLStreamConstants.SPACE){
+                text.append(reader.getTextCharacters(),reader.getTextStart(),reader.getTextLength());
+                continue;
+            }
+            //any other event ends the current text node
+            flushText(current,text);
+            if(event==XMLStreamConstants.START_ELEMENT){
+                stack.add(current);
+                current = startElement(reader,names,index);
+            }else if(event==XMLStreamConstants.END_ELEMENT){
+                current.compactText();
+                if(index!=null){
+                    index.exit(current);
+                }
+                if(stack.isEmpty()){
+                    return current;
+                }
+                XMLElement parent = stack.remove(stack.size()-1);
+                parent.addChild(current);
+                current = parent;
+            }else if(event==XMLStreamConstants.END_DOCUMENT){
+                throw new XMLStreamException("Unexpected end of document.");
+            }
+        }
+    }
+
+    /*
+    Creates the XMLElement for the START_ELEMENT on which the reader is positioned, with all its attributes.
+     */
+    static XMLElement startElement(XMLStreamReader reader, NameTable names, TagIndex index){
+        XMLElement element = new XMLElement(names.get(reader.getLocalName()));
+        if(index!=null){
+            index.enter(element);
+        }
+        String prefix;
+        for(int i=0;i<reader.getAttributeCount();i++){
+            prefix = reader.getAttributePrefix(i);
+            if(prefix==null || prefix.isEmpty()){
+                element.addAttribute(names.get(reader.getAttributeLocalName(i)),reader.getAttributeValue(i));
+            }else{
+                element.addAttribute(names.get(prefix,reader.getAttributeLocalName(i)),reader.getAttributeValue(i));
+            }
+        }
+        return element;
+    }
+
+    static void flushText(XMLElement element, StringBuilder text){
+        if(text.length()==0){
+            return;
+        }
+        XMLTreeBuilder.appendNormalizedText(element,text,0,text.length());
+        text.setLength(0);
+    }
+
+    /*
+    Converts a StAX exception into the exceptions thrown by XMLTreeBuilder.
+    Bytes that are not valid in the encoding of the document are reported by the reader as a CharConversionException,
+    but they are an error in the document, not in reading it.
+     */
+    static ParseException toParseException(XMLStreamException e) throws IOException {
+        if(e.getNestedException() instanceof IOException && !(e.getNestedException() instanceof CharConversionException)){
+            throw (IOException) e.getNestedException();
+        }
+        return new ParseException(e.getLocalizedMessage(),-1);
+    }
+}
@@ -0,0 +1,208 @@
+package it.trvi.easyxml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index from tag names to the elements of a tree, in document order. It is kept by the root of the tree.
+ * Every element of the tree records its position in document order and the position of its last descendant,
+ * so the descendants of any element with a given tag are a contiguous range of the list of that tag.
+ * The positions are spaced out, and the index is updated when a subtree is added, removed or moved: a removed subtree
+ * is a range of each list, and an added subtree takes free positions between the element that precedes it and the one that follows it.
+ * Only when there are not enough free positions the index is marked as stale, and it is rebuilt in a single pass by the next lookup.
+ * Repeated lookups cost O(log n + results). All the methods that can be called on a published index are synchronized,
+ * so that lookups on the same tree from different threads, which may rebuild the index, don't interfere with each other.
+ */
+final class TagIndex {
+    //distance between the positions of consecutive elements, which leaves room for the elements that are added later
+    private static final int SPACING = 16;
+    //positions after which the elements registered by enter are no longer spaced out, so that they don't overflow
+    private static final int SPACED_POSITIONS = Integer.MAX_VALUE/2;
+
+    private final HashMap<String, ArrayList<XMLElement>> elementsByTag = new HashMap<>();
+    private int nextPosition;
+    //position of the last element registered by enter
+    private int lastPosition;
+    private boolean stale;
+
+    /*
+    Registers an element, whose descendants are registered next. Used while the tree is built in document order, before the index is published.
+     */
+    void enter(XMLElement element){
+        element.indexPosition = nextPosition;
+        lastPosition = nextPosition;
+        nextPosition += nextPosition<SPACED_POSITIONS ? SPACING : 1;
+        elementsByTag.computeIfAbsent(element.getTagName(),t -> new ArrayList<>()).add(element);
+    }
+
+    /*
+    Must be called once all the descendants of the element have been registered.
+     */
+    void exit(XMLElement element){
+        element.indexLastDescendant = lastPosition;
+    }
+
+    synchronized void invalidate(){
+        stale = true;
+    }
+
+    /*
+    Returns the element and its descendants that have the tag name, in document order. root is the root of the indexed tree.
+     */
+    synchronized ArrayList<XMLElement> getDescendantsWithTag(XMLElement root, XMLElement element, String tagName){
+        if(stale){
+            rebuild(root);
+        }
+        ArrayList<XMLElement> result = new ArrayList<>();
+        ArrayList<XMLElement> elements = elementsByTag.get(tagName);
+        if(elements==null){
+            return result;
+        }
+        for(int i=firstNotBefore(elements,element.indexPosition);i<elements.size() && elements.get(i).indexPosition<=element.indexLastDescendant;i++){
+            result.add(elements.get(i));
+        }
+        return result;
+    }
+
+    /*
+    Must be called after element has been added to the tree, with previous being its previous sibling or null if it's the first child.
+     */
+    synchronized void added(XMLElement element, XMLElement previous){
+        if(stale){
+            return;
+        }
+        XMLElement parent = element.getParent();
+        //the new elements take the free positions after the one that precedes them in document order
+        int after = previous==null ? parent.indexPosition : previous.indexLastDescendant;
+        int before = firstPositionAfter(after);
+        int count = countElements(element);
+        if((long)before-after-1<count){
+            stale = true;
+            return;
+        }
+        int step = (int) Math.min(SPACING,((long)before-after)/(count+1));
+        HashMap<String, ArrayList<XMLElement>> added = new HashMap<>();
+        number(element,after+step,step,added);
+        for(Map.Entry<String, ArrayList<XMLElement>> entry : added.entrySet()){
+            ArrayList<XMLElement> elements = elementsByTag.computeIfAbsent(entry.getKey(),t -> new ArrayList<>());
+            elements.addAll(firstNotBefore(elements,element.indexPosition),entry.getValue());
+        }
+        for(XMLElement ancestor = parent; ancestor!=null && ancestor.indexLastDescendant<element.indexLastDescendant; ancestor = ancestor.getParent()){
+            ancestor.indexLastDescendant = element.indexLastDescendant;
+        }
+    }
+
+    /*
+    Must be called when element is removed from the tree, with its descendants. The positions of its subtree are left free.
+     */
+    synchronized void removed(XMLElement element){
+        if(stale){
+            return;
+        }
+        for(ArrayList<XMLElement> elements : elementsByTag.values()){
+            int start = firstNotBefore(elements,element.indexPosition);
+            int end = firstNotBefore(elements,element.indexLastDescendant+1);
+            if(start<end){
+                elements.subList(start,end).clear();
+            }
+        }
+    }
+
+    /*
+    Rebuilds the index, spacing out the positions as much as their range allows.
+     */
+    private void rebuild(XMLElement root){
+        elementsByTag.clear();
+        int step = (int) Math.max(1,Math.min(SPACING,(long)Integer.MAX_VALUE/(countElements(root)+1)));
+        number(root,0,step,elementsByTag);
+        stale = false;
+    }
+
+    /*
+    Gives to top and its descendants positions in document order, starting from first and spaced by step,
+    and adds them to the lists of their tags. Uses an iterative depth-first visit of the tree.
+     */
+    private static void number(XMLElement top, int first, int step, HashMap<String, ArrayList<XMLElement>> byTag){
+        int position = first;
+        ArrayList<XMLElement> stack = new ArrayList<>();
+        //index of the next child to visit for each element in the stack
+        int[] nextChild = new int[16];
+        top.indexPosition = position;
+        position += step;
+        byTag.computeIfAbsent(top.getTagName(),t -> new ArrayList<>()).add(top);
+        stack.add(top);
+        XMLElement element;
+        int depth;
+        while(!stack.isEmpty()){
+            depth = stack.size()-1;
+            element = stack.get(depth);
+            if(nextChild[depth]<element.getNumberOfChildren()){
+                XMLElement child = element.getChildAt(nextChild[depth]++);
+                child.indexPosition = position;
+                position += step;
+                byTag.computeIfAbsent(child.getTagName(),t -> new ArrayList<>()).add(child);
+                stack.add(child);
+                if(stack.size()==nextChild.length){
+                    nextChild = Arrays.copyOf(nextChild,nextChild.length*2);
+                }
+                nextChild[depth+1] = 0;
+            }else{
+                element.indexLastDescendant = position-step;
+                stack.remove(depth);
+            }
+        }
+    }
+
+    /*
+    Returns the number of elements in the subtree of top.
+     */
+    private static int countElements(XMLElement top){
+        int count = 0;
+        ArrayList<XMLElement> stack = new ArrayList<>();
+        stack.add(top);
+        XMLElement element;
+        while(!stack.isEmpty()){
+            element = stack.remove(stack.size()-1);
+            count++;
+            for(int i=0;i<element.getNumberOfChildren();i++){
+                stack.add(element.getChildAt(i));
+            }
+        }
+        return count;
+    }
+
+    /*
+    Returns the smallest position of an indexed element that is greater than position, or Integer.MAX_VALUE if there's none.
+     */
+    private int firstPositionAfter(int position){
+        int result = Integer.MAX_VALUE;
+        for(ArrayList<XMLElement> elements : elementsByTag.values()){
+            int i = firstNotBefore(elements,position+1);
+            if(i<elements.size()){
+                result = Math.min(result,elements.get(i).indexPosition);
+            }
+        }
+        return result;
+    }
+
+    /*
+    Binary search of the first element of the list whose position is not less than position.
+     */
+    private static int firstNotBefore(List<XMLElement> elements, int position){
+        int low = 0;
+        int high = elements.size();
+        int middle;
+        while(low<high){
+            middle = (low+high)>>>1;
+            if(elements.get(middle).indexPosition<position){
+                low = middle+1;
+            }else{
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,444 @@
+package it.trvi.easyxml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Parses many documents concurrently, such as all the files of a directory. The documents are parsed by a fixed number of workers,
+ * each of which parses one document after the other and so reuses the parsers of its XMLTreeBuilder.
+ * By default the workers run on virtual threads, when the Java runtime provides them, otherwise on a shared pool of daemon threads.
+ * <p>
+ * An error in a document doesn't stop the batch: it's reported only for that document, by the future or by the Result of the document.
+ * Any other Error than the StackOverflowError of a document that is too deep, such as an OutOfMemoryError, is reported for the document
+ * too, but then it's rethrown by the worker, which is replaced by a new one.
+ * With the LAZY engine, the errors in the content of the elements are thrown when the elements are accessed, as usual.
+ * The InputStreams are closed once they have been parsed.
+ */
+public class XMLBatchParser {
+    private static final Executor DEFAULT_EXECUTOR = createDefaultExecutor();
+    private static final int DEFAULT_CONCURRENCY = Math.max(16,4*Runtime.getRuntime().availableProcessors());
+
+    private final XMLTreeBuilder builder;
+    private final Executor executor;
+    private final int maxConcurrency;
+
+    /**
+     * Constructor for an XMLBatchParser that parses the documents with an XMLTreeBuilder, on virtual threads if they are available.
+     * At most sixteen documents, or four per processor if there are more than four processors, are parsed at the same time.
+     *
+     * @param builder is the XMLTreeBuilder used to parse the documents
+     */
+    public XMLBatchParser(XMLTreeBuilder builder){
+        this(builder,DEFAULT_EXECUTOR,DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Constructor for an XMLBatchParser that parses the documents with an XMLTreeBuilder, on virtual threads if they are available.
+     *
+     * @param builder is the XMLTreeBuilder used to parse the documents
+     * @param maxConcurrency is the maximum number of documents that are parsed at the same time
+     * @throws IllegalArgumentException if maxConcurrency is not positive
+     */
+    public XMLBatchParser(XMLTreeBuilder builder, int maxConcurrency) throws IllegalArgumentException{
+        this(builder,DEFAULT_EXECUTOR,maxConcurrency);
+    }
+
+    /**
+     * Constructor for an XMLBatchParser that parses the documents with an XMLTreeBuilder on the threads of an executor.
+     * Each worker keeps a thread of the executor until there are no more documents for it.
+     *
+     * @param builder is the XMLTreeBuilder used to parse the documents
+     * @param executor is the executor on which the workers run
+     * @param maxConcurrency is the maximum number of documents that are parsed at the same time
+     * @throws IllegalArgumentException if maxConcurrency is not positive
+     */
+    public XMLBatchParser(XMLTreeBuilder builder, Executor executor, int maxConcurrency) throws IllegalArgumentException{
+        if(maxConcurrency<1){
+            throw new IllegalArgumentException("The maximum concurrency must be positive.");
+        }
+        this.builder=builder;
+        this.executor=executor;
+        this.maxConcurrency=maxConcurrency;
+    }
+
+    /**
+     * Starts parsing the files at the specified paths, and returns immediately.
+     * Each future completes with the tree of its file, or exceptionally with the ParseException, the IOException or any other error of that file.
+     * A future that is cancelled before its file is parsed skips the file.
+     *
+     * @param paths are the paths of the files
+     * @return the futures of the documents, in the same order as the paths
+     */
+    public List<CompletableFuture<XMLElement>> parsePaths(Collection<Path> paths){
+        return parseAll(new ArrayList<>(paths),builder::parsePath,null);
+    }
+
+    /**
+     * Starts parsing the documents read from the specified InputStreams, and returns immediately.
+     * Each future completes with the tree of its document, or exceptionally with the ParseException, the IOException or any other error of that document.
+     * A future that is cancelled before its document is parsed skips the document and closes its InputStream.
+     *
+     * @param streams are the InputStreams
+     * @return the futures of the documents, in the same order as the InputStreams
+     */
+    public List<CompletableFuture<XMLElement>> parseStreams(Collection<? extends InputStream> streams){
+        return parseAll(new ArrayList<InputStream>(streams),builder::parseStream,XMLBatchParser::closeQuietly);
+    }
+
+    /**
+     * Returns a Stream of the results of the files at the specified paths, which are parsed while the Stream is consumed.
+     * At most twice the maximum concurrency of documents are being parsed or waiting to be consumed at the same time,
+     * so the memory used doesn't depend on the number of files.
+     *
+     * @param paths are the paths of the files
+     * @param ordered is true if the results must be in the same order as the paths, false if they can be in the order in which they are ready
+     * @return a Stream of the Results
+     */
+    public Stream<Result<Path>> streamPaths(Collection<Path> paths, boolean ordered){
+        return streamAll(new ArrayList<>(paths),builder::parsePath,null,ordered);
+    }
+
+    /**
+     * Returns a Stream of the results of the documents read from the specified InputStreams, which are parsed while the Stream is consumed.
+     * At most twice the maximum concurrency of documents are being parsed or waiting to be consumed at the same time.
+     * The InputStreams that haven't been parsed when the Stream is closed are closed.
+     *
+     * @param streams are the InputStreams
+     * @param ordered is true if the results must be in the same order as the InputStreams, false if they can be in the order in which they are ready
+     * @return a Stream of the Results
+     */
+    public Stream<Result<InputStream>> streamStreams(Collection<? extends InputStream> streams, boolean ordered){
+        return streamAll(new ArrayList<InputStream>(streams),builder::parseStream,XMLBatchParser::closeQuietly,ordered);
+    }
+
+    /**
+     * Returns the maximum number of documents that this XMLBatchParser parses at the same time.
+     *
+     * @return the maximum concurrency
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    private <S> List<CompletableFuture<XMLElement>> parseAll(ArrayList<S> sources, DocumentParser<S> parser, Consumer<S> discard){
+        ArrayList<CompletableFuture<XMLElement>> futures = new ArrayList<>(sources.size());
+        for(int i=0;i<sources.size();i++){
+            futures.add(new CompletableFuture<>());
+        }
+        Batch<S> batch = new Batch<S>(sources,parser,discard,Integer.MAX_VALUE){
+            @Override
+            boolean isCancelled(int index) {
+                return futures.get(index).isDone();
+            }
+
+            @Override
+            void deliver(int index, XMLElement element, Throwable exception) {
+                if(exception==null){
+                    futures.get(index).complete(element);
+                }else{
+                    futures.get(index).completeExceptionally(exception);
+                }
+            }
+        };
+        batch.start();
+        return Collections.unmodifiableList(futures);
+    }
+
+    private <S> Stream<Result<S>> streamAll(ArrayList<S> sources, DocumentParser<S> parser, Consumer<S> discard, boolean ordered){
+        int size = sources.size();
+        //ordered: the results by index; unordered: the results in the order in which they are ready
+        ArrayList<CompletableFuture<Result<S>>> slots = new ArrayList<>(ordered ? size : 0);
+        for(int i=0;ordered && i<size;i++){
+            slots.add(new CompletableFuture<>());
+        }
+        LinkedBlockingQueue<Result<S>> ready = new LinkedBlockingQueue<>();
+        int window = (int) Math.min(Integer.MAX_VALUE,2L*maxConcurrency);
+        Batch<S> batch = new Batch<S>(sources,parser,discard,window){
+            @Override
+            void deliver(int index, XMLElement element, Throwable exception) {
+                Result<S> result = new Result<>(index,sources.get(index),element,exception);
+                if(ordered){
+                    slots.get(index).complete(result);
+                }else{
+                    ready.add(result);
+                }
+            }
+        };
+        Spliterator<Result<S>> spliterator = new Spliterators.AbstractSpliterator<Result<S>>(size,
+                Spliterator.SIZED | Spliterator.NONNULL | (ordered ? Spliterator.ORDERED : 0)){
+            private int consumed;
+            private boolean started;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super Result<S>> action) {
+                if(consumed==size){
+                    return false;
+                }
+                if(!started){
+                    started = true;
+                    batch.start();
+                }
+                Result<S> result;
+                if(ordered){
+                    result = slots.get(consumed).join();
+                    slots.set(consumed,null);
+                }else{
+                    try{
+                        result = ready.take();
+                    }catch (InterruptedException e){
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                }
+                consumed++;
+                batch.consumed();
+                action.accept(result);
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator,false).onClose(batch::cancel);
+    }
+
+    private static void closeQuietly(InputStream stream){
+        try{
+            stream.close();
+        }catch (IOException ignored){
+        }
+    }
+
+    /*
+    Uses the virtual threads of Java 21 and later through reflection, so that the library still runs on Java 11.
+     */
+    private static Executor createDefaultExecutor(){
+        try{
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }catch (ReflectiveOperationException | RuntimeException e){
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable,"easyxml-batch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * The outcome of the parsing of a single document of a batch: either its tree or the exception that stopped its parsing.
+     *
+     * @param <S> is the type of the source of the document
+     */
+    public static final class Result<S> {
+        private final int index;
+        private final S source;
+        private final XMLElement element;
+        private final Throwable exception;
+
+        private Result(int index, S source, XMLElement element, Throwable exception){
+            this.index=index;
+            this.source=source;
+            this.element=element;
+            this.exception=exception;
+        }
+
+        /**
+         * Returns the position of the document in the collection passed to the XMLBatchParser.
+         *
+         * @return the position of the document
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the Path or the InputStream from which the document was read.
+         *
+         * @return the source of the document
+         */
+        public S getSource() {
+            return source;
+        }
+
+        /**
+         * Returns true if the document was parsed without errors.
+         *
+         * @return true if the tree of the document is available, false otherwise
+         */
+        public boolean isSuccessful() {
+            return exception==null;
+        }
+
+        /**
+         * Returns the tree of the document.
+         *
+         * @return the parsed XMLElement containing the whole XML tree, or null if there was an error
+         */
+        public XMLElement getElement() {
+            return element;
+        }
+
+        /**
+         * Returns the error that stopped the parsing of the document: a ParseException if there's an error in the XML code,
+         * an IOException if the document can't be read, a RuntimeException, or an Error such as the StackOverflowError of a document
+         * that is too deep. Any other Error is also rethrown by the worker that parsed the document.
+         *
+         * @return the exception, or null if the document was parsed without errors
+         */
+        public Throwable getException() {
+            return exception;
+        }
+    }
+
+    @FunctionalInterface
+    private interface DocumentParser<S> {
+        XMLElement parse(S source) throws ParseException, IOException;
+    }
+
+    /*
+    Hands out the documents to the workers. A worker stops when all the documents have been handed out or when the window is full,
+    that is when window documents have been handed out but not consumed; the consumption of a document starts the workers again.
+     */
+    private abstract class Batch<S> implements Runnable {
+        private final ArrayList<S> sources;
+        private final DocumentParser<S> parser;
+        private final Consumer<S> discard;
+        private final long window;
+        private int next;
+        private long consumed;
+        private int workers;
+
+        Batch(ArrayList<S> sources, DocumentParser<S> parser, Consumer<S> discard, long window){
+            this.sources=sources;
+            this.parser=parser;
+            this.discard=discard;
+            this.window=window;
+        }
+
+        abstract void deliver(int index, XMLElement element, Throwable exception);
+
+        boolean isCancelled(int index){
+            return false;
+        }
+
+        void start(){
+            int started;
+            synchronized (this){
+                started = (int) Math.min(maxConcurrency-workers,Math.min(sources.size(),consumed+window)-next);
+                if(started<=0){
+                    return;
+                }
+                workers += started;
+            }
+            for(int i=0;i<started;i++){
+                try{
+                    executor.execute(this);
+                }catch (RejectedExecutionException e){
+                    reject(started-i,e);
+                    return;
+                }
+            }
+        }
+
+        /*
+        Fails the documents that nobody is left to parse.
+         */
+        private void reject(int missing, RejectedExecutionException exception){
+            int from;
+            int to;
+            synchronized (this){
+                workers -= missing;
+                if(workers>0){
+                    return;
+                }
+                from = next;
+                to = (int) Math.min(sources.size(),consumed+window);
+                next = to;
+            }
+            for(int i=from;i<to;i++){
+                deliver(i,null,exception);
+            }
+        }
+
+        void consumed(){
+            synchronized (this){
+                consumed++;
+            }
+            start();
+        }
+
+        /*
+        Hands out no more documents, and discards the ones that haven't been handed out.
+         */
+        void cancel(){
+            int from;
+            synchronized (this){
+                from = next;
+                next = sources.size();
+            }
+            for(int i=from;i<sources.size() && discard!=null;i++){
+                discard.accept(sources.get(i));
+            }
+        }
+
+        @Override
+        public void run() {
+            int index;
+            boolean finished = false;
+            try{
+                while(true){
+                    synchronized (this){
+                        if(next>=sources.size() || next>=consumed+window){
+                            workers--;
+                            finished = true;
+                            return;
+                        }
+                        index = next++;
+                    }
+                    S source = sources.get(index);
+                    if(isCancelled(index)){
+                        if(discard!=null){
+                            discard.accept(source);
+                        }
+                        continue;
+                    }
+                    XMLElement element;
+                    try{
+                        element = parser.parse(source);
+                    }catch (Exception | StackOverflowError e){
+                        //the StackOverflowError of a very deep document fails only its document
+                        deliver(index,null,e);
+                        continue;
+                    }catch (Error e){
+                        //any other Error, such as an OutOfMemoryError, must reach the executor, but whoever waits for the document must know it failed
+                        deliver(index,null,e);
+                        throw e;
+                    }
+                    deliver(index,element,null);
+                }
+            }finally {
+                //a worker that stops because of an Error must not be counted as running, or the batch would wait for it,
+                //and it's replaced so that the other documents are still parsed
+                if(!finished){
+                    synchronized (this){
+                        workers--;
+                    }
+                    start();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,710 @@
+package it.trvi.easyxml;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InaccessibleObjectException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Maps XMLElements onto Java objects and back. The fields of a class, or the components of a record, are bound to the attributes,
+ * the text content and the children of an element, following their annotations or, without annotations, a naming convention:
+ * <ul>
+ * <li>a field of a simple type (a primitive type, its wrapper class, String or an enum) is bound to the attribute with the same name,
+ * or to the text content of the child with that tag name if there's no such attribute; it's written as an attribute</li>
+ * <li>a field of a List, Collection or ArrayList type is bound to all the children with the same tag name as the field,
+ * each of them bound to an element of the list</li>
+ * <li>a field of any other type is bound to the first child with the same tag name as the field, which is bound to an object of that type</li>
+ * </ul>
+ * The annotations Attribute, Child and Text choose where a field is bound, and the ones with a value use it instead of the name of the field.
+ * Ignore excludes a field, and TagName sets the tag name of the elements written from a class, which is the name of the class
+ * with the first letter in lower case by default. The tag name of the elements that are read is not checked.
+ * Static and transient fields are not bound. A class that is not a record must have a constructor without parameters.
+ * <p>
+ * The mapping of each class is planned once, the first time it's needed, and kept: the fields are read, converted and written
+ * by MethodHandles that are combined into a single chain for each field, so binding an element doesn't use reflection and
+ * doesn't box the values of the primitive fields. The missing or empty values are read as 0, false, null or an empty list,
+ * and the null values are not written. An XMLBinder is immutable, so it can be used by many threads at the same time.
+ *
+ * @param <T> is the class bound by this XMLBinder
+ */
+public final class XMLBinder<T> {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final ClassValue<XMLBinder<?>> BINDERS = new ClassValue<XMLBinder<?>>() {
+        @Override
+        protected XMLBinder<?> computeValue(Class<?> type) {
+            return new XMLBinder<>(type);
+        }
+    };
+    //the records are read through reflection, since the library is compiled for a version of Java that doesn't have them
+    private static final Method GET_RECORD_COMPONENTS;
+    private static final Method GET_ACCESSOR;
+    private static final MethodHandle IS_MISSING;
+    private static final MethodHandle ATTRIBUTE;
+    private static final MethodHandle TEXT;
+    private static final MethodHandle CHILD_TEXT;
+    private static final MethodHandle ATTRIBUTE_OR_CHILD_TEXT;
+    private static final MethodHandle READ_CHILD;
+    private static final MethodHandle READ_OBJECT;
+    private static final MethodHandle READ_CHILDREN;
+    private static final MethodHandle CONVERSION_FAILED;
+    private static final MethodHandle FORMAT;
+    private static final MethodHandle WRITE_ATTRIBUTE;
+    private static final MethodHandle WRITE_TEXT;
+    private static final MethodHandle WRITE_CHILD_TEXT;
+    private static final MethodHandle WRITE_CHILD;
+    private static final MethodHandle WRITE_CHILDREN;
+
+    static {
+        Method getRecordComponents = null;
+        Method getAccessor = null;
+        try{
+            getRecordComponents = Class.class.getMethod("getRecordComponents");
+            getAccessor = Class.forName("java.lang.reflect.RecordComponent").getMethod("getAccessor");
+        }catch (ReflectiveOperationException e){
+            //the runtime doesn't have records
+        }
+        GET_RECORD_COMPONENTS = getRecordComponents;
+        GET_ACCESSOR = getAccessor;
+        try{
+            IS_MISSING = findStatic("isMissing",boolean.class,String.class);
+            ATTRIBUTE = findStatic("attribute",String.class,XMLElement.class,String.class);
+            TEXT = findStatic("text",String.class,XMLElement.class);
+            CHILD_TEXT = findStatic("childText",String.class,XMLElement.class,String.class);
+            ATTRIBUTE_OR_CHILD_TEXT = findStatic("attributeOrChildText",String.class,XMLElement.class,String.class);
+            READ_CHILD = findStatic("readChild",Object.class,XMLElement.class,String.class,Class.class);
+            READ_OBJECT = findStatic("readObject",Object.class,XMLElement.class,Class.class);
+            READ_CHILDREN = findStatic("readChildren",ArrayList.class,XMLElement.class,String.class,MethodHandle.class);
+            CONVERSION_FAILED = findStatic("conversionFailed",Object.class,String.class,IllegalArgumentException.class,XMLElement.class);
+            FORMAT = findStatic("format",String.class,Object.class);
+            WRITE_ATTRIBUTE = findStatic("writeAttribute",void.class,XMLElement.class,String.class,String.class);
+            WRITE_TEXT = findStatic("writeText",void.class,XMLElement.class,String.class);
+            WRITE_CHILD_TEXT = findStatic("writeChildText",void.class,XMLElement.class,String.class,String.class);
+            WRITE_CHILD = findStatic("writeChild",void.class,XMLElement.class,String.class,Object.class);
+            WRITE_CHILDREN = findStatic("writeChildren",void.class,XMLElement.class,String.class,Collection.class,MethodHandle.class);
+        }catch (ReflectiveOperationException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Binds a field or a record component to an attribute.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER})
+    public @interface Attribute {
+        /**
+         * Returns the name of the attribute.
+         *
+         * @return the name of the attribute, or an empty string for the name of the field
+         */
+        String value() default "";
+    }
+
+    /**
+     * Binds a field or a record component to a child, or to all the children with a tag name if its type is a list.
+     * A field of a simple type is bound to the text content of the child.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER})
+    public @interface Child {
+        /**
+         * Returns the tag name of the child.
+         *
+         * @return the tag name of the child, or an empty string for the name of the field
+         */
+        String value() default "";
+    }
+
+    /**
+     * Binds a field or a record component of a simple type to the text content of the element. A class can have only one of them.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER})
+    public @interface Text {
+    }
+
+    /**
+     * Excludes a field or a record component from the binding. An excluded record component is read as 0, false or null.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER})
+    public @interface Ignore {
+    }
+
+    /**
+     * Sets the tag name of the elements written from a class.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    public @interface TagName {
+        /**
+         * Returns the tag name.
+         *
+         * @return the tag name of the elements written from the class
+         */
+        String value();
+    }
+
+    private final Class<T> type;
+    private final String tagName;
+    //(XMLElement)Object, the canonical constructor of a record with each parameter read from the element; null for the other classes
+    private final MethodHandle recordReader;
+    //()Object, the constructor without parameters of the classes that are not records
+    private final MethodHandle constructor;
+    //(Object,XMLElement)void, each reads a field from the element and sets it
+    private final MethodHandle[] setters;
+    //(Object,XMLElement)void, each gets a field and writes it to the element
+    private final MethodHandle[] writers;
+
+    private XMLBinder(Class<T> type) throws IllegalArgumentException{
+        if(type.isPrimitive() || type.isArray() || type.isInterface() || Modifier.isAbstract(type.getModifiers()) || isSimple(type)){
+            throw new IllegalArgumentException("The class "+type.getName()+" can't be bound to an XMLElement.");
+        }
+        this.type=type;
+        TagName annotation = type.getAnnotation(TagName.class);
+        String simpleName = type.getSimpleName();
+        this.tagName = annotation!=null ? annotation.value() : Character.toLowerCase(simpleName.charAt(0))+simpleName.substring(1);
+        try{
+            ArrayList<Property> properties = isRecord(type) ? describeRecord(type) : describeFields(type);
+            int texts = 0;
+            for(Property property : properties){
+                if(property.location==Location.TEXT){
+                    texts++;
+                }
+            }
+            if(texts>1){
+                throw new IllegalArgumentException("The class "+type.getName()+" has more than one field bound to the text content.");
+            }
+            ArrayList<MethodHandle> writersList = new ArrayList<>();
+            for(Property property : properties){
+                if(property.location!=null){
+                    writersList.add(writer(property));
+                }
+            }
+            writers = writersList.toArray(new MethodHandle[0]);
+            if(isRecord(type)){
+                Class<?>[] parameterTypes = new Class<?>[properties.size()];
+                MethodHandle[] readers = new MethodHandle[properties.size()];
+                for(int i=0;i<properties.size();i++){
+                    parameterTypes[i] = properties.get(i).type;
+                    readers[i] = reader(properties.get(i));
+                }
+                Constructor<T> canonical = type.getDeclaredConstructor(parameterTypes);
+                canonical.setAccessible(true);
+                //every parameter of the constructor is filtered by its reader, then the readers share the same element
+                MethodHandle handle = MethodHandles.filterArguments(LOOKUP.unreflectConstructor(canonical),0,readers);
+                handle = MethodHandles.permuteArguments(handle,MethodType.methodType(type,XMLElement.class),new int[readers.length]);
+                recordReader = handle.asType(MethodType.methodType(Object.class,XMLElement.class));
+                constructor = null;
+                setters = null;
+            }else{
+                Constructor<T> noArguments;
+                try{
+                    noArguments = type.getDeclaredConstructor();
+                }catch (NoSuchMethodException e){
+                    throw new IllegalArgumentException("The class "+type.getName()+" doesn't have a constructor without parameters.",e);
+                }
+                noArguments.setAccessible(true);
+                recordReader = null;
+                constructor = LOOKUP.unreflectConstructor(noArguments).asType(MethodType.methodType(Object.class));
+                setters = new MethodHandle[properties.size()];
+                for(int i=0;i<setters.length;i++){
+                    setters[i] = MethodHandles.filterArguments(properties.get(i).setter,1,reader(properties.get(i)));
+                }
+            }
+        }catch (ReflectiveOperationException | InaccessibleObjectException e){
+            throw new IllegalArgumentException("The class "+type.getName()+" can't be bound to an XMLElement: "+e.getMessage(),e);
+        }
+    }
+
+    /**
+     * Returns the XMLBinder of a class, planning its mapping the first time it's requested.
+     * The mapping of the classes of its fields is planned when they are first read or written.
+     *
+     * @param type is the class
+     * @param <T> is the class
+     * @return the XMLBinder of the class
+     * @throws IllegalArgumentException if the class is abstract, an interface, an array or a simple type, if it's not a record
+     * and it doesn't have a constructor without parameters, if it has a field that can't be bound, or if its fields can't be accessed
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> XMLBinder<T> of(Class<T> type) throws IllegalArgumentException{
+        return (XMLBinder<T>) BINDERS.get(type);
+    }
+
+    /**
+     * Returns the class bound by this XMLBinder.
+     *
+     * @return the class bound by this XMLBinder
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Returns the tag name of the elements written by this XMLBinder.
+     *
+     * @return the tag name of the elements written by this XMLBinder
+     */
+    public String getTagName() {
+        return tagName;
+    }
+
+    /**
+     * Creates an object from an XMLElement and its descendants.
+     *
+     * @param element is the XMLElement that is read
+     * @return the object bound to the XMLElement
+     * @throws IllegalArgumentException if a value can't be converted to the type of its field
+     */
+    @SuppressWarnings("unchecked")
+    public T read(XMLElement element) throws IllegalArgumentException{
+        return (T) readElement(element);
+    }
+
+    /**
+     * Creates an object from each XMLElement of a list, for example from the result of getDescendantsWithTag.
+     *
+     * @param elements are the XMLElements that are read
+     * @return an ArrayList&lt;T&gt; with the objects bound to the XMLElements, in the same order
+     * @throws IllegalArgumentException if a value can't be converted to the type of its field
+     */
+    public ArrayList<T> readAll(List<XMLElement> elements) throws IllegalArgumentException{
+        ArrayList<T> objects = new ArrayList<>(elements.size());
+        for(XMLElement element : elements){
+            objects.add(read(element));
+        }
+        return objects;
+    }
+
+    /**
+     * Creates an XMLElement from an object, with the tag name of this XMLBinder.
+     *
+     * @param object is the object that is written
+     * @return the XMLElement bound to the object
+     */
+    public XMLElement write(T object){
+        return writeElement(object,tagName);
+    }
+
+    private Object readElement(XMLElement element){
+        try{
+            if(recordReader!=null){
+                return (Object) recordReader.invokeExact(element);
+            }
+            Object object = (Object) constructor.invokeExact();
+            for(MethodHandle setter : setters){
+                setter.invokeExact(object,element);
+            }
+            return object;
+        }catch (RuntimeException | Error e){
+            throw e;
+        }catch (Throwable e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    private XMLElement writeElement(Object object, String tagName){
+        XMLElement element = new XMLElement(tagName);
+        try{
+            for(MethodHandle writer : writers){
+                writer.invokeExact(object,element);
+            }
+        }catch (RuntimeException | Error e){
+            throw e;
+        }catch (Throwable e){
+            throw new RuntimeException(e);
+        }
+        return element;
+    }
+
+    private enum Location {
+        ATTRIBUTE,
+        ATTRIBUTE_OR_CHILD,
+        TEXT,
+        CHILD
+    }
+
+    /*
+    A bound field or record component, with its getter, (Object)type, and its setter, (Object,type)void, which is null for the records.
+    The location is null if the field is ignored.
+     */
+    private static final class Property {
+        private final String name;
+        private final Location location;
+        private final Class<?> type;
+        //the type of the elements of a list, null if the property is not a list
+        private final Class<?> itemType;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        Property(String name, Location location, Class<?> type, Class<?> itemType, MethodHandle getter, MethodHandle setter){
+            this.name=name;
+            this.location=location;
+            this.type=type;
+            this.itemType=itemType;
+            this.getter=getter;
+            this.setter=setter;
+        }
+    }
+
+    private static boolean isRecord(Class<?> type){
+        return type.getSuperclass()!=null && type.getSuperclass().getName().equals("java.lang.Record");
+    }
+
+    private static ArrayList<Property> describeRecord(Class<?> type) throws ReflectiveOperationException {
+        ArrayList<Property> properties = new ArrayList<>();
+        for(Object component : (Object[]) GET_RECORD_COMPONENTS.invoke(type)){
+            Method accessor = (Method) GET_ACCESSOR.invoke(component);
+            accessor.setAccessible(true);
+            MethodHandle getter = LOOKUP.unreflect(accessor).asType(MethodType.methodType(accessor.getReturnType(),Object.class));
+            //the annotations of a record component are found on its field
+            Field field = type.getDeclaredField(accessor.getName());
+            properties.add(describe(type,accessor.getName(),accessor.getReturnType(),accessor.getGenericReturnType(),field,getter,null));
+        }
+        return properties;
+    }
+
+    /*
+    Describes the fields of the class and of its superclasses, starting from the fields of the topmost superclass.
+     */
+    private static ArrayList<Property> describeFields(Class<?> type) throws ReflectiveOperationException {
+        ArrayList<Class<?>> hierarchy = new ArrayList<>();
+        for(Class<?> c=type;c!=null && c!=Object.class;c=c.getSuperclass()){
+            hierarchy.add(0,c);
+        }
+        ArrayList<Property> properties = new ArrayList<>();
+        for(Class<?> c : hierarchy){
+            for(Field field : c.getDeclaredFields()){
+                int modifiers = field.getModifiers();
+                if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic() || field.isAnnotationPresent(Ignore.class)){
+                    continue;
+                }
+                field.setAccessible(true);
+                MethodHandle getter = LOOKUP.unreflectGetter(field).asType(MethodType.methodType(field.getType(),Object.class));
+                MethodHandle setter = LOOKUP.unreflectSetter(field).asType(MethodType.methodType(void.class,Object.class,field.getType()));
+                properties.add(describe(type,field.getName(),field.getType(),field.getGenericType(),field,getter,setter));
+            }
+        }
+        return properties;
+    }
+
+    private static Property describe(Class<?> owner, String fieldName, Class<?> type, Type genericType, AnnotatedElement annotations,
+                                     MethodHandle getter, MethodHandle setter) throws IllegalArgumentException{
+        if(annotations.isAnnotationPresent(Ignore.class)){
+            return new Property(fieldName,null,type,null,getter,setter);
+        }
+        Attribute attribute = annotations.getAnnotation(Attribute.class);
+        Child child = annotations.getAnnotation(Child.class);
+        Text text = annotations.getAnnotation(Text.class);
+        if((attribute!=null ? 1 : 0)+(child!=null ? 1 : 0)+(text!=null ? 1 : 0)>1){
+            throw new IllegalArgumentException("The field "+fieldName+" of "+owner.getName()+" has more than one binding annotation.");
+        }
+        Class<?> itemType = null;
+        if(Collection.class.isAssignableFrom(type)){
+            if(!type.isAssignableFrom(ArrayList.class) || !(genericType instanceof ParameterizedType)
+                    || !(((ParameterizedType) genericType).getActualTypeArguments()[0] instanceof Class)){
+                throw new IllegalArgumentException("The field "+fieldName+" of "+owner.getName()+" must be a List, a Collection or an ArrayList of a class.");
+            }
+            itemType = (Class<?>) ((ParameterizedType) genericType).getActualTypeArguments()[0];
+        }
+        boolean simple = isSimple(type);
+        if((attribute!=null || text!=null) && !simple){
+            throw new IllegalArgumentException("The field "+fieldName+" of "+owner.getName()+" can't be bound to an attribute or to the text content, since its type is not simple.");
+        }
+        Location location;
+        String name = fieldName;
+        if(attribute!=null){
+            location = Location.ATTRIBUTE;
+            name = attribute.value().isEmpty() ? fieldName : attribute.value();
+        }else if(text!=null){
+            location = Location.TEXT;
+        }else if(child!=null){
+            location = Location.CHILD;
+            name = child.value().isEmpty() ? fieldName : child.value();
+        }else{
+            location = simple ? Location.ATTRIBUTE_OR_CHILD : Location.CHILD;
+        }
+        return new Property(name,location,type,itemType,getter,setter);
+    }
+
+    /*
+    Returns true for the types that are converted from and to a single string.
+     */
+    private static boolean isSimple(Class<?> type){
+        return type.isPrimitive() || type==String.class || type.isEnum() || type==Integer.class || type==Long.class || type==Double.class
+                || type==Float.class || type==Boolean.class || type==Short.class || type==Byte.class || type==Character.class;
+    }
+
+    /*
+    Returns the reader of a property, (XMLElement)type.
+     */
+    private static MethodHandle reader(Property property) throws ReflectiveOperationException {
+        Class<?> type = property.type;
+        if(property.location==null){
+            return MethodHandles.dropArguments(MethodHandles.zero(type),0,XMLElement.class);
+        }
+        if(property.itemType!=null){
+            MethodHandle itemReader = isSimple(property.itemType)
+                    ? MethodHandles.filterReturnValue(TEXT,converter(property.itemType))
+                    : MethodHandles.insertArguments(READ_OBJECT,1,property.itemType);
+            itemReader = itemReader.asType(MethodType.methodType(Object.class,XMLElement.class));
+            return MethodHandles.insertArguments(READ_CHILDREN,1,property.name,itemReader).asType(MethodType.methodType(type,XMLElement.class));
+        }
+        if(!isSimple(type)){
+            return MethodHandles.insertArguments(READ_CHILD,1,property.name,type).asType(MethodType.methodType(type,XMLElement.class));
+        }
+        MethodHandle source;
+        switch (property.location){
+            case ATTRIBUTE: source = MethodHandles.insertArguments(ATTRIBUTE,1,property.name); break;
+            case TEXT: source = TEXT; break;
+            case CHILD: source = MethodHandles.insertArguments(CHILD_TEXT,1,property.name); break;
+            default: source = MethodHandles.insertArguments(ATTRIBUTE_OR_CHILD_TEXT,1,property.name);
+        }
+        MethodHandle reader = MethodHandles.filterReturnValue(source,converter(type));
+        //the conversion errors are reported with the name of the value, the handler always throws
+        MethodHandle handler = MethodHandles.insertArguments(CONVERSION_FAILED,0,(property.location==Location.TEXT ? "the text content" : "\""+property.name+"\""))
+                .asType(MethodType.methodType(type,IllegalArgumentException.class,XMLElement.class));
+        return MethodHandles.catchException(reader,IllegalArgumentException.class,handler);
+    }
+
+    /*
+    Returns the writer of a property, (Object,XMLElement)void.
+     */
+    private static MethodHandle writer(Property property) throws ReflectiveOperationException {
+        Class<?> type = property.type;
+        MethodHandle write;
+        MethodHandle value;
+        if(property.itemType!=null){
+            MethodHandle itemWriter = isSimple(property.itemType)
+                    ? MethodHandles.filterArguments(WRITE_CHILD_TEXT,2,formatter(property.itemType).asType(MethodType.methodType(String.class,Object.class)))
+                    : WRITE_CHILD;
+            write = MethodHandles.insertArguments(MethodHandles.insertArguments(WRITE_CHILDREN,3,itemWriter),1,property.name);
+            value = property.getter.asType(MethodType.methodType(Collection.class,Object.class));
+        }else if(!isSimple(type)){
+            write = MethodHandles.insertArguments(WRITE_CHILD,1,property.name);
+            value = property.getter.asType(MethodType.methodType(Object.class,Object.class));
+        }else{
+            switch (property.location){
+                case TEXT: write = WRITE_TEXT; break;
+                case CHILD: write = MethodHandles.insertArguments(WRITE_CHILD_TEXT,1,property.name); break;
+                default: write = MethodHandles.insertArguments(WRITE_ATTRIBUTE,1,property.name);
+            }
+            value = MethodHandles.filterReturnValue(property.getter,formatter(type));
+        }
+        //(XMLElement,Object)void, with the value taken from the object, and then with the object first
+        write = MethodHandles.filterArguments(write,1,value);
+        return MethodHandles.permuteArguments(write,MethodType.methodType(void.class,Object.class,XMLElement.class),1,0);
+    }
+
+    /*
+    Returns the conversion of a string into a value of a simple type, (String)type.
+     */
+    private static MethodHandle converter(Class<?> type) throws ReflectiveOperationException {
+        if(type==String.class){
+            return MethodHandles.identity(String.class);
+        }
+        if(type.isEnum()){
+            MethodHandle valueOf = MethodHandles.insertArguments(findStatic("toEnum",Enum.class,Class.class,String.class),0,type);
+            return valueOf.asType(MethodType.methodType(type,String.class));
+        }
+        if(type.isPrimitive()){
+            return findStatic("to"+Character.toUpperCase(type.getName().charAt(0))+type.getName().substring(1),type,String.class);
+        }
+        //a wrapper class is converted as its primitive type, unless the value is missing
+        Class<?> primitive = MethodType.methodType(type).unwrap().returnType();
+        MethodHandle missing = MethodHandles.dropArguments(MethodHandles.zero(type),0,String.class);
+        return MethodHandles.guardWithTest(IS_MISSING,missing,converter(primitive).asType(MethodType.methodType(type,String.class)));
+    }
+
+    /*
+    Returns the conversion of a value of a simple type into a string, (type)String, which returns null for null.
+     */
+    private static MethodHandle formatter(Class<?> type) throws ReflectiveOperationException {
+        if(type==byte.class || type==short.class){
+            return LOOKUP.findStatic(String.class,"valueOf",MethodType.methodType(String.class,int.class)).asType(MethodType.methodType(String.class,type));
+        }
+        if(type==char.class){
+            return findStatic("formatChar",String.class,char.class);
+        }
+        if(type.isPrimitive()){
+            return LOOKUP.findStatic(String.class,"valueOf",MethodType.methodType(String.class,type));
+        }
+        return FORMAT.asType(MethodType.methodType(String.class,type));
+    }
+
+    private static MethodHandle findStatic(String name, Class<?> returnType, Class<?>... parameterTypes) throws ReflectiveOperationException {
+        return LOOKUP.findStatic(XMLBinder.class,name,MethodType.methodType(returnType,parameterTypes));
+    }
+
+    private static boolean isMissing(String value){
+        return value==null || value.isEmpty();
+    }
+
+    private static String attribute(XMLElement element, String name){
+        AttributeMap attributes = element.getLoadedAttributes();
+        return attributes==null ? null : attributes.get(name);
+    }
+
+    private static String text(XMLElement element){
+        return element.getTextContent();
+    }
+
+    private static XMLElement child(XMLElement element, String name){
+        for(int i=0;i<element.getNumberOfChildren();i++){
+            if(element.getChildAt(i).getTagName().equals(name)){
+                return element.getChildAt(i);
+            }
+        }
+        return null;
+    }
+
+    private static String childText(XMLElement element, String name){
+        XMLElement child = child(element,name);
+        return child==null ? null : child.getTextContent();
+    }
+
+    private static String attributeOrChildText(XMLElement element, String name){
+        String value = attribute(element,name);
+        return value!=null ? value : childText(element,name);
+    }
+
+    private static Object readChild(XMLElement element, String name, Class<?> type){
+        XMLElement child = child(element,name);
+        return child==null ? null : readObject(child,type);
+    }
+
+    private static Object readObject(XMLElement element, Class<?> type){
+        return of(type).readElement(element);
+    }
+
+    private static ArrayList<Object> readChildren(XMLElement element, String name, MethodHandle itemReader) throws Throwable {
+        ArrayList<Object> items = new ArrayList<>();
+        for(int i=0;i<element.getNumberOfChildren();i++){
+            XMLElement child = element.getChildAt(i);
+            if(child.getTagName().equals(name)){
+                items.add((Object) itemReader.invokeExact(child));
+            }
+        }
+        return items;
+    }
+
+    private static Object conversionFailed(String name, IllegalArgumentException e, XMLElement element) throws IllegalArgumentException{
+        throw new IllegalArgumentException("The value of "+name+" of the element \""+element.getTagName()+"\" can't be converted: "+e.getMessage(),e);
+    }
+
+    private static int toInt(String value){
+        return isMissing(value) ? 0 : Integer.parseInt(value.trim());
+    }
+
+    private static long toLong(String value){
+        return isMissing(value) ? 0 : Long.parseLong(value.trim());
+    }
+
+    private static short toShort(String value){
+        return isMissing(value) ? 0 : Short.parseShort(value.trim());
+    }
+
+    private static byte toByte(String value){
+        return isMissing(value) ? 0 : Byte.parseByte(value.trim());
+    }
+
+    private static double toDouble(String value){
+        return isMissing(value) ? 0 : Double.parseDouble(value);
+    }
+
+    private static float toFloat(String value){
+        return isMissing(value) ? 0 : Float.parseFloat(value);
+    }
+
+    /*
+    Accepts the same values of the boolean type of XML Schema.
+     */
+    private static boolean toBoolean(String value){
+        if(isMissing(value)){
+            return false;
+        }
+        switch (value.trim()){
+            case "true": case "1": return true;
+            case "false": case "0": return false;
+            default: throw new IllegalArgumentException("\""+value+"\" is not a boolean.");
+        }
+    }
+
+    private static char toChar(String value){
+        if(isMissing(value)){
+            return 0;
+        }
+        if(value.length()!=1){
+            throw new IllegalArgumentException("\""+value+"\" is not a single character.");
+        }
+        return value.charAt(0);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Enum<?> toEnum(Class type, String value){
+        return isMissing(value) ? null : Enum.valueOf(type,value.trim());
+    }
+
+    private static String format(Object value){
+        if(value==null){
+            return null;
+        }
+        return value instanceof Enum ? ((Enum<?>) value).name() : value.toString();
+    }
+
+    /*
+    The character 0, which is the value of a missing character, can't be written in XML.
+     */
+    private static String formatChar(char value){
+        return value==0 ? null : String.valueOf(value);
+    }
+
+    private static void writeAttribute(XMLElement element, String name, String value){
+        if(value!=null){
+            element.addAttribute(name,value);
+        }
+    }
+
+    private static void writeText(XMLElement element, String value){
+        if(value!=null){
+            element.setTextContent(value);
+        }
+    }
+
+    private static void writeChildText(XMLElement element, String name, String value){
+        if(value!=null){
+            XMLElement child = new XMLElement(name);
+            child.setTextContent(value);
+            element.addChild(child);
+        }
+    }
+
+    private static void writeChild(XMLElement element, String name, Object value){
+        if(value!=null){
+            element.addChild(of(value.getClass()).writeElement(value,name));
+        }
+    }
+
+    private static void writeChildren(XMLElement element, String name, Collection<?> values, MethodHandle itemWriter) throws Throwable {
+        if(values!=null){
+            for(Object value : values){
+                itemWriter.invokeExact(element,name,value);
+            }
+        }
+    }
+}
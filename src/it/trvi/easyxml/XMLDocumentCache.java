@@ -0,0 +1,349 @@
+package it.trvi.easyxml;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache of the parsed documents contained in files, which can be shared among threads.
+ * A cached document is used as long as the last modified time and the size of its file don't change, otherwise the file is parsed again.
+ * The documents are evicted in least recently used order when their approximate memory usage exceeds the budget of the cache.
+ * Documents parsed with the LAZY engine are loaded completely before they are cached.
+ * When several threads ask for the same file at the same time, the file is parsed only once.
+ * <p>
+ * The cached documents are never handed out: get returns a copy-on-write clone (see XMLElement.copyOnWriteClone),
+ * which is made in constant time, and getClone returns a deep copy. In both cases the caller can modify the copy freely.
+ */
+public class XMLDocumentCache {
+    private final long maximumMemory;
+    private final XMLTreeBuilder builder;
+    //least recently used first
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16,0.75f,true);
+    private final HashMap<Key, CompletableFuture<Entry>> loads = new HashMap<>();
+    private long memory;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Constructor for an XMLDocumentCache that parses the files with the DOM engine.
+     *
+     * @param maximumMemory is the approximate number of bytes that the cached documents can use
+     * @throws IllegalArgumentException if maximumMemory is negative
+     */
+    public XMLDocumentCache(long maximumMemory) throws IllegalArgumentException{
+        this(maximumMemory,new XMLTreeBuilder());
+    }
+
+    /**
+     * Constructor for an XMLDocumentCache that parses the files with the specified XMLTreeBuilder.
+     *
+     * @param maximumMemory is the approximate number of bytes that the cached documents can use
+     * @param builder is the XMLTreeBuilder used to parse the files
+     * @throws IllegalArgumentException if maximumMemory is negative
+     */
+    public XMLDocumentCache(long maximumMemory, XMLTreeBuilder builder) throws IllegalArgumentException{
+        if(maximumMemory<0){
+            throw new IllegalArgumentException("The maximum memory can't be negative.");
+        }
+        this.maximumMemory=maximumMemory;
+        this.builder=builder;
+    }
+
+    /**
+     * Returns a copy-on-write clone of the document contained in a file, parsing the file if it's not cached or if it has changed.
+     *
+     * @param file is the file
+     * @return a copy of the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public XMLElement get(File file) throws FileNotFoundException, ParseException {
+        return getCached(file).copyOnWriteClone();
+    }
+
+    /**
+     * Returns a copy-on-write clone of the document contained in a file, parsing the file if it's not cached or if it has changed.
+     *
+     * @param path is the path of the file
+     * @return a copy of the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if the file can't be read
+     */
+    public XMLElement get(Path path) throws ParseException, IOException {
+        return getCached(path).copyOnWriteClone();
+    }
+
+    /**
+     * Returns a deep copy of the document contained in a file, parsing the file if it's not cached or if it has changed.
+     * Unlike the copy returned by get, the deep copy doesn't keep a reference to the cached document.
+     *
+     * @param file is the file
+     * @return a copy of the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public XMLElement getClone(File file) throws FileNotFoundException, ParseException {
+        return (XMLElement) getCached(file).clone();
+    }
+
+    /**
+     * Returns a deep copy of the document contained in a file, parsing the file if it's not cached or if it has changed.
+     * Unlike the copy returned by get, the deep copy doesn't keep a reference to the cached document.
+     *
+     * @param path is the path of the file
+     * @return a copy of the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if the file can't be read
+     */
+    public XMLElement getClone(Path path) throws ParseException, IOException {
+        return (XMLElement) getCached(path).clone();
+    }
+
+    private XMLElement getCached(File file) throws FileNotFoundException, ParseException {
+        try{
+            return getCached(file.toPath());
+        } catch (IOException e){
+            throw XMLTreeBuilder.fileNotFound(e);
+        }
+    }
+
+    /*
+    Returns the cached document, which must not be modified.
+     */
+    private XMLElement getCached(Path path) throws ParseException, IOException {
+        path = path.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(path,BasicFileAttributes.class);
+        Key key = new Key(path,attributes.lastModifiedTime().toMillis(),attributes.size());
+        CompletableFuture<Entry> load;
+        boolean loading = false;
+        synchronized (this){
+            Entry entry = entries.get(path);
+            if(entry!=null && entry.key.equals(key)){
+                hitCount++;
+                return entry.root;
+            }
+            missCount++;
+            load = loads.get(key);
+            if(load==null){
+                load = new CompletableFuture<>();
+                loads.put(key,load);
+                loading = true;
+            }
+        }
+        if(loading){
+            Entry entry;
+            try{
+                XMLElement root = builder.parsePath(path);
+                //the copies are made by several threads, so the cached tree must not change when it's read
+                root.loadAll();
+                entry = new Entry(key,root,estimateMemory(root));
+            }catch (ParseException | IOException | RuntimeException | Error e){
+                synchronized (this){
+                    loads.remove(key);
+                }
+                load.completeExceptionally(e);
+                throw e;
+            }
+            synchronized (this){
+                loads.remove(key);
+                put(entry);
+            }
+            load.complete(entry);
+            return entry.root;
+        }
+        try{
+            return load.get().root;
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            if(cause instanceof ParseException){
+                throw (ParseException) cause;
+            }else if(cause instanceof IOException){
+                throw (IOException) cause;
+            }else if(cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /*
+    Adds a document, unless it's larger than the whole budget, and evicts the least recently used documents that exceed the budget.
+     */
+    private void put(Entry entry){
+        Entry previous = entries.remove(entry.key.path);
+        if(previous!=null){
+            memory -= previous.memory;
+        }
+        if(entry.memory>maximumMemory){
+            return;
+        }
+        entries.put(entry.key.path,entry);
+        memory += entry.memory;
+        Iterator<Entry> iterator = entries.values().iterator();
+        Entry eldest;
+        while(memory>maximumMemory){
+            eldest = iterator.next();
+            iterator.remove();
+            memory -= eldest.memory;
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Removes from the cache the document contained in a file, if it's cached.
+     *
+     * @param path is the path of the file
+     */
+    public synchronized void invalidate(Path path){
+        Entry entry = entries.remove(path.toAbsolutePath().normalize());
+        if(entry!=null){
+            memory -= entry.memory;
+        }
+    }
+
+    /**
+     * Removes all the documents from the cache. The statistics are not reset.
+     */
+    public synchronized void clear(){
+        entries.clear();
+        memory = 0;
+    }
+
+    /**
+     * Returns the number of calls that found an up-to-date document in the cache.
+     *
+     * @return the number of cache hits
+     */
+    public synchronized long getHitCount(){
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of calls that didn't find an up-to-date document in the cache, including those that waited
+     * for the same file to be parsed by another thread.
+     *
+     * @return the number of cache misses
+     */
+    public synchronized long getMissCount(){
+        return missCount;
+    }
+
+    /**
+     * Returns the number of documents that have been removed from the cache to stay within its memory budget.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictionCount(){
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of documents in the cache.
+     *
+     * @return the number of cached documents
+     */
+    public synchronized int size(){
+        return entries.size();
+    }
+
+    /**
+     * Returns the approximate number of bytes used by the documents in the cache.
+     *
+     * @return the estimated memory usage
+     */
+    public synchronized long getMemoryUsage(){
+        return memory;
+    }
+
+    /**
+     * Returns the maximum number of bytes that the documents in the cache can use.
+     *
+     * @return the memory budget
+     */
+    public long getMaximumMemory(){
+        return maximumMemory;
+    }
+
+    /*
+    Estimates the memory used by a tree.
+     */
+    private static long estimateMemory(XMLElement root){
+        long memory = 0;
+        ArrayList<XMLElement> stack = new ArrayList<>();
+        stack.add(root);
+        XMLElement element;
+        while(!stack.isEmpty()){
+            element = stack.remove(stack.size()-1);
+            //the element, its list of children and its reference in the list of its parent
+            memory += 80+estimateString(element.getTextContent());
+            AttributeMap attributes = element.getLoadedAttributes();
+            if(attributes!=null){
+                memory += 48;
+                for(Map.Entry<String, String> attribute : attributes.entrySet()){
+                    memory += 8+estimateString(attribute.getValue());
+                }
+            }
+            for(int i=element.getNumberOfChildren()-1;i>=0;i--){
+                stack.add(element.getChildAt(i));
+            }
+        }
+        return memory;
+    }
+
+    private static long estimateString(String string){
+        return string.isEmpty() ? 0 : 40+2L*string.length();
+    }
+
+    private static final class Key {
+        private final Path path;
+        private final long lastModified;
+        private final long size;
+
+        Key(Path path, long lastModified, long size){
+            this.path=path;
+            this.lastModified=lastModified;
+            this.size=size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key other = (Key) o;
+            return lastModified==other.lastModified && size==other.size && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode()*31+Long.hashCode(lastModified)*17+Long.hashCode(size);
+        }
+    }
+
+    private static final class Entry {
+        private final Key key;
+        private final XMLElement root;
+        private final long memory;
+
+        Entry(Key key, XMLElement root, long memory){
+            this.key=key;
+            this.root=root;
+            this.memory=memory;
+        }
+    }
+}
@@ -1,15 +1,39 @@
 package it.trvi.easyxml;
 
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Class that represents an XML element with its text content, attributes and children. The tag name is immutable, all the other features can be modified.
+ * An XMLElement can be the child of only one XMLElement at a time, which is its parent.
+ * The attributes are kept in the order in which they are added.
  */
 public class XMLElement implements Cloneable{
     private final String tagName;
     private String textContent;
-    private HashMap<String, String> attributesMap;
-    private final ArrayList<XMLElement> children;
+    //text content that is being appended to, which replaces textContent when it's not null; textContent is moved back
+    //into a String when the text is read, and the field is volatile so that concurrent reads see the moved text
+    private volatile StringBuilder textBuffer;
+    //allocated when the first attribute or child is added
+    private AttributeMap attributesMap;
+    private ArrayList<XMLElement> children;
+    private XMLElement parent;
+    //position in document order of this element and of its last descendant, maintained by the TagIndex of the tree
+    int indexPosition;
+    int indexLastDescendant;
+    //hash of the content of this element and of its descendants, 0 if it must be computed again;
+    //when it's set, the hashes of all the descendants are set too
+    private int structuralHash;
+    //the state that only a few elements have, null when none of its fields is set
+    private SideState side;
 
     /**
      * Constructor for an XMLElement. It takes the tag name, which is immutable.
@@ -19,8 +43,173 @@ public class XMLElement implements Cloneable{
     public XMLElement(String tagName){
         this.tagName=tagName;
         textContent="";
-        attributesMap=new HashMap<>();
-        children=new ArrayList<>();
+    }
+
+    /*
+    Constructor for an XMLElement whose content is loaded from source the first time it is accessed.
+     */
+    XMLElement(String tagName, ElementSource source){
+        this(tagName);
+        side = new SideState();
+        side.source=source;
+    }
+
+    /*
+    Returns the side state of this XMLElement, allocating it if there's none.
+     */
+    private SideState getSide(){
+        if(side==null){
+            side = new SideState();
+        }
+        return side;
+    }
+
+    /*
+    Drops the side state when none of its fields is set any more.
+     */
+    private void trimSide(){
+        if(side!=null && side.isEmpty()){
+            side = null;
+        }
+    }
+
+    /*
+    Returns the index kept by this XMLElement, which is not null only for the root of an indexed tree.
+     */
+    private TagIndex getOwnTagIndex(){
+        return side==null ? null : side.tagIndex;
+    }
+
+    private void setOwnTagIndex(TagIndex tagIndex){
+        if(tagIndex!=null){
+            getSide().tagIndex=tagIndex;
+        }else if(side!=null){
+            side.tagIndex=null;
+            trimSide();
+        }
+    }
+
+    /*
+    Loads the text content, the attributes and the children of this XMLElement from its source, if it has one.
+    Must be called before textContent, attributesMap or children are accessed.
+     */
+    private void load(){
+        if(side!=null && side.source!=null){
+            ElementSource loadingSource = side.source;
+            side.source=null;
+            trimSide();
+            try{
+                loadingSource.load(this);
+            }catch (RuntimeException e){
+                //the element goes back to its unloaded state, so that it's not left with part of its content
+                textContent="";
+                textBuffer=null;
+                attributesMap=null;
+                children=null;
+                getSide().source=loadingSource;
+                throw e;
+            }
+        }
+    }
+
+    /*
+    Returns true if the content of this XMLElement doesn't have to be loaded before it's accessed.
+     */
+    boolean isLoaded(){
+        return side==null || side.source==null;
+    }
+
+    /*
+    Adds an attribute while the content of this XMLElement is loaded. Loading is not a change, so the copies are not involved.
+     */
+    void addLoadedAttribute(String name, String value){
+        if(attributesMap==null){
+            attributesMap=new AttributeMap();
+        }
+        attributesMap.put(name,value);
+    }
+
+    /*
+    Appends text while the content of this XMLElement is loaded.
+     */
+    void appendLoadedText(String text){
+        appendLoadedText(text,0,text.length());
+    }
+
+    /*
+    Appends the characters of text between start and end while the content of this XMLElement is loaded.
+    The first text is kept without copying it if it's a whole String.
+     */
+    void appendLoadedText(CharSequence text, int start, int end){
+        if(textBuffer==null && textContent.isEmpty()){
+            textContent = text.subSequence(start,end).toString();
+        }else{
+            getTextBuffer().append(text,start,end);
+        }
+    }
+
+    /*
+    Moves the text appended while loading into a String, so that a loaded element doesn't keep a buffer.
+     */
+    void compactText(){
+        if(textBuffer!=null){
+            text();
+        }
+    }
+
+    /*
+    Returns the text content, moving it into a String if it's in the buffer.
+     */
+    private String text(){
+        StringBuilder buffer = textBuffer;
+        if(buffer==null){
+            return textContent;
+        }
+        String text = buffer.toString();
+        textContent = text;
+        textBuffer = null;
+        return text;
+    }
+
+    /*
+    Returns the buffer of the text content, creating it if needed, so that many appends take linear time.
+     */
+    private StringBuilder getTextBuffer(){
+        StringBuilder buffer = textBuffer;
+        if(buffer==null){
+            String current = textContent;
+            buffer = new StringBuilder(current==null ? 16 : current.length()+16).append(current);
+            textBuffer = buffer;
+        }
+        return buffer;
+    }
+
+    /*
+    Adds a child while the content of this XMLElement is loaded: child is a new XMLElement, so it can't create a cycle.
+     */
+    void addLoadedChild(XMLElement child){
+        if(children==null){
+            children=new ArrayList<>(4);
+        }
+        children.add(child);
+        child.parent=this;
+    }
+
+    /**
+     * Loads the content of this XMLElement and of all its descendants, if they were parsed lazily (see XMLTreeBuilder.Engine.LAZY).
+     * The parts of a lazy tree are loaded the first time they are accessed, so reading the tree modifies it:
+     * once this method returns, the subtree can be read by several threads at the same time.
+     */
+    public void loadAll(){
+        ArrayList<XMLElement> stack = new ArrayList<>();
+        stack.add(this);
+        XMLElement element;
+        while(!stack.isEmpty()){
+            element = stack.remove(stack.size()-1);
+            for(int i=element.getNumberOfChildren()-1;i>=0;i--){
+                stack.add(element.children.get(i));
+            }
+        }
     }
 
     /**
@@ -32,13 +221,35 @@ public class XMLElement implements Cloneable{
         return tagName;
     }
 
+    /**
+     * Returns the parent of this XMLElement, that is the XMLElement that has this XMLElement among its children.
+     *
+     * @return the parent of this XMLElement, null if this XMLElement is not the child of any XMLElement
+     */
+    public XMLElement getParent() {
+        return parent;
+    }
+
     /**
      * Returns the text content of this XMLElement.
      *
      * @return the text content of this XMLElement
      */
     public String getTextContent() {
-        return textContent;
+        load();
+        return text();
+    }
+
+    /**
+     * Returns the text content of this XMLElement as a CharSequence, without copying it into a String if it has been built by
+     * appending several parts. The CharSequence must not be used after the text content is modified.
+     *
+     * @return the text content of this XMLElement
+     */
+    public CharSequence getTextContentAsCharSequence() {
+        load();
+        StringBuilder buffer = textBuffer;
+        return buffer==null ? textContent : CharBuffer.wrap(buffer);
     }
 
     /**
@@ -47,16 +258,26 @@ public class XMLElement implements Cloneable{
      * @param content is the new text content of this XMLElement
      */
     public void setTextContent(String content) {
+        load();
+        beforeChange();
         this.textContent = content;
+        textBuffer = null;
     }
 
     /**
      * Appends the string passed as input to the text content of this XMLElement.
+     * The text content is kept in a buffer while it's being appended to, so appending many strings takes linear time.
      *
      * @param content is the new text that must be appended
      */
     public void appendTextContent(String content) {
-        this.textContent = this.textContent + content;
+        load();
+        beforeChange();
+        if(textBuffer==null && "".equals(textContent) && content!=null){
+            textContent = content;
+        }else{
+            getTextBuffer().append(content);
+        }
     }
 
     /**
@@ -66,7 +287,7 @@ public class XMLElement implements Cloneable{
      * @param value is the value of the attribute that must be added
      */
     public void addAttribute(String name, String value){
-        attributesMap.put(name,value);
+        getWritableAttributes().put(name,value);
     }
 
     /**
@@ -77,7 +298,8 @@ public class XMLElement implements Cloneable{
      * @throws NoSuchElementException if this XMLElement has no attribute with that name
      */
     public String getAttribute(String name) throws NoSuchElementException{
-        String value = attributesMap.get(name);
+        load();
+        String value = attributesMap==null ? null : attributesMap.get(name);
         if (value==null){
             throw new NoSuchElementException("This XMLElement with tag name \""+tagName+"\" doesn't have an attribute with name \""+name+"\".");
         } else {
@@ -92,7 +314,8 @@ public class XMLElement implements Cloneable{
      * @return true if this instance of XMLElement has an attribute named name, false otherwise
      */
     public boolean hasAttribute(String name){
-        return attributesMap.get(name)!=null;
+        load();
+        return attributesMap!=null && attributesMap.get(name)!=null;
     }
 
     /**
@@ -102,7 +325,8 @@ public class XMLElement implements Cloneable{
      * @return the value of the attribute that is removed, null if the attribute was not present
      */
     public String removeAttributeByName(String name){
-        return attributesMap.remove(name);
+        load();
+        return attributesMap==null ? null : getWritableAttributes().remove(name);
     }
 
     /**
@@ -111,58 +335,264 @@ public class XMLElement implements Cloneable{
      * @return a HashMap&lt;String, String&gt; containing all the attributes of this XMLElement
      */
     public HashMap<String, String> getAllAttributes(){
-        return (HashMap<String, String>) attributesMap.clone();
+        load();
+        return attributesMap==null ? new HashMap<>() : new HashMap<>(attributesMap);
     }
 
     /**
      * Returns a fail-fast Iterator that iterates over all the attributes of this instance of XMLElement.
+     * The attributes can be removed through the Iterator, and their values can be changed through the entries.
      *
      * @return an Iterator&lt;Map.Entry&lt;String, String&gt;&gt; that iterates over all the attributes of this XMLElement
      */
     public Iterator<Map.Entry<String, String>> getAttributesIterator(){
-        return attributesMap.entrySet().iterator();
+        load();
+        if(attributesMap==null){
+            return Collections.emptyIterator();
+        }
+        return new AttributesIterator(attributesMap);
+    }
+
+    /*
+    Iterator over the attributes. Reading doesn't change anything, while each change goes through getWritableAttributes, as the other changes
+    of the attributes do, so that the structural hashes are cleared and the copies made by copyOnWriteClone keep the previous attributes.
+    If the map is copied because it's shared with a copy, the iteration continues on the new map from the same position.
+     */
+    private final class AttributesIterator implements Iterator<Map.Entry<String, String>> {
+        private AttributeMap map;
+        private Iterator<Map.Entry<String, String>> iterator;
+        private Map.Entry<String, String> last;
+        //number of entries returned and not removed, which is the position of the iterator
+        private int position;
+
+        AttributesIterator(AttributeMap map){
+            this.map=map;
+            this.iterator=map.entrySet().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            last = iterator.next();
+            position++;
+            return new AbstractMap.SimpleEntry<String, String>(last.getKey(),last.getValue()){
+                @Override
+                public String setValue(String value) {
+                    prepareChange();
+                    //replacing the value of an existing attribute is not a structural change, so the iteration goes on
+                    map.put(getKey(),value);
+                    return super.setValue(value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if(last==null){
+                throw new IllegalStateException();
+            }
+            prepareChange();
+            iterator.remove();
+            position--;
+            last = null;
+        }
+
+        private void prepareChange(){
+            AttributeMap writable = getWritableAttributes();
+            if(writable!=map){
+                boolean removable = last!=null;
+                map = writable;
+                iterator = map.entrySet().iterator();
+                for(int i=0;i<position;i++){
+                    last = iterator.next();
+                }
+                if(!removable){
+                    last = null;
+                }
+            }
+        }
+    }
+
+    /*
+    Returns the map of the attributes, allocating it if this XMLElement has none yet
+    and copying it if it's shared with a copy made by copyOnWriteClone.
+     */
+    private AttributeMap getWritableAttributes(){
+        load();
+        beforeChange();
+        if(attributesMap==null){
+            attributesMap=new AttributeMap();
+        }else if(attributesMap.shared){
+            attributesMap=new AttributeMap(attributesMap);
+        }
+        return attributesMap;
     }
 
     /**
      * Adds an XMLElement to the children of this XMLElement.
+     * If child is already the child of an XMLElement, it is first removed from the children of that XMLElement.
      *
      * @param child is the XMLElement that must be added to the children of this XMLElement
      * @throws IllegalArgumentException if child is an ancestor of this XMLElement or if this and child are the same object
      */
     public void addChild(XMLElement child) throws IllegalArgumentException{
-        if (this==child) throw new IllegalArgumentException("You can't add an XMLElement to its own children.");
-        if (child.isAncestorOf(this)) throw new IllegalArgumentException(child.getTagName()+" is an ancestor of "+this.getTagName()+", so it can't become its child.");
-        children.add(child);
+        checkNewChild(child);
+        child.detachFromParent();
+        getWritableChildren().add(child);
+        child.parent=this;
+        child.setOwnTagIndex(null);
+        childAdded(children.size()-1);
     }
 
     /**
      * Adds an XMLElement to the children of this XMLElement at the specific position in the list of children.
      * Shifts the child currently at that position (if any) and any subsequent children to the right (adds one to their indices).
+     * If child is already the child of an XMLElement, it is first removed from the children of that XMLElement, and i refers to the list of children after the removal.
      *
      * @param i is the index at which the new child will be located
      * @param child is the XMLElement that must be added to the children of this XMLElement
      * @throws IllegalArgumentException if child is an ancestor of this XMLElement or if this and child are the same object
+     * @throws IndexOutOfBoundsException if i is negative or greater than the number of children after the removal of child; in this case nothing is changed
      */
-    public void addChild(int i, XMLElement child) throws IllegalArgumentException{
+    public void addChild(int i, XMLElement child) throws IllegalArgumentException, IndexOutOfBoundsException{
+        checkNewChild(child);
+        int size = child.parent==this ? getNumberOfChildren()-1 : getNumberOfChildren();
+        if(i<0 || i>size) throw new IndexOutOfBoundsException("Index: "+i+", Size: "+size);
+        child.detachFromParent();
+        getWritableChildren().add(i,child);
+        child.parent=this;
+        child.setOwnTagIndex(null);
+        childAdded(i);
+    }
+
+    /*
+    Checks that child can become a child of this XMLElement without creating a cycle.
+     */
+    private void checkNewChild(XMLElement child) throws IllegalArgumentException{
         if (this==child) throw new IllegalArgumentException("You can't add an XMLElement to its own children.");
         if (child.isAncestorOf(this)) throw new IllegalArgumentException(child.getTagName()+" is an ancestor of "+this.getTagName()+", so it can't become its child.");
-        children.add(i,child);
     }
 
     /**
     @return true if this XMLElement is an ancestor of the XMLElement element, false otherwise
      */
     private boolean isAncestorOf(XMLElement element){
-        for (XMLElement child : children){
-            if(child.equals(element)) {
-                return true;
-            }else if(child.isAncestorOf(element)){
+        for (XMLElement ancestor = element.parent; ancestor!=null; ancestor = ancestor.parent){
+            if(ancestor==this) {
                 return true;
             }
         }
         return false;
     }
 
+    /*
+    Removes this XMLElement from the children of its parent, if it has one.
+     */
+    private void detachFromParent(){
+        if(parent!=null){
+            parent.removeChildAt(parent.identityIndexOf(this));
+        }
+    }
+
+    /*
+    Removes the child at index. All the ways of removing a child end here or in released.
+     */
+    private void removeChildAt(int index){
+        XMLElement child = getChildrenList().get(index);
+        ArrayList<CopyGroup> groups = beforeChange();
+        children.remove(index);
+        released(child,groups);
+    }
+
+    /*
+    Completes the removal of a child, which has been taken out of the list of children after beforeChange returned groups.
+     */
+    private void released(XMLElement child, ArrayList<CopyGroup> groups){
+        childRemoved(child);
+        child.parent=null;
+        //the copies can still read the child, which is no longer reached by the changes of their original
+        if(groups!=null){
+            for(CopyGroup group : groups){
+                child.addCopyGroup(group);
+            }
+        }
+    }
+
+    /*
+    Returns the root of the tree that contains this XMLElement.
+     */
+    private XMLElement getRoot(){
+        XMLElement root = this;
+        while(root.parent!=null){
+            root = root.parent;
+        }
+        return root;
+    }
+
+    /*
+    Must be called after a child is added at index i, so that the index of the tree, if any, is updated.
+     */
+    private void childAdded(int i){
+        TagIndex index = getRoot().getOwnTagIndex();
+        if(index!=null){
+            index.added(children.get(i),i==0 ? null : children.get(i-1));
+        }
+    }
+
+    /*
+    Must be called after a child is removed, while it still has this XMLElement as its parent, so that the index of the tree, if any, is updated.
+     */
+    private void childRemoved(XMLElement child){
+        TagIndex index = getRoot().getOwnTagIndex();
+        if(index!=null){
+            index.removed(child);
+        }
+    }
+
+    /*
+    Returns the list of children, which is empty and immutable if this XMLElement has none.
+     */
+    private List<XMLElement> getChildrenList(){
+        load();
+        return children==null ? Collections.emptyList() : children;
+    }
+
+    /*
+    Returns the attributes without copying them, or null if there are none. The map must not be modified.
+     */
+    AttributeMap getLoadedAttributes(){
+        load();
+        return attributesMap;
+    }
+
+    /*
+    Returns the list of children, allocating it if this XMLElement has none yet.
+     */
+    private ArrayList<XMLElement> getWritableChildren(){
+        load();
+        beforeChange();
+        if(children==null){
+            children=new ArrayList<>(4);
+        }
+        return children;
+    }
+
+    /*
+    Returns the index of the specified object in the children of this XMLElement, -1 if it is not a child.
+     */
+    private int identityIndexOf(XMLElement child){
+        for(int i=0;i<getNumberOfChildren();i++){
+            if(children.get(i)==child){
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Removes an XMLElement from the children of this XMLElement. Only the direct children are removed, not the other descendants.
      *
@@ -170,7 +600,8 @@ public class XMLElement implements Cloneable{
      * @throws NoSuchElementException if the specified element is not a child of this XMLElement.
      */
     public void removeChild(XMLElement child) throws NoSuchElementException{
-        if(!children.remove(child)) throw new NoSuchElementException("Can't remove "+child.getTagName()+" from the children of "+this.getTagName()+" because "+child.getTagName()+" is not a child of "+this.getTagName()+".");
+        if(child.parent!=this) throw new NoSuchElementException("Can't remove "+child.getTagName()+" from the children of "+this.getTagName()+" because "+child.getTagName()+" is not a child of "+this.getTagName()+".");
+        child.detachFromParent();
     }
 
     /**
@@ -179,7 +610,7 @@ public class XMLElement implements Cloneable{
      * @param i is the index of the child that must be removed from the list of children of this XMLElement
      */
     public void removeChild(int i){
-        children.remove(i);
+        removeChildAt(i);
     }
 
     /**
@@ -189,18 +620,18 @@ public class XMLElement implements Cloneable{
      * @return the ith child of this XMLElement
      */
     public XMLElement getChildAt(int i){
-        return children.get(i);
+        return getChildrenList().get(i);
     }
 
     /**
-     * Returns the index of the first occurrence of the specified XMLElement in the list of children of this XMLElement.
+     * Returns the index of the specified XMLElement in the list of children of this XMLElement.
      *
      * @param child is the child whose index must be returned
-     * @return the index of the first occurrence of child in the list of children of this XMLElement
+     * @return the index of child in the list of children of this XMLElement
      * @throws NoSuchElementException if the specified element is not a child of this XMLElement.
      */
     public int indexOfChild(XMLElement child) throws NoSuchElementException{
-        int index = children.indexOf(child);
+        int index = child.parent==this ? identityIndexOf(child) : -1;
         if(index==-1){
             throw new NoSuchElementException(child.tagName+" is not a child of "+this.tagName);
         }else {
@@ -214,7 +645,8 @@ public class XMLElement implements Cloneable{
      * @return the number of children of this instance of XMLElement
      */
     public int getNumberOfChildren(){
-        return children.size();
+        load();
+        return children==null ? 0 : children.size();
     }
 
     /**
@@ -223,7 +655,8 @@ public class XMLElement implements Cloneable{
      * @return an ArrayList&lt;XMLElement&gt; containing all the children of this XMLElement
      */
     public ArrayList<XMLElement> getAllChildren(){
-        return (ArrayList<XMLElement>) children.clone();
+        load();
+        return children==null ? new ArrayList<>() : new ArrayList<>(children);
     }
 
     /**
@@ -232,7 +665,36 @@ public class XMLElement implements Cloneable{
      * @return an Iterator&lt;XMLElement&gt; that iterates over all the children of this XMLElement
      */
     public Iterator<XMLElement> getChildrenIterator(){
-        return children.iterator();
+        load();
+        if(children==null){
+            return Collections.emptyIterator();
+        }
+        final Iterator<XMLElement> iterator = children.iterator();
+        return new Iterator<XMLElement>() {
+            private XMLElement last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public XMLElement next() {
+                last = iterator.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if(last==null){
+                    throw new IllegalStateException();
+                }
+                ArrayList<CopyGroup> groups = beforeChange();
+                iterator.remove();
+                released(last,groups);
+                last = null;
+            }
+        };
     }
 
     /**
@@ -242,9 +704,18 @@ public class XMLElement implements Cloneable{
      * @param j the index of the second child that must be swapped
      */
     public void swapChildrenPosition(int i, int j){
-        XMLElement temp = children.get(i);
-        children.set(i,children.get(j));
+        XMLElement temp = getChildrenList().get(i);
+        XMLElement other = getChildrenList().get(j);
+        if(i==j){
+            return;
+        }
+        ArrayList<XMLElement> children = getWritableChildren();
+        childRemoved(temp);
+        childRemoved(other);
+        children.set(i,other);
         children.set(j,temp);
+        childAdded(Math.min(i,j));
+        childAdded(Math.max(i,j));
     }
 
     /**
@@ -274,7 +745,7 @@ public class XMLElement implements Cloneable{
         if(n<0){
             moveChildPositionUp(i,-n);
         }
-        while(n>0&&i<children.size()-1){
+        while(n>0&&i<getNumberOfChildren()-1){
             swapChildrenPosition(i,i+1);
             n--;
             i++;
@@ -284,27 +755,154 @@ public class XMLElement implements Cloneable{
 
     /**
      * Returns all the descendants of this XMLElement that have a specific tag name.
+     * If the tree that contains this XMLElement has a tag index (see enableTagIndex), the index is used.
      *
      * @param tagName is tag name of the descendants that must be returned
      * @return an ArrayList&lt;XMLElement&gt; containing all the descendants of this XMLElement whose tag name is tagName.
     */
     public ArrayList<XMLElement> getDescendantsWithTag(String tagName) {
+        XMLElement root = getRoot();
+        TagIndex index = root.getOwnTagIndex();
+        if(index!=null){
+            return index.getDescendantsWithTag(root,this,tagName);
+        }
         ArrayList<XMLElement> result = new ArrayList<>();
-        Stack<XMLElement> stack = new Stack<>();
-        stack.push(this);
+        ArrayList<XMLElement> stack = new ArrayList<>();
+        stack.add(this);
         XMLElement element;
-        while(!stack.empty()){
-            element = stack.pop();
+        while(!stack.isEmpty()){
+            element = stack.remove(stack.size()-1);
             if(element.tagName.equals(tagName)){
                 result.add(element);
             }
-            for(int i=element.children.size()-1;i>=0;i--){
-                stack.push(element.children.get(i));
+            for(int i=element.getNumberOfChildren()-1;i>=0;i--){
+                stack.add(element.children.get(i));
             }
         }
         return result;
     }
 
+    /**
+     * Returns all the descendants of this XMLElement that have a specific tag name, searching the subtrees in parallel with the common ForkJoinPool.
+     * The result is in document order, as the one of getDescendantsWithTag. Subtrees with less than 8192 elements are searched sequentially,
+     * and the small children of an element are grouped into ranges of about 8192 elements, each searched by one task.
+     * The tree must not be modified during the search.
+     *
+     * @param tagName is tag name of the descendants that must be returned
+     * @return an ArrayList&lt;XMLElement&gt; containing all the descendants of this XMLElement whose tag name is tagName.
+     */
+    public ArrayList<XMLElement> getDescendantsWithTagParallel(String tagName) {
+        return getDescendantsWithTagParallel(tagName,ParallelTraversal.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Returns all the descendants of this XMLElement that have a specific tag name, searching the subtrees in parallel with the common ForkJoinPool.
+     * The result is in document order, as the one of getDescendantsWithTag. The tree must not be modified during the search.
+     *
+     * @param tagName is tag name of the descendants that must be returned
+     * @param sequentialThreshold is the number of elements under which a subtree is searched sequentially, and the size of the ranges of small children
+     * @return an ArrayList&lt;XMLElement&gt; containing all the descendants of this XMLElement whose tag name is tagName.
+     * @throws IllegalArgumentException if sequentialThreshold is not positive
+     */
+    public ArrayList<XMLElement> getDescendantsWithTagParallel(String tagName, int sequentialThreshold) throws IllegalArgumentException {
+        checkThreshold(sequentialThreshold);
+        return ParallelTraversal.getDescendantsWithTag(this,tagName,sequentialThreshold);
+    }
+
+    /**
+     * Returns a stream of this XMLElement and all its descendants, in document order.
+     * The stream can be made parallel: it's split among the subtrees, and parts with less than 8192 elements are not split further.
+     * The tree must not be modified while the stream is in use.
+     *
+     * @return a Stream&lt;XMLElement&gt; of this XMLElement and its descendants
+     */
+    public Stream<XMLElement> getDescendantsStream(){
+        return getDescendantsStream(ParallelTraversal.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Returns a stream of this XMLElement and all its descendants, in document order.
+     * The stream can be made parallel: it's split among the subtrees, and parts with less than sequentialThreshold elements are not split further.
+     * The tree must not be modified while the stream is in use.
+     *
+     * @param sequentialThreshold is the number of elements under which a part of the tree is not split
+     * @return a Stream&lt;XMLElement&gt; of this XMLElement and its descendants
+     * @throws IllegalArgumentException if sequentialThreshold is not positive
+     */
+    public Stream<XMLElement> getDescendantsStream(int sequentialThreshold) throws IllegalArgumentException {
+        checkThreshold(sequentialThreshold);
+        return StreamSupport.stream(new ParallelTraversal.DescendantSpliterator(this,sequentialThreshold),false);
+    }
+
+    /**
+     * Passes this XMLElement and all its descendants to the visitor, visiting the subtrees in parallel with the common ForkJoinPool.
+     * The order of the calls is not defined, and the visitor must be thread-safe. Subtrees with less than 8192 elements are visited sequentially,
+     * and the small children of an element are grouped into ranges of about 8192 elements, each visited by one task.
+     * The tree must not be modified during the visit.
+     *
+     * @param visitor is the action performed on every element
+     */
+    public void visitParallel(Consumer<XMLElement> visitor){
+        visitParallel(visitor,ParallelTraversal.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Passes this XMLElement and all its descendants to the visitor, visiting the subtrees in parallel with the common ForkJoinPool.
+     * The order of the calls is not defined, and the visitor must be thread-safe. The tree must not be modified during the visit.
+     *
+     * @param visitor is the action performed on every element
+     * @param sequentialThreshold is the number of elements under which a subtree is visited sequentially, and the size of the ranges of small children
+     * @throws IllegalArgumentException if sequentialThreshold is not positive
+     */
+    public void visitParallel(Consumer<XMLElement> visitor, int sequentialThreshold) throws IllegalArgumentException {
+        checkThreshold(sequentialThreshold);
+        ParallelTraversal.forEach(this,visitor,sequentialThreshold);
+    }
+
+    private static void checkThreshold(int sequentialThreshold){
+        if(sequentialThreshold<=0){
+            throw new IllegalArgumentException("The threshold must be positive.");
+        }
+    }
+
+    /**
+     * Creates an index of the tag names of the whole tree that contains this XMLElement, which makes getDescendantsWithTag faster.
+     * The index is updated when elements are added, removed or moved. Only when it can't make room for the added elements it's marked as stale,
+     * and it's rebuilt by the next call to getDescendantsWithTag. Lookups from different threads on an unchanging tree are safe.
+     * The index belongs to the root of the tree, and it's removed if the root becomes the child of another XMLElement.
+     */
+    public void enableTagIndex(){
+        XMLElement root = getRoot();
+        if(root.getOwnTagIndex()==null){
+            TagIndex index = new TagIndex();
+            index.invalidate();
+            root.setOwnTagIndex(index);
+        }
+    }
+
+    /**
+     * Removes the index of the tag names of the tree that contains this XMLElement, if there is one.
+     */
+    public void disableTagIndex(){
+        getRoot().setOwnTagIndex(null);
+    }
+
+    /**
+     * Returns true if the tree that contains this XMLElement has an index of the tag names.
+     *
+     * @return true if the tree that contains this XMLElement has an index of the tag names, false otherwise
+     */
+    public boolean isTagIndexEnabled(){
+        return getRoot().getOwnTagIndex()!=null;
+    }
+
+    /*
+    Sets an index that has already been built, used by XMLTreeBuilder. This XMLElement must be a root.
+     */
+    void setTagIndex(TagIndex tagIndex){
+        setOwnTagIndex(tagIndex);
+    }
+
     /**
      * Returns the XML code corresponding to this XMLElement.
      *
@@ -321,51 +919,488 @@ public class XMLElement implements Cloneable{
      * @return the string representation of this XMLElement.
      */
     public String toString(String tabulationCharacters){
-        StringBuilder s=new StringBuilder("<"+this.tagName);
-        for (Map.Entry<String, String> attribute : attributesMap.entrySet()) {
-            s.append(" ").append(attribute.getKey()).append("=\"").append(attribute.getValue()).append("\"");
+        StringWriter writer = new StringWriter();
+        try{
+            writeTo(writer,tabulationCharacters);
+        }catch (IOException e){
+            throw new RuntimeException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes the XML code corresponding to this XMLElement to a Writer. The text is the same returned by toString().
+     * The Writer is neither flushed nor closed.
+     *
+     * @param writer is the Writer to which the XML code is written
+     * @throws IOException if there's an error while writing to the Writer
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writeTo(writer,"\t");
+    }
+
+    /**
+     * Writes the XML code corresponding to this XMLElement to a Writer, with the possibility of choosing the tabulation.
+     * The text is the same returned by toString(tabulationCharacters). The Writer is neither flushed nor closed.
+     *
+     * @param writer is the Writer to which the XML code is written
+     * @param tabulationCharacters is the tabulation that will be used
+     * @throws IOException if there's an error while writing to the Writer
+     */
+    public void writeTo(Writer writer, String tabulationCharacters) throws IOException {
+        if(!XMLMetrics.isSerializationEnabled()){
+            writeElement(writer,tabulationCharacters,0);
+            return;
+        }
+        MetricsRecorder recorder = MetricsRecorder.startSerialization();
+        Writer countingWriter = recorder.count(writer);
+        writeElement(countingWriter,tabulationCharacters,0);
+        recorder.serialized(this,countingWriter);
+    }
+
+    /**
+     * Writes the XML code corresponding to this XMLElement to an OutputStream, encoding it with the specified charset.
+     * The text is the same returned by toString(). The OutputStream is flushed but not closed.
+     *
+     * @param stream is the OutputStream to which the XML code is written
+     * @param charset is the charset used to encode the XML code
+     * @throws IOException if there's an error while writing to the OutputStream
+     */
+    public void writeTo(OutputStream stream, Charset charset) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(stream,charset));
+        writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes the XML code corresponding to this XMLElement to a WritableByteChannel, encoding it with the specified charset.
+     * The text is the same returned by toString(). The channel is not closed.
+     *
+     * @param channel is the channel to which the XML code is written
+     * @param charset is the charset used to encode the XML code
+     * @throws IOException if there's an error while writing to the channel
+     */
+    public void writeTo(WritableByteChannel channel, Charset charset) throws IOException {
+        Writer writer = new BufferedWriter(Channels.newWriter(channel,charset.newEncoder(),-1));
+        writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes this XMLElement and its descendants to an OutputStream in a compact binary format, which can be read back with
+     * XMLTreeBuilder.readBinary much faster than the XML code can be parsed. The names are stored once in a table,
+     * and the numbers are stored in as few bytes as possible. The OutputStream is flushed but not closed.
+     *
+     * @param stream is the OutputStream to which the snapshot is written
+     * @throws IOException if there's an error while writing to the OutputStream
+     */
+    public void writeBinary(OutputStream stream) throws IOException {
+        BinaryFormat.write(this,stream);
+    }
+
+    /*
+    Writes this XMLElement in a single depth-first pass, with each line indented by depth tabulations.
+     */
+    void writeElement(Writer writer, String tabulationCharacters, int depth) throws IOException {
+        load();
+        writeStartTag(writer);
+        writeText(writer,tabulationCharacters,depth);
+        for(int i=0;i<getNumberOfChildren();i++){
+            XMLElement child = children.get(i);
+            writer.write('\n');
+            writeIndentation(writer,tabulationCharacters,depth+1);
+            child.writeElement(writer,tabulationCharacters,depth+1);
+        }
+        writeEndTag(writer,tabulationCharacters,depth);
+    }
+
+    /*
+    Writes the start tag of this XMLElement with its attributes. The parts of writeElement are also used by XMLTransformer,
+    which writes the children of the elements that it doesn't build while it reads them.
+     */
+    void writeStartTag(Writer writer) throws IOException {
+        load();
+        writer.write('<');
+        writer.write(tagName);
+        if(attributesMap!=null){
+            for (Map.Entry<String, String> attribute : attributesMap.entrySet()) {
+                writer.write(' ');
+                writer.write(attribute.getKey());
+                writer.write("=\"");
+                writeEscaped(writer,attribute.getValue(),0,attribute.getValue().length(),true,null,0);
+                writer.write('"');
+            }
+        }
+        writer.write('>');
+    }
+
+    /*
+    Writes the text content of this XMLElement on a new line, if it has any.
+     */
+    void writeText(Writer writer, String tabulationCharacters, int depth) throws IOException {
+        String text = text();
+        if(!text.equals("")){
+            writer.write('\n');
+            writeIndentation(writer,tabulationCharacters,depth+1);
+            writeEscaped(writer,text,0,text.length(),false,tabulationCharacters,depth+1);
+        }
+    }
+
+    void writeEndTag(Writer writer, String tabulationCharacters, int depth) throws IOException {
+        writer.write('\n');
+        writeIndentation(writer,tabulationCharacters,depth);
+        writer.write("</");
+        writer.write(tagName);
+        writer.write('>');
+    }
+
+    static void writeIndentation(Writer writer, String tabulationCharacters, int depth) throws IOException {
+        for(int i=0;i<depth;i++){
+            writer.write(tabulationCharacters);
+        }
+    }
+
+    /*
+    Writes the characters of a text or of an attribute value between from and to, escaping the characters that can't appear as they are.
+    In a text, every new line is followed by the indentation.
+     */
+    static void writeEscaped(Writer writer, String s, int from, int to, boolean attribute, String tabulationCharacters, int depth) throws IOException {
+        int start = from;
+        String replacement;
+        for(int i=from;i<to;i++){
+            switch (s.charAt(i)){
+                case '&': replacement = "&amp;"; break;
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = attribute ? null : "&gt;"; break;
+                case '"': replacement = attribute ? "&quot;" : null; break;
+                //the whitespace in an attribute value would be normalized to spaces by the parser
+                case '\n': replacement = attribute ? "&#10;" : "\n"; break;
+                case '\t': replacement = attribute ? "&#9;" : null; break;
+                case '\r': replacement = attribute ? "&#13;" : null; break;
+                default: replacement = null;
+            }
+            if(replacement!=null){
+                writer.write(s,start,i-start);
+                writer.write(replacement);
+                if(!attribute && s.charAt(i)=='\n'){
+                    writeIndentation(writer,tabulationCharacters,depth);
+                }
+                start = i+1;
+            }
         }
-        s.append(">");
-        if(!textContent.equals("")){
-            s.append("\n").append(addTab(this.textContent,tabulationCharacters));
+        writer.write(s,start,to-start);
+    }
+
+    /**
+     * Returns true if this XMLElement and another one have the same tag name, text content and attributes,
+     * and if their children are equal in the same way and in the same order. The order of the attributes doesn't matter.
+     * The hashes of the two trees (see structuralHashCode) are compared first, so most unequal trees are told apart quickly.
+     *
+     * @param other is the XMLElement that is compared with this one
+     * @return true if the two trees are equal, false otherwise
+     */
+    public boolean structuralEquals(XMLElement other){
+        if(other==null){
+            return false;
         }
-        for(XMLElement child : children){
-            s.append("\n");
-            s.append(addTab(child.toString(tabulationCharacters),tabulationCharacters));
+        ArrayList<XMLElement> stack = new ArrayList<>();
+        stack.add(this);
+        stack.add(other);
+        XMLElement a, b;
+        while(!stack.isEmpty()){
+            b = stack.remove(stack.size()-1);
+            a = stack.remove(stack.size()-1);
+            if(a==b){
+                continue;
+            }
+            if(a.structuralHashCode()!=b.structuralHashCode() || !a.tagName.equals(b.tagName) || !a.text().equals(b.text())
+                    || !attributesEqual(a.attributesMap,b.attributesMap) || a.getNumberOfChildren()!=b.getNumberOfChildren()){
+                return false;
+            }
+            for(int i=0;i<a.getNumberOfChildren();i++){
+                stack.add(a.children.get(i));
+                stack.add(b.children.get(i));
+            }
         }
-        s.append("\n</").append(this.tagName).append(">");
-        return s.toString();
+        return true;
+    }
+
+    private static boolean attributesEqual(AttributeMap a, AttributeMap b){
+        int size = a==null ? 0 : a.size();
+        if(size!=(b==null ? 0 : b.size())){
+            return false;
+        }
+        if(size==0){
+            return true;
+        }
+        for(Map.Entry<String, String> attribute : a.entrySet()){
+            String value = b.get(attribute.getKey());
+            if(!Objects.equals(attribute.getValue(),value) || (value==null && !b.containsKey(attribute.getKey()))){
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * Adds a string at the beginning of each line of another string. This is used to add a tabulation to each line.
+     * Returns a hash of the tag name, the text content, the attributes and the children of this XMLElement,
+     * which is the same for all the XMLElements that are equal according to structuralEquals.
+     * The hash of every element of the tree is kept, and a change only clears the hashes of the changed element and of its ancestors,
+     * so after a change the hash is computed again only for the path that leads to it.
      *
-     * @param s is the string to which the other string must be added at the beginning of each line.
-     * @param tabulationCharacters is the string that must be added at the begging of each line.
-     * @return the original string s with tabulationCharacters added at the beginning of each new line
+     * @return the structural hash of this XMLElement
+     */
+    public int structuralHashCode(){
+        if(structuralHash!=0){
+            return structuralHash;
+        }
+        //each element is computed after its children, which are pushed above it
+        ArrayList<XMLElement> stack = new ArrayList<>();
+        stack.add(this);
+        XMLElement element;
+        while(!stack.isEmpty()){
+            element = stack.get(stack.size()-1);
+            if(element.structuralHash!=0){
+                stack.remove(stack.size()-1);
+                continue;
+            }
+            boolean ready = true;
+            for(int i=0;i<element.getNumberOfChildren();i++){
+                if(element.children.get(i).structuralHash==0){
+                    stack.add(element.children.get(i));
+                    ready = false;
+                }
+            }
+            if(ready){
+                element.structuralHash = element.computeStructuralHash();
+                stack.remove(stack.size()-1);
+            }
+        }
+        return structuralHash;
+    }
+
+    /*
+    Computes the hash of this element from the hashes of its children, which must be set. The hash of the attributes doesn't depend on their order.
      */
-    private String addTab(String s, String tabulationCharacters){
-        StringBuilder result=new StringBuilder(tabulationCharacters);
-        for(int i=0;i<s.length();i++){
-            result.append(s.charAt(i));
-            if(s.charAt(i)=='\n'){
-                result.append(tabulationCharacters);
+    private int computeStructuralHash(){
+        int hash = tagName.hashCode()*31+text().hashCode();
+        int attributesHash = 0;
+        if(attributesMap!=null){
+            for(Map.Entry<String, String> attribute : attributesMap.entrySet()){
+                attributesHash += Objects.hashCode(attribute.getKey())^Objects.hashCode(attribute.getValue());
             }
         }
-        return result.toString();
+        hash = hash*31+attributesHash;
+        for(int i=0;i<getNumberOfChildren();i++){
+            hash = hash*31+children.get(i).structuralHash;
+        }
+        //0 means that the hash is not set
+        return hash==0 ? 1 : hash;
     }
 
     /**
-     * Returns a deep copy of this XMLElement instance.
+     * Returns a deep copy of this XMLElement instance. The copy has no parent.
      */
     public Object clone(){
+        load();
         XMLElement copy = new XMLElement(this.tagName);
-        copy.textContent=this.textContent;
-        copy.attributesMap= (HashMap<String, String>) this.attributesMap.clone();
-        Iterator i = this.children.iterator();
-        while(i.hasNext()){
-            copy.addChild((XMLElement) ((XMLElement) i.next()).clone());
+        copy.textContent=this.text();
+        if(this.attributesMap!=null){
+            copy.attributesMap=new AttributeMap(this.attributesMap);
+        }
+        for(int i=0;i<getNumberOfChildren();i++){
+            copy.addChild((XMLElement) children.get(i).clone());
         }
+        copy.structuralHash=this.structuralHash;
         return copy;
     }
+
+    /**
+     * Returns a copy of this XMLElement that shares its content with this XMLElement until one of the two is modified. The copy has no parent.
+     * The copy is created in constant time: an element of the copy reads the text content and the attributes of the corresponding element
+     * of this tree the first time it is accessed, sharing them, and each change duplicates only what it modifies and the path that leads to it.
+     * The changes made to a tree are never seen by the other, as for clone().
+     * This tree must not be modified while its copies are being used by other threads.
+     *
+     * @return a copy of this XMLElement
+     */
+    public XMLElement copyOnWriteClone(){
+        CopyGroup group = new CopyGroup();
+        addCopyGroup(group);
+        return new XMLElement(tagName,new CopySource(group,this));
+    }
+
+    /**
+     * Returns an immutable snapshot of this XMLElement and its descendants, which has the same read methods and can be shared
+     * by any number of threads without locks or copies. The elements of the snapshot are stored in a few arrays in document order,
+     * so it takes less memory than the tree and it's searched faster. The snapshot has no parent, and it isn't affected by the changes
+     * made later to this tree. The parts of a lazy tree are loaded, and the tree must not be modified while the snapshot is created.
+     *
+     * @return the snapshot of this XMLElement
+     */
+    public FrozenXMLElement freeze(){
+        return FrozenXMLElement.freeze(this);
+    }
+
+    private void addCopyGroup(CopyGroup group){
+        synchronized (this){
+            SideState state = getSide();
+            if(state.copyGroups==null){
+                state.copyGroups = new ArrayList<>(2);
+            }else if(state.copyGroups.size()>=8 && Integer.bitCount(state.copyGroups.size())==1){
+                //removes the groups whose copies have all been loaded or collected
+                state.copyGroups.removeIf(reference -> reference.get()==null);
+            }
+            state.copyGroups.add(new WeakReference<>(group));
+        }
+    }
+
+    /*
+    Must be called before the text content, the attributes or the children of this XMLElement change.
+    The groups of copies registered at this element or at its ancestors save its current content, if they haven't already.
+    Returns those groups, null if there are none.
+     */
+    private ArrayList<CopyGroup> beforeChange(){
+        //the ancestors of an element without a hash don't have one either
+        for(XMLElement element = this; element!=null && element.structuralHash!=0; element = element.parent){
+            element.structuralHash = 0;
+        }
+        //only the groups of this tree are looked for, along the path to the root, and the lock is taken only by the elements that have some
+        ArrayList<CopyGroup> groups = null;
+        CopyGroup group;
+        for(XMLElement element = this; element!=null; element = element.parent){
+            //groups are added only by copyOnWriteClone, which can't run while the tree is modified
+            SideState state = element.side;
+            if(state==null || state.copyGroups==null){
+                continue;
+            }
+            synchronized (element){
+                state = element.side;
+                if(state==null || state.copyGroups==null){
+                    continue;
+                }
+                for(Iterator<WeakReference<CopyGroup>> i = state.copyGroups.iterator(); i.hasNext();){
+                    group = i.next().get();
+                    if(group==null){
+                        i.remove();
+                    }else{
+                        if(groups==null){
+                            groups = new ArrayList<>(2);
+                        }
+                        groups.add(group);
+                    }
+                }
+                if(state.copyGroups.isEmpty()){
+                    state.copyGroups = null;
+                    element.trimSide();
+                }
+            }
+        }
+        if(groups!=null){
+            for(CopyGroup copyGroup : groups){
+                copyGroup.preserve(this);
+            }
+        }
+        return groups;
+    }
+
+    /*
+    The fields that are needed only by the root of an indexed tree, by the elements of a lazy tree or of a copy until they are loaded,
+    and by the elements that have been copied by copyOnWriteClone. They are kept apart so that the other elements don't pay for them.
+     */
+    private static final class SideState {
+        //only the root of a tree can have an index
+        TagIndex tagIndex;
+        //set until the text content, the attributes and the children of this element are loaded from it
+        ElementSource source;
+        //the groups of copies made by copyOnWriteClone that can read the content of this element or of its descendants
+        ArrayList<WeakReference<CopyGroup>> copyGroups;
+
+        boolean isEmpty(){
+            return tagIndex==null && source==null && copyGroups==null;
+        }
+    }
+
+    /*
+    The copies made by a call to copyOnWriteClone. The group keeps the content that the elements of the original had when the copy was made,
+    saved by the first change to each of them; the copies read the saved content if there is one, the current content otherwise.
+    The group is collected, and no longer saves anything, once all its copies have been loaded or collected.
+     */
+    private static final class CopyGroup {
+        private final IdentityHashMap<XMLElement, Content> preserved = new IdentityHashMap<>();
+
+        synchronized void preserve(XMLElement element){
+            if(!preserved.containsKey(element)){
+                preserved.put(element,new Content(element));
+            }
+        }
+
+        synchronized Content getPreserved(XMLElement element){
+            return preserved.get(element);
+        }
+    }
+
+    /*
+    The text content, the attributes and the children of an element at some moment.
+     */
+    private static final class Content {
+        private final String textContent;
+        private final AttributeMap attributesMap;
+        private final XMLElement[] children;
+
+        Content(XMLElement element){
+            textContent = element.text();
+            attributesMap = element.attributesMap;
+            if(attributesMap!=null){
+                attributesMap.shared = true;
+            }
+            children = element.children==null ? new XMLElement[0] : element.children.toArray(new XMLElement[0]);
+        }
+
+        void copyTo(XMLElement copy, CopyGroup group){
+            copyContent(copy,group,textContent,attributesMap,Arrays.asList(children));
+        }
+    }
+
+    /*
+    Gives to copy the text content and the attributes, which are shared, and copies of the children that read their content from them.
+     */
+    private static void copyContent(XMLElement copy, CopyGroup group, String textContent, AttributeMap attributesMap, List<XMLElement> children){
+        copy.textContent = textContent;
+        if(attributesMap!=null){
+            attributesMap.shared = true;
+            copy.attributesMap = attributesMap;
+        }
+        for(int i=0;i<children.size();i++){
+            copy.addLoadedChild(new XMLElement(children.get(i).tagName,new CopySource(group,children.get(i))));
+        }
+    }
+
+    /*
+    Source of an element of a copy made by copyOnWriteClone: the copy shares the text content and the attributes of the original,
+    and its children are copies of the children of the original whose content isn't loaded yet.
+     */
+    private static final class CopySource extends ElementSource {
+        private final CopyGroup group;
+        private final XMLElement original;
+
+        CopySource(CopyGroup group, XMLElement original){
+            this.group=group;
+            this.original=original;
+        }
+
+        @Override
+        void load(XMLElement copy) {
+            Content content = group.getPreserved(original);
+            if(content!=null){
+                content.copyTo(copy,group);
+                return;
+            }
+            //the copies of the same original can be loaded by different threads
+            synchronized (original){
+                original.load();
+                copyContent(copy,group,original.text(),original.attributesMap,original.getChildrenList());
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+package it.trvi.easyxml;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterator that reads an XML document as a stream and returns, one at a time, the elements that match a path.
+ * Each element is returned as a standalone XMLElement with all its descendants, and only the element that is being returned is kept in memory.
+ * The path can be a tag name, which matches the elements with that tag name at any depth, or a list of tag names separated by "/"
+ * (like "root/record"), which matches the elements that are found by following that path from the root. A path that begins with "/" is always
+ * followed from the root, so "/root" matches only the root. In a path, "*" matches any tag name.
+ * An element that is nested inside another matched element is returned only as part of the outer one.
+ * The underlying InputStream is closed when the end of the document is reached or when close is called.
+ */
+public class XMLElementIterator implements Iterator<XMLElement>, Closeable {
+    private final XMLStreamReader reader;
+    private final InputStream stream;
+    private final ElementPath path;
+    private final ArrayList<String> openTags;
+    private final NameTable names;
+    private XMLElement next;
+    private boolean closed;
+
+    /*
+    The reader must be at the beginning of the document. If the path is not valid, the stream is closed, since the caller gets no iterator to close.
+     */
+    XMLElementIterator(XMLStreamReader reader, InputStream stream, String path){
+        this.reader=reader;
+        this.stream=stream;
+        this.openTags=new ArrayList<>();
+        this.names=new NameTable();
+        try{
+            this.path=new ElementPath(path);
+        }catch (IllegalArgumentException e){
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if there is another element that matches the path.
+     *
+     * @return true if there is another element that matches the path, false otherwise
+     * @throws RuntimeException if there's an error in the XML code (wrapping a ParseException) or while reading from the InputStream (wrapping an IOException)
+     */
+    @Override
+    public boolean hasNext() {
+        if(next==null && !closed){
+            try{
+                next=findNext();
+            }catch (ParseException | IOException e){
+                throw new RuntimeException(e);
+            }
+        }
+        return next!=null;
+    }
+
+    /**
+     * Returns the next element that matches the path.
+     *
+     * @return the next XMLElement that matches the path
+     * @throws NoSuchElementException if there are no more elements that match the path
+     */
+    @Override
+    public XMLElement next() {
+        if(!hasNext()){
+            throw new NoSuchElementException("There are no more elements that match the path.");
+        }
+        XMLElement result = next;
+        next=null;
+        return result;
+    }
+
+    /**
+     * Returns a sequential Stream of the remaining elements that match the path. Closing the Stream closes this iterator.
+     *
+     * @return a Stream&lt;XMLElement&gt; of the remaining elements that match the path
+     */
+    public Stream<XMLElement> stream(){
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL),false).onClose(this::closeQuietly);
+    }
+
+    /**
+     * Stops reading the document and closes the underlying InputStream.
+     *
+     * @throws IOException if there's an error while closing the InputStream
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed){
+            return;
+        }
+        closed=true;
+        next=null;
+        try{
+            reader.close();
+        }catch (XMLStreamException e){
+            //the stream is closed anyway
+        }finally {
+            stream.close();
+        }
+    }
+
+    private void closeQuietly(){
+        try{
+            close();
+        }catch (IOException e){
+            //nothing else can be done
+        }
+    }
+
+    /*
+    Returns the next matching element, or null at the end of the document. Used where the checked exceptions can be thrown.
+     */
+    XMLElement nextElement() throws ParseException, IOException {
+        if(next!=null){
+            XMLElement result = next;
+            next=null;
+            return result;
+        }
+        return closed ? null : findNext();
+    }
+
+    /*
+    Reads the document until the next matching element has been built, or until the end of the document.
+    The iterator is closed when the end of the document is reached or if an error occurs.
+     */
+    private XMLElement findNext() throws ParseException, IOException {
+        try{
+            int event;
+            while(reader.hasNext()){
+                event = reader.next();
+                if(event==XMLStreamConstants.START_ELEMENT){
+                    openTags.add(reader.getLocalName());
+                    if(path.matches(openTags)){
+                        openTags.remove(openTags.size()-1);
+                        return StAXTreeBuilder.buildElement(reader,names,null);
+                    }
+                }else if(event==XMLStreamConstants.END_ELEMENT){
+                    openTags.remove(openTags.size()-1);
+                }
+            }
+        }catch (XMLStreamException e){
+            closeQuietly();
+            throw StAXTreeBuilder.toParseException(e);
+        }
+        close();
+        return null;
+    }
+}
@@ -0,0 +1,271 @@
+package it.trvi.easyxml;
+
+import java.util.Arrays;
+
+/**
+ * Instrumentation of the parsing and of the serialisation of the documents. The measurements are passed to the registered listeners
+ * and recorded as JDK Flight Recorder events, named "it.trvi.easyxml.Parse" and "it.trvi.easyxml.Serialize".
+ * When there are no listeners and the events are not enabled in a recording, nothing is measured, so the instrumentation costs
+ * a single check for each document.
+ * <p>
+ * A parse is measured by the methods of XMLTreeBuilder that build a whole tree, and a serialisation by toString and writeTo.
+ * The listeners are called on the thread that parsed or serialised the document, after it's done, and only if there was no error.
+ */
+public final class XMLMetrics {
+    //the Flight Recorder classes are used only if the runtime includes them
+    private static final boolean FLIGHT_RECORDER = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+    private static volatile Listener[] listeners = new Listener[0];
+
+    private XMLMetrics(){
+    }
+
+    /**
+     * Listener of the measurements of the documents that are parsed and serialised.
+     * Both methods do nothing by default, so a listener can implement only one of them.
+     */
+    public interface Listener {
+        /**
+         * Called after a document has been parsed.
+         *
+         * @param metrics are the measurements of the parse
+         */
+        default void parsed(ParseMetrics metrics){
+        }
+
+        /**
+         * Called after a tree has been serialised.
+         *
+         * @param metrics are the measurements of the serialisation
+         */
+        default void serialized(SerializationMetrics metrics){
+        }
+    }
+
+    /**
+     * Registers a listener, which is called for the documents parsed or serialised by any thread.
+     *
+     * @param listener is the listener
+     */
+    public static synchronized void addListener(Listener listener){
+        Listener[] updated = Arrays.copyOf(listeners,listeners.length+1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Removes a listener, if it's registered.
+     *
+     * @param listener is the listener
+     */
+    public static synchronized void removeListener(Listener listener){
+        for(int i=0;i<listeners.length;i++){
+            if(listeners[i]==listener){
+                Listener[] updated = new Listener[listeners.length-1];
+                System.arraycopy(listeners,0,updated,0,i);
+                System.arraycopy(listeners,i+1,updated,i,updated.length-i);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    static boolean isParseEnabled(){
+        return listeners.length>0 || (FLIGHT_RECORDER && FlightEvents.isParseEnabled());
+    }
+
+    static boolean isSerializationEnabled(){
+        return listeners.length>0 || (FLIGHT_RECORDER && FlightEvents.isSerializationEnabled());
+    }
+
+    /*
+    Returns the Flight Recorder event of a parse that is starting, or null if the events are not recorded.
+     */
+    static Object beginParse(){
+        return FLIGHT_RECORDER ? FlightEvents.beginParse() : null;
+    }
+
+    static Object beginSerialization(){
+        return FLIGHT_RECORDER ? FlightEvents.beginSerialization() : null;
+    }
+
+    static void parsed(Object event, ParseMetrics metrics){
+        if(event!=null){
+            FlightEvents.commit(event,metrics);
+        }
+        for(Listener listener : listeners){
+            listener.parsed(metrics);
+        }
+    }
+
+    static void serialized(Object event, SerializationMetrics metrics){
+        if(event!=null){
+            FlightEvents.commit(event,metrics);
+        }
+        for(Listener listener : listeners){
+            listener.serialized(metrics);
+        }
+    }
+
+    /**
+     * The measurements of a parse.
+     */
+    public static final class ParseMetrics {
+        private final XMLTreeBuilder.Engine engine;
+        private final long bytesRead;
+        private final long charactersRead;
+        private final long elementCount;
+        private final long attributeCount;
+        private final int maxDepth;
+        private final long duration;
+        private final long domParseDuration;
+        private final long conversionDuration;
+
+        ParseMetrics(XMLTreeBuilder.Engine engine, long bytesRead, long charactersRead, long elementCount, long attributeCount,
+                     int maxDepth, long duration, long domParseDuration, long conversionDuration){
+            this.engine=engine;
+            this.bytesRead=bytesRead;
+            this.charactersRead=charactersRead;
+            this.elementCount=elementCount;
+            this.attributeCount=attributeCount;
+            this.maxDepth=maxDepth;
+            this.duration=duration;
+            this.domParseDuration=domParseDuration;
+            this.conversionDuration=conversionDuration;
+        }
+
+        /**
+         * Returns the engine that parsed the document.
+         *
+         * @return the parsing engine
+         */
+        public XMLTreeBuilder.Engine getEngine() {
+            return engine;
+        }
+
+        /**
+         * Returns the number of bytes read from the InputStream or the file.
+         *
+         * @return the number of bytes, or -1 if the document was read as characters
+         */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * Returns the number of characters read from the string, the CharSequence or the Reader.
+         *
+         * @return the number of characters, or -1 if the document was read as bytes
+         */
+        public long getCharactersRead() {
+            return charactersRead;
+        }
+
+        /**
+         * Returns the number of XMLElements created by the parse. With the LAZY engine, the elements that are loaded later are not included.
+         *
+         * @return the number of elements
+         */
+        public long getElementCount() {
+            return elementCount;
+        }
+
+        /**
+         * Returns the number of attributes of the XMLElements created by the parse.
+         *
+         * @return the number of attributes
+         */
+        public long getAttributeCount() {
+            return attributeCount;
+        }
+
+        /**
+         * Returns the depth of the deepest XMLElement created by the parse, where the root has depth 1.
+         *
+         * @return the maximum depth
+         */
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        /**
+         * Returns the time spent parsing the document, including the reading of the input.
+         *
+         * @return the duration in nanoseconds
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Returns the part of the duration spent by the DOM parser building its document.
+         *
+         * @return the duration in nanoseconds, or -1 if the engine is not DOM
+         */
+        public long getDomParseDuration() {
+            return domParseDuration;
+        }
+
+        /**
+         * Returns the part of the duration spent converting the DOM document into XMLElements.
+         *
+         * @return the duration in nanoseconds, or -1 if the engine is not DOM
+         */
+        public long getConversionDuration() {
+            return conversionDuration;
+        }
+
+        @Override
+        public String toString() {
+            return "ParseMetrics{engine="+engine+", bytesRead="+bytesRead+", charactersRead="+charactersRead+", elementCount="+elementCount
+                    +", attributeCount="+attributeCount+", maxDepth="+maxDepth+", duration="+duration
+                    +", domParseDuration="+domParseDuration+", conversionDuration="+conversionDuration+"}";
+        }
+    }
+
+    /**
+     * The measurements of a serialisation.
+     */
+    public static final class SerializationMetrics {
+        private final long elementCount;
+        private final long charactersWritten;
+        private final long duration;
+
+        SerializationMetrics(long elementCount, long charactersWritten, long duration){
+            this.elementCount=elementCount;
+            this.charactersWritten=charactersWritten;
+            this.duration=duration;
+        }
+
+        /**
+         * Returns the number of XMLElements written.
+         *
+         * @return the number of elements
+         */
+        public long getElementCount() {
+            return elementCount;
+        }
+
+        /**
+         * Returns the number of characters of the XML code, before they are encoded.
+         *
+         * @return the number of characters
+         */
+        public long getCharactersWritten() {
+            return charactersWritten;
+        }
+
+        /**
+         * Returns the time spent writing the XML code.
+         *
+         * @return the duration in nanoseconds
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String toString() {
+            return "SerializationMetrics{elementCount="+elementCount+", charactersWritten="+charactersWritten+", duration="+duration+"}";
+        }
+    }
+}
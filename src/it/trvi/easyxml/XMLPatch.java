@@ -0,0 +1,455 @@
+package it.trvi.easyxml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class that represents the differences between two XMLElement trees, as a list of operations that turns the first tree into the second.
+ * The operations address the elements through the indices of the children on the path from the root, and they must be applied in order:
+ * each operation refers to the tree as it is after the previous ones.
+ * <p>
+ * The children of two elements are matched through their structural hashes (see XMLElement.structuralHashCode), so the subtrees
+ * that are equal in the two trees produce no operations, even if they have moved because of insertions or removals;
+ * the children that don't match are compared recursively if they have the same tag name, otherwise they are replaced.
+ * The patch also reproduces the order of the attributes, which structuralEquals ignores: when the attributes of an element are in a different
+ * order, the ones from the first that is out of place are removed and set again, so the patched tree prints exactly as the second tree.
+ * An XMLPatch is immutable, and it keeps copies of the elements it inserts, so it can be applied any number of times.
+ */
+public final class XMLPatch {
+    //children lists longer than this are matched only at their ends, to keep the matching fast
+    private static final long MAX_MATCHING_CELLS = 1<<22;
+
+    private final List<Operation> operations;
+
+    private XMLPatch(List<Operation> operations){
+        this.operations=Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * The types of the operations of an XMLPatch.
+     */
+    public enum Type {
+        /**
+         * Replaces the element at the path with a copy of getElement().
+         */
+        REPLACE,
+        /**
+         * Sets the text content of the element at the path to getValue().
+         */
+        SET_TEXT,
+        /**
+         * Sets the attribute getName() of the element at the path to getValue().
+         */
+        SET_ATTRIBUTE,
+        /**
+         * Removes the attribute getName() of the element at the path.
+         */
+        REMOVE_ATTRIBUTE,
+        /**
+         * Inserts a copy of getElement() at the position getIndex() among the children of the element at the path.
+         */
+        INSERT_CHILD,
+        /**
+         * Removes the child at the position getIndex() of the element at the path.
+         */
+        REMOVE_CHILD
+    }
+
+    /**
+     * A single operation of an XMLPatch.
+     */
+    public static final class Operation {
+        private final Type type;
+        private final int[] path;
+        private final int index;
+        private final String name;
+        private final String value;
+        private final XMLElement element;
+
+        private Operation(Type type, int[] path, int index, String name, String value, XMLElement element){
+            this.type=type;
+            this.path=path;
+            this.index=index;
+            this.name=name;
+            this.value=value;
+            this.element=element;
+        }
+
+        /**
+         * Returns the type of this operation.
+         *
+         * @return the type of this operation
+         */
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Returns the path of the element changed by this operation: the indices of the children that lead to it from the root.
+         *
+         * @return a copy of the path, empty for the root
+         */
+        public int[] getPath() {
+            return path.clone();
+        }
+
+        /**
+         * Returns the position of the child that is inserted or removed, -1 for the other types.
+         *
+         * @return the position of the child
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the name of the attribute that is set or removed, null for the other types.
+         *
+         * @return the name of the attribute
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the new text content or the new value of the attribute, null for the other types.
+         *
+         * @return the new text or value
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Returns a copy of the element that is inserted or that replaces another one, null for the other types.
+         *
+         * @return a copy of the new element
+         */
+        public XMLElement getElement() {
+            return element==null ? null : (XMLElement) element.clone();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(type.name()).append(' ').append(Arrays.toString(path));
+            if(index>=0){
+                builder.append(' ').append(index);
+            }
+            if(name!=null){
+                builder.append(' ').append(name);
+            }
+            if(value!=null){
+                builder.append(" \"").append(value).append('"');
+            }
+            if(element!=null){
+                builder.append(" <").append(element.getTagName()).append('>');
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Computes the operations that turn a tree into another one. Neither tree is modified.
+     *
+     * @param from is the root of the tree that the patch will be applied to
+     * @param to is the root of the tree that the patch produces
+     * @return the XMLPatch from the first tree to the second
+     */
+    public static XMLPatch diff(XMLElement from, XMLElement to){
+        ArrayList<Operation> operations = new ArrayList<>();
+        new Differ(operations).diff(from,to,new int[0]);
+        return new XMLPatch(operations);
+    }
+
+    /**
+     * Applies the operations of this patch to a tree, which must be equal to the one the patch was computed from.
+     * The tree is modified in place, except when its root is replaced: then the new root is returned.
+     * If the tree doesn't match the patch, the operations that have already been applied are not undone.
+     *
+     * @param root is the root of the tree
+     * @return the root of the patched tree, which is root unless the patch replaces it
+     * @throws IllegalArgumentException if an operation refers to an element that doesn't exist
+     */
+    public XMLElement apply(XMLElement root) throws IllegalArgumentException{
+        for(Operation operation : operations){
+            XMLElement target = root;
+            try{
+                for(int i : operation.path){
+                    target = target.getChildAt(i);
+                }
+                switch (operation.type){
+                    case REPLACE:
+                        XMLElement replacement = (XMLElement) operation.element.clone();
+                        if(operation.path.length==0){
+                            root = replacement;
+                        }else{
+                            XMLElement parent = target.getParent();
+                            int position = operation.path[operation.path.length-1];
+                            parent.removeChild(position);
+                            parent.addChild(position,replacement);
+                        }
+                        break;
+                    case SET_TEXT:
+                        target.setTextContent(operation.value);
+                        break;
+                    case SET_ATTRIBUTE:
+                        target.addAttribute(operation.name,operation.value);
+                        break;
+                    case REMOVE_ATTRIBUTE:
+                        target.removeAttributeByName(operation.name);
+                        break;
+                    case INSERT_CHILD:
+                        target.addChild(operation.index,(XMLElement) operation.element.clone());
+                        break;
+                    case REMOVE_CHILD:
+                        target.removeChild(operation.index);
+                        break;
+                }
+            }catch (IndexOutOfBoundsException e){
+                throw new IllegalArgumentException("The operation "+operation+" doesn't apply to this tree.");
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Returns the operations of this patch, in the order in which they are applied.
+     *
+     * @return an unmodifiable list of the operations
+     */
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Returns the number of operations of this patch.
+     *
+     * @return the number of operations
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * Returns true if the two trees are equal, with the attributes in the same order, so the patch has no operations.
+     *
+     * @return true if this patch has no operations, false otherwise
+     */
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * Returns the operations of this patch, one per line.
+     *
+     * @return the text representation of this patch
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for(Operation operation : operations){
+            builder.append(operation).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static final class Differ {
+        private final ArrayList<Operation> operations;
+
+        Differ(ArrayList<Operation> operations){
+            this.operations=operations;
+        }
+
+        void diff(XMLElement from, XMLElement to, int[] path){
+            if(!from.getTagName().equals(to.getTagName())){
+                operations.add(new Operation(Type.REPLACE,path,-1,null,null,(XMLElement) to.clone()));
+                return;
+            }
+            if(from.structuralEquals(to) && sameAttributeOrder(from,to)){
+                return;
+            }
+            if(!from.getTextContent().equals(to.getTextContent())){
+                operations.add(new Operation(Type.SET_TEXT,path,-1,null,to.getTextContent(),null));
+            }
+            diffAttributes(from.getLoadedAttributes(),to.getLoadedAttributes(),path);
+            diffChildren(from,to,path);
+        }
+
+        /*
+        Turns the attributes of from into the ones of to, in the same order. Setting an attribute keeps its position, and a new one
+        is added at the end, so the attributes of from that are in to keep their place only as long as they are in the order of to:
+        from the first one that is out of order, the attributes are removed and set again in the order of to.
+         */
+        private void diffAttributes(Map<String, String> fromAttributes, Map<String, String> toAttributes, int[] path){
+            if(fromAttributes==null){
+                fromAttributes = Collections.emptyMap();
+            }
+            if(toAttributes==null){
+                toAttributes = Collections.emptyMap();
+            }
+            ArrayList<String> kept = new ArrayList<>();
+            for(String name : fromAttributes.keySet()){
+                if(toAttributes.containsKey(name)){
+                    kept.add(name);
+                }else{
+                    operations.add(new Operation(Type.REMOVE_ATTRIBUTE,path,-1,name,null,null));
+                }
+            }
+            //the kept attributes that are already in the order of to
+            int inOrder = 0;
+            for(String name : toAttributes.keySet()){
+                if(inOrder==kept.size() || !kept.get(inOrder).equals(name)){
+                    break;
+                }
+                inOrder++;
+            }
+            for(int i=inOrder;i<kept.size();i++){
+                operations.add(new Operation(Type.REMOVE_ATTRIBUTE,path,-1,kept.get(i),null,null));
+            }
+            int position = 0;
+            for(Map.Entry<String, String> attribute : toAttributes.entrySet()){
+                if(position++>=inOrder || !attribute.getValue().equals(fromAttributes.get(attribute.getKey()))){
+                    operations.add(new Operation(Type.SET_ATTRIBUTE,path,-1,attribute.getKey(),attribute.getValue(),null));
+                }
+            }
+        }
+
+        /*
+        Returns true if the attributes of every element of two structurally equal trees are in the same order.
+         */
+        private static boolean sameAttributeOrder(XMLElement from, XMLElement to){
+            ArrayList<XMLElement> stack = new ArrayList<>();
+            stack.add(from);
+            stack.add(to);
+            XMLElement first;
+            XMLElement second;
+            while(!stack.isEmpty()){
+                second = stack.remove(stack.size()-1);
+                first = stack.remove(stack.size()-1);
+                AttributeMap firstAttributes = first.getLoadedAttributes();
+                AttributeMap secondAttributes = second.getLoadedAttributes();
+                if(firstAttributes!=null && secondAttributes!=null){
+                    //the trees are equal, so the attributes have the same names
+                    Iterator<String> names = secondAttributes.keySet().iterator();
+                    for(String name : firstAttributes.keySet()){
+                        if(!name.equals(names.next())){
+                            return false;
+                        }
+                    }
+                }
+                for(int i=0;i<first.getNumberOfChildren();i++){
+                    stack.add(first.getChildAt(i));
+                    stack.add(second.getChildAt(i));
+                }
+            }
+            return true;
+        }
+
+        /*
+        Matches the children with equal hashes through their longest common subsequence, then turns each run of unmatched children
+        of from into the corresponding run of to.
+         */
+        private void diffChildren(XMLElement from, XMLElement to, int[] path){
+            int n = from.getNumberOfChildren();
+            int m = to.getNumberOfChildren();
+            int[] a = new int[n];
+            int[] b = new int[m];
+            for(int i=0;i<n;i++){
+                a[i] = from.getChildAt(i).structuralHashCode();
+            }
+            for(int j=0;j<m;j++){
+                b[j] = to.getChildAt(j).structuralHashCode();
+            }
+            //matched pairs, as indices of from and to
+            ArrayList<int[]> matches = new ArrayList<>();
+            int prefix = 0;
+            while(prefix<n && prefix<m && a[prefix]==b[prefix]){
+                matches.add(new int[]{prefix,prefix});
+                prefix++;
+            }
+            int suffix = 0;
+            while(suffix<n-prefix && suffix<m-prefix && a[n-1-suffix]==b[m-1-suffix]){
+                suffix++;
+            }
+            if((long) (n-prefix-suffix)*(m-prefix-suffix)<=MAX_MATCHING_CELLS){
+                matches.addAll(commonSubsequence(a,prefix,n-suffix,b,prefix,m-suffix));
+            }
+            for(int k=suffix;k>0;k--){
+                matches.add(new int[]{n-k,m-k});
+            }
+            matches.add(new int[]{n,m});
+            //position in the children of the element being patched
+            int position = 0;
+            int i = 0;
+            int j = 0;
+            for(int[] match : matches){
+                //the unmatched runs before the match are paired in order
+                while(i<match[0] || j<match[1]){
+                    if(i<match[0] && j<match[1] && from.getChildAt(i).getTagName().equals(to.getChildAt(j).getTagName())){
+                        diff(from.getChildAt(i),to.getChildAt(j),childPath(path,position));
+                        i++;
+                        j++;
+                        position++;
+                    }else if(i<match[0]){
+                        operations.add(new Operation(Type.REMOVE_CHILD,path,position,null,null,null));
+                        i++;
+                    }else{
+                        operations.add(new Operation(Type.INSERT_CHILD,path,position,null,null,(XMLElement) to.getChildAt(j).clone()));
+                        j++;
+                        position++;
+                    }
+                }
+                if(i<n){
+                    //equal hashes almost always mean equal subtrees, and diff checks it
+                    diff(from.getChildAt(i),to.getChildAt(j),childPath(path,position));
+                    i++;
+                    j++;
+                    position++;
+                }
+            }
+        }
+
+        private static int[] childPath(int[] path, int position){
+            int[] child = Arrays.copyOf(path,path.length+1);
+            child[path.length] = position;
+            return child;
+        }
+
+        /*
+        Returns the pairs of a longest common subsequence of a[aStart..aEnd) and b[bStart..bEnd).
+         */
+        private static ArrayList<int[]> commonSubsequence(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd){
+            int n = aEnd-aStart;
+            int m = bEnd-bStart;
+            ArrayList<int[]> pairs = new ArrayList<>();
+            if(n==0 || m==0){
+                return pairs;
+            }
+            //lengths[i][j] is the length of the longest common subsequence of the suffixes that start at i and j
+            int[][] lengths = new int[n+1][m+1];
+            for(int i=n-1;i>=0;i--){
+                for(int j=m-1;j>=0;j--){
+                    lengths[i][j] = a[aStart+i]==b[bStart+j] ? lengths[i+1][j+1]+1 : Math.max(lengths[i+1][j],lengths[i][j+1]);
+                }
+            }
+            int i = 0;
+            int j = 0;
+            while(i<n && j<m){
+                if(a[aStart+i]==b[bStart+j]){
+                    pairs.add(new int[]{aStart+i,bStart+j});
+                    i++;
+                    j++;
+                }else if(lengths[i+1][j]>=lengths[i][j+1]){
+                    i++;
+                }else{
+                    j++;
+                }
+            }
+            return pairs;
+        }
+    }
+}
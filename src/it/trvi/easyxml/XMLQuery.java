@@ -0,0 +1,517 @@
+package it.trvi.easyxml;
+
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Class that represents a compiled path expression, which selects elements from the tree of an XMLElement.
+ * An XMLQuery is immutable, so it can be compiled once and used by many threads at the same time.
+ * <p>
+ * A path is a list of steps separated by "/" (the next step matches the children of the elements matched by the previous one)
+ * or "//" (the next step matches their descendants). Each step is a tag name, or "*" for any tag name, followed by any number of predicates:
+ * <ul>
+ * <li>[@name] the element has the attribute</li>
+ * <li>[@name='value'] and [@name!='value'] the attribute has, or doesn't have, that value</li>
+ * <li>[text()='value'] and [text()!='value'] the text content is, or isn't, that value</li>
+ * <li>[contains(@name,'value')] and [contains(text(),'value')] the attribute or the text content contains that value</li>
+ * <li>[n] and [last()] the element is the nth or the last among its siblings accepted by the step (as in XPath, "//b[1]" selects every b that is the first b child of its parent); this must be the last predicate of its step</li>
+ * </ul>
+ * A path that doesn't start with "/" is relative to the XMLElement the query is run on: "a/b" selects the b children of its a children.
+ * A path that starts with "/" starts from the XMLElement itself, as if it were the root of the document: "/r/a" selects its a children if its tag name is r.
+ * A path that starts with "//" selects the XMLElement and all its descendants that match the first step, and ".//" only its descendants.
+ * <p>
+ * The elements are returned in document order and without duplicates. They are found lazily, visiting only the parts of the tree that can match,
+ * so that first and a limit stop as soon as enough elements have been found.
+ */
+public final class XMLQuery {
+    private final String expression;
+    private final Step[] steps;
+    //true if the context element is matched by the first step, as if it were the child of a document node
+    private final boolean fromDocument;
+    //bit i-1 is set if step i uses the descendant axis
+    private final long descendantSteps;
+    //bit i is set if there is a step after step i
+    private final long continuingSteps;
+
+    private XMLQuery(String expression, Step[] steps, boolean fromDocument){
+        this.expression=expression;
+        this.steps=steps;
+        this.fromDocument=fromDocument;
+        long mask = 0;
+        for(int i=0;i<steps.length;i++){
+            if(steps[i].descendant){
+                mask |= 1L<<i;
+            }
+        }
+        this.descendantSteps=mask;
+        this.continuingSteps=(1L<<steps.length)-1;
+    }
+
+    /**
+     * Compiles a path expression into an XMLQuery.
+     *
+     * @param expression is the path expression
+     * @return the compiled XMLQuery
+     * @throws IllegalArgumentException if the expression is not valid
+     */
+    public static XMLQuery compile(String expression) throws IllegalArgumentException{
+        return new Parser(expression).parse();
+    }
+
+    /**
+     * Returns the expression from which this XMLQuery has been compiled.
+     *
+     * @return the expression of this XMLQuery
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Returns all the elements selected by this query from an XMLElement.
+     *
+     * @param element is the XMLElement on which the query is run
+     * @return an ArrayList&lt;XMLElement&gt; containing the selected elements, in document order
+     */
+    public ArrayList<XMLElement> evaluate(XMLElement element){
+        return evaluate(element,Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the first elements selected by this query from an XMLElement, up to a maximum number. The search stops as soon as enough elements have been found.
+     *
+     * @param element is the XMLElement on which the query is run
+     * @param limit is the maximum number of elements that are returned
+     * @return an ArrayList&lt;XMLElement&gt; containing at most limit selected elements, in document order
+     */
+    public ArrayList<XMLElement> evaluate(XMLElement element, int limit){
+        ArrayList<XMLElement> result = new ArrayList<>();
+        Iterator<XMLElement> iterator = iterator(element);
+        while(result.size()<limit && iterator.hasNext()){
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first element selected by this query from an XMLElement. The search stops as soon as it's found.
+     *
+     * @param element is the XMLElement on which the query is run
+     * @return the first selected XMLElement in document order, null if no element is selected
+     */
+    public XMLElement first(XMLElement element){
+        Iterator<XMLElement> iterator = iterator(element);
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    /**
+     * Returns an Iterator that finds the elements selected by this query from an XMLElement one at a time.
+     * The tree must not be modified while the iterator is in use.
+     *
+     * @param element is the XMLElement on which the query is run
+     * @return an Iterator&lt;XMLElement&gt; over the selected elements, in document order
+     */
+    public Iterator<XMLElement> iterator(XMLElement element){
+        return new Evaluation(element);
+    }
+
+    /**
+     * Returns a sequential Stream of the elements selected by this query from an XMLElement. The elements are found lazily.
+     * The tree must not be modified while the stream is in use.
+     *
+     * @param element is the XMLElement on which the query is run
+     * @return a Stream&lt;XMLElement&gt; of the selected elements, in document order
+     */
+    public Stream<XMLElement> stream(XMLElement element){
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(element),Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT),false);
+    }
+
+    /**
+     * Returns the expression from which this XMLQuery has been compiled.
+     *
+     * @return the expression of this XMLQuery
+     */
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /*
+    A step of the path: the axis, the tag name (null for any) and the predicates.
+     */
+    private static final class Step {
+        final boolean descendant;
+        final String tagName;
+        final Predicate[] predicates;
+        //0 if there is no position predicate, -1 for last(), otherwise the position starting from 1
+        final int position;
+
+        Step(boolean descendant, String tagName, Predicate[] predicates, int position){
+            this.descendant=descendant;
+            this.tagName=tagName;
+            this.predicates=predicates;
+            this.position=position;
+        }
+
+        /*
+        Tests the tag name and all the predicates, except the position.
+         */
+        boolean accepts(XMLElement element){
+            if(tagName!=null && !tagName.equals(element.getTagName())){
+                return false;
+            }
+            for(Predicate predicate : predicates){
+                if(!predicate.test(element)){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /*
+    A predicate on the attributes or on the text content of an element.
+     */
+    private static final class Predicate {
+        static final int EXISTS = 0, EQUALS = 1, NOT_EQUALS = 2, CONTAINS = 3;
+
+        //null for the text content
+        final String attribute;
+        final int operator;
+        final String value;
+
+        Predicate(String attribute, int operator, String value){
+            this.attribute=attribute;
+            this.operator=operator;
+            this.value=value;
+        }
+
+        boolean test(XMLElement element){
+            String actual;
+            if(attribute==null){
+                actual = element.getTextContent();
+            }else{
+                if(!element.hasAttribute(attribute)){
+                    return false;
+                }
+                actual = element.getAttribute(attribute);
+            }
+            switch (operator){
+                case EQUALS: return actual.equals(value);
+                case NOT_EQUALS: return !actual.equals(value);
+                case CONTAINS: return actual.contains(value);
+                default: return true;
+            }
+        }
+    }
+
+    /*
+    Depth-first visit of the tree, which keeps for each element on the stack the steps it matches.
+    An element matches step i (starting from 1) if it's accepted by the step and its parent (child axis) or one of its ancestors
+    (descendant axis) matches step i-1. The context element matches step 0. The elements that match the last step are returned.
+     */
+    private final class Evaluation implements Iterator<XMLElement> {
+        private final ArrayList<Frame> stack = new ArrayList<>();
+        private XMLElement next;
+
+        Evaluation(XMLElement element){
+            if(fromDocument){
+                //a document node whose only child is the element
+                Frame document = new Frame(null,1L,1L);
+                document.documentChild=element;
+                stack.add(document);
+                next=pushIfReachable(document,element);
+            }else{
+                stack.add(new Frame(element,1L,1L));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(next==null){
+                next=findNext();
+            }
+            return next!=null;
+        }
+
+        @Override
+        public XMLElement next() {
+            if(!hasNext()){
+                throw new NoSuchElementException("There are no more elements selected by the query.");
+            }
+            XMLElement result = next;
+            next=null;
+            return result;
+        }
+
+        private XMLElement findNext(){
+            Frame frame;
+            XMLElement result;
+            while(!stack.isEmpty()){
+                frame = stack.get(stack.size()-1);
+                if(frame.element!=null && frame.nextChild<frame.element.getNumberOfChildren()){
+                    result = pushIfReachable(frame,frame.element.getChildAt(frame.nextChild++));
+                    if(result!=null){
+                        return result;
+                    }
+                }else{
+                    stack.remove(stack.size()-1);
+                }
+            }
+            return null;
+        }
+
+        /*
+        Computes the steps matched by a child of the frame and visits it if some of its descendants can still match.
+        Returns the child if it matches the last step, null otherwise.
+         */
+        private XMLElement pushIfReachable(Frame parent, XMLElement child){
+            long matched = 0;
+            for(int i=1;i<=steps.length;i++){
+                if(matchesStep(parent,child,i)){
+                    matched |= 1L<<i;
+                }
+            }
+            long inherited = parent.inherited | matched;
+            //the children can match a step only if this element matches the previous one or an ancestor-or-self matches the step before a descendant step
+            if((matched & continuingSteps)!=0 || (inherited & descendantSteps)!=0){
+                if(child.getNumberOfChildren()>0){
+                    stack.add(new Frame(child,matched,inherited));
+                }
+            }
+            return (matched & (1L<<steps.length))!=0 ? child : null;
+        }
+
+        private boolean matchesStep(Frame parent, XMLElement child, int i){
+            Step step = steps[i-1];
+            long previous = 1L<<(i-1);
+            if(step.descendant ? (parent.inherited & previous)==0 : (parent.matched & previous)==0){
+                return false;
+            }
+            if(!step.accepts(child)){
+                return false;
+            }
+            return step.position==0 || parent.hasPosition(i,step);
+        }
+    }
+
+    /*
+    An element that is being visited, with the steps it matches and the positions of its children accepted by each step.
+     */
+    private final class Frame {
+        final XMLElement element;
+        final long matched;
+        final long inherited;
+        //the context element, when this frame is the document node
+        XMLElement documentChild;
+        int nextChild;
+        //for each step, the number of the elements accepted so far and the total number of accepted elements (only for last())
+        int[] counts;
+        int[] totals;
+
+        Frame(XMLElement element, long matched, long inherited){
+            this.element=element;
+            this.matched=matched;
+            this.inherited=inherited;
+        }
+
+        /*
+        Counts a child accepted by step i and checks its position.
+         */
+        boolean hasPosition(int i, Step step){
+            if(counts==null){
+                counts = new int[steps.length+1];
+            }
+            int position = ++counts[i];
+            if(step.position>0){
+                return position==step.position;
+            }
+            if(totals==null){
+                totals = new int[steps.length+1];
+                Arrays.fill(totals,-1);
+            }
+            if(totals[i]<0){
+                totals[i] = countAccepted(step);
+            }
+            return position==totals[i];
+        }
+
+        private int countAccepted(Step step){
+            if(element==null){
+                return step.accepts(documentChild) ? 1 : 0;
+            }
+            int count = 0;
+            for(int i=0;i<element.getNumberOfChildren();i++){
+                if(step.accepts(element.getChildAt(i))){
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /*
+    Recursive descent parser of path expressions.
+     */
+    private static final class Parser {
+        private final String expression;
+        private int position;
+
+        Parser(String expression){
+            this.expression=expression;
+        }
+
+        XMLQuery parse(){
+            ArrayList<Step> steps = new ArrayList<>();
+            boolean fromDocument = false;
+            boolean descendant;
+            if(expression.startsWith(".//")){
+                position = 3;
+                descendant = true;
+            }else if(expression.startsWith("//")){
+                position = 2;
+                descendant = true;
+                fromDocument = true;
+            }else if(expression.startsWith("/")){
+                position = 1;
+                descendant = false;
+                fromDocument = true;
+            }else{
+                descendant = false;
+            }
+            while(true){
+                steps.add(parseStep(descendant));
+                if(position==expression.length()){
+                    break;
+                }
+                expect('/');
+                descendant = consume('/');
+            }
+            if(steps.size()>=64){
+                throw error("too many steps");
+            }
+            return new XMLQuery(expression,steps.toArray(new Step[0]),fromDocument);
+        }
+
+        private Step parseStep(boolean descendant){
+            int start = position;
+            while(position<expression.length() && "/[]".indexOf(expression.charAt(position))<0){
+                position++;
+            }
+            String tagName = expression.substring(start,position).trim();
+            if(tagName.isEmpty()){
+                throw error("missing tag name");
+            }
+            ArrayList<Predicate> predicates = new ArrayList<>();
+            int stepPosition = 0;
+            while(consume('[')){
+                if(stepPosition!=0){
+                    throw error("the position must be the last predicate of a step");
+                }
+                skipSpaces();
+                if(position<expression.length() && Character.isDigit(expression.charAt(position))){
+                    start = position;
+                    while(position<expression.length() && Character.isDigit(expression.charAt(position))){
+                        position++;
+                    }
+                    stepPosition = Integer.parseInt(expression.substring(start,position));
+                    if(stepPosition==0){
+                        throw error("positions start from 1");
+                    }
+                }else if(consumeWord("last()")){
+                    stepPosition = -1;
+                }else if(consumeWord("contains(")){
+                    String attribute = parseOperand();
+                    skipSpaces();
+                    expect(',');
+                    String value = parseLiteral();
+                    skipSpaces();
+                    expect(')');
+                    predicates.add(new Predicate(attribute,Predicate.CONTAINS,value));
+                }else{
+                    String attribute = parseOperand();
+                    skipSpaces();
+                    if(consumeWord("!=")){
+                        predicates.add(new Predicate(attribute,Predicate.NOT_EQUALS,parseLiteral()));
+                    }else if(consumeWord("=")){
+                        predicates.add(new Predicate(attribute,Predicate.EQUALS,parseLiteral()));
+                    }else if(attribute!=null){
+                        predicates.add(new Predicate(attribute,Predicate.EXISTS,null));
+                    }else{
+                        throw error("text() must be compared to a value");
+                    }
+                }
+                skipSpaces();
+                expect(']');
+            }
+            return new Step(descendant,tagName.equals("*") ? null : tagName,predicates.toArray(new Predicate[0]),stepPosition);
+        }
+
+        /*
+        Parses "@name" or "text()", returning the attribute name or null for the text content.
+         */
+        private String parseOperand(){
+            skipSpaces();
+            if(consumeWord("text()")){
+                return null;
+            }
+            expect('@');
+            int start = position;
+            while(position<expression.length() && "=!,)] ".indexOf(expression.charAt(position))<0){
+                position++;
+            }
+            if(start==position){
+                throw error("missing attribute name");
+            }
+            return expression.substring(start,position);
+        }
+
+        private String parseLiteral(){
+            skipSpaces();
+            if(position==expression.length() || (expression.charAt(position)!='\'' && expression.charAt(position)!='"')){
+                throw error("expected a quoted value");
+            }
+            char quote = expression.charAt(position++);
+            int end = expression.indexOf(quote,position);
+            if(end<0){
+                throw error("unterminated value");
+            }
+            String value = expression.substring(position,end);
+            position = end+1;
+            return value;
+        }
+
+        private void skipSpaces(){
+            while(position<expression.length() && expression.charAt(position)==' '){
+                position++;
+            }
+        }
+
+        private boolean consume(char c){
+            if(position<expression.length() && expression.charAt(position)==c){
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean consumeWord(String word){
+            if(expression.startsWith(word,position)){
+                position += word.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c){
+            if(!consume(c)){
+                throw error("expected '"+c+"'");
+            }
+        }
+
+        private IllegalArgumentException error(String message){
+            return new IllegalArgumentException("Invalid query \""+expression+"\" at position "+position+": "+message+".");
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package it.trvi.easyxml;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Rewrites XML documents of any size while it reads them, without building their whole tree.
+ * The document is read as a stream, and only the elements that match the path of a rule are built as XMLElements, with all their descendants,
+ * and passed to the rule, which can modify them, replace them or remove them. Everything else is written to the output as soon as it's read.
+ * So the memory used is bounded by the largest element that matches a rule, and not by the size of the document.
+ * The paths have the same syntax as in XMLElementIterator: a tag name matches the elements with that tag name at any depth,
+ * while a list of tag names separated by "/" (like "root/record") matches the elements found by following it from the root.
+ * A path that begins with "/" (like "/root") is always followed from the root. "*" matches any tag name.
+ * <p>
+ * The output has the same format of XMLElement.toString, as if the whole document was parsed, transformed and written:
+ * comments, processing instructions and CDATA sections are dropped and the text is trimmed line by line, like the parsers of XMLTreeBuilder do.
+ * The only difference is with the elements that aren't passed to a rule and whose text follows one of their children: toString writes
+ * the whole text before the children, while XMLTransformer, which has already written the children, writes each part of the text where it is.
+ * Parsing the output gives the same tree in both cases.
+ * <p>
+ * An XMLTransformer can be used by several threads at the same time, as long as no rules are added while it's in use.
+ */
+public class XMLTransformer {
+    private final ArrayList<ElementRule> elementRules = new ArrayList<>();
+    private final ArrayList<StartTagRule> startTagRules = new ArrayList<>();
+    private final ThreadLocal<XMLInputFactory> inputFactories = ThreadLocal.withInitial(StAXTreeBuilder::newFactory);
+    private volatile String tabulationCharacters = "\t";
+
+    /**
+     * Adds a rule that receives each element that matches a path, with all its descendants, and returns the element that must be written
+     * in its place: the same element, possibly modified, another element, or null if the element must be removed.
+     * An element is passed only to the first rule that matches it, and the elements inside it are not matched by other rules.
+     *
+     * @param elementPath is the tag name or the path of the elements that are passed to the rule
+     * @param rule is the rule
+     * @throws IllegalArgumentException if elementPath is empty
+     */
+    public void addRule(String elementPath, UnaryOperator<XMLElement> rule) throws IllegalArgumentException{
+        elementRules.add(new ElementRule(new ElementPath(elementPath),rule));
+    }
+
+    /**
+     * Adds a rule that receives each element that matches a path, but only with its tag name and its attributes, so that it can change
+     * the attributes of an element without the element being built. The text content and the children of the element are then read and
+     * written as usual, and they can be matched by other rules. A rule that receives the whole element (see addRule) takes precedence.
+     *
+     * @param elementPath is the tag name or the path of the elements that are passed to the rule
+     * @param rule is the rule
+     * @throws IllegalArgumentException if elementPath is empty
+     */
+    public void addStartTagRule(String elementPath, Consumer<XMLElement> rule) throws IllegalArgumentException{
+        startTagRules.add(new StartTagRule(new ElementPath(elementPath),rule));
+    }
+
+    /**
+     * Sets the tabulation used to indent the output, which is a tab by default, as in XMLElement.toString().
+     *
+     * @param tabulationCharacters is the tabulation that will be used
+     */
+    public void setTabulationCharacters(String tabulationCharacters) {
+        this.tabulationCharacters = tabulationCharacters;
+    }
+
+    /**
+     * Transforms the document contained in a file and writes the result to another file, encoded with the specified charset.
+     * The output file is created, or replaced if it exists.
+     *
+     * @param input is the path of the file that is read
+     * @param output is the path of the file that is written
+     * @param charset is the charset used to encode the output
+     * @return the number of elements that have been passed to the rules
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if there's an error while reading or writing the files
+     */
+    public long transform(Path input, Path output, Charset charset) throws ParseException, IOException {
+        try(OutputStream stream = Files.newOutputStream(output)){
+            return transform(XMLTreeBuilder.openPath(input),stream,charset);
+        }
+    }
+
+    /**
+     * Transforms the document read from an InputStream and writes the result to an OutputStream, encoded with the specified charset.
+     * The InputStream is closed once the reading is over, while the OutputStream is flushed but not closed.
+     *
+     * @param input is the InputStream from which the document is read
+     * @param output is the OutputStream to which the result is written
+     * @param charset is the charset used to encode the output
+     * @return the number of elements that have been passed to the rules
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if there's an error while reading from the InputStream or writing to the OutputStream
+     */
+    public long transform(InputStream input, OutputStream output, Charset charset) throws ParseException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output,charset));
+        long matched = transform(input,writer);
+        writer.flush();
+        return matched;
+    }
+
+    /**
+     * Transforms the document read from an InputStream and writes the result to a Writer.
+     * If there's an error in the XML code, the output written until then is left as it is.
+     * The InputStream is closed once the reading is over, while the Writer is neither flushed nor closed.
+     *
+     * @param input is the InputStream from which the document is read
+     * @param output is the Writer to which the result is written
+     * @return the number of elements that have been passed to the rules
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if there's an error while reading from the InputStream or writing to the Writer
+     */
+    public long transform(InputStream input, Writer output) throws ParseException, IOException {
+        try(InputStream stream = input){
+            XMLStreamReader reader = inputFactories.get().createXMLStreamReader(stream);
+            try{
+                return new Pass(reader,output).run();
+            }finally {
+                reader.close();
+            }
+        }catch (XMLStreamException e){
+            throw StAXTreeBuilder.toParseException(e);
+        }
+    }
+
+    /*
+    A single transformation of a document. The elements that aren't built are kept in a stack, each with only its tag name, its attributes
+    and the text that hasn't been written yet.
+     */
+    private final class Pass {
+        private final XMLStreamReader reader;
+        private final Writer writer;
+        private final String tabulationCharacters = XMLTransformer.this.tabulationCharacters;
+        private final NameTable names = new NameTable();
+        private final ArrayList<String> openTags = new ArrayList<>();
+        private final ArrayList<XMLElement> openElements = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private long matched;
+
+        Pass(XMLStreamReader reader, Writer writer){
+            this.reader=reader;
+            this.writer=writer;
+        }
+
+        long run() throws XMLStreamException, IOException {
+            int event;
+            while(reader.hasNext()){
+                event = reader.next();
+                if(event==XMLStreamConstants.CHARACTERS || event==XMLStreamConstants.SPACE){
+                    if(!openElements.isEmpty()){
+                        text.append(reader.getTextCharacters(),reader.getTextStart(),reader.getTextLength());
+                    }
+                    continue;
+                }
+                //any other event ends the current text node, as in StAXTreeBuilder
+                if(!openElements.isEmpty()){
+                    StAXTreeBuilder.flushText(openElements.get(openElements.size()-1),text);
+                }
+                if(event==XMLStreamConstants.START_ELEMENT){
+                    startElement();
+                }else if(event==XMLStreamConstants.END_ELEMENT){
+                    int depth = openElements.size()-1;
+                    XMLElement element = openElements.remove(depth);
+                    openTags.remove(depth);
+                    element.writeText(writer,tabulationCharacters,depth);
+                    element.writeEndTag(writer,tabulationCharacters,depth);
+                }
+            }
+            return matched;
+        }
+
+        private void startElement() throws XMLStreamException, IOException {
+            int depth = openElements.size();
+            openTags.add(reader.getLocalName());
+            for(ElementRule rule : elementRules){
+                if(rule.path.matches(openTags)){
+                    openTags.remove(depth);
+                    matched++;
+                    XMLElement result = rule.rule.apply(StAXTreeBuilder.buildElement(reader,names,null));
+                    if(result!=null){
+                        startChild(depth);
+                        result.writeElement(writer,tabulationCharacters,depth);
+                    }
+                    return;
+                }
+            }
+            XMLElement element = StAXTreeBuilder.startElement(reader,names,null);
+            for(StartTagRule rule : startTagRules){
+                if(rule.path.matches(openTags)){
+                    matched++;
+                    rule.rule.accept(element);
+                }
+            }
+            startChild(depth);
+            element.writeStartTag(writer);
+            openElements.add(element);
+        }
+
+        /*
+        Writes the text of the parent that precedes the child, then starts the line of the child.
+        The text is kept if a child is removed, so that it joins the text that follows it, as in the tree.
+         */
+        private void startChild(int depth) throws IOException {
+            if(depth==0){
+                return;
+            }
+            XMLElement parent = openElements.get(depth-1);
+            parent.writeText(writer,tabulationCharacters,depth-1);
+            parent.setTextContent("");
+            writer.write('\n');
+            XMLElement.writeIndentation(writer,tabulationCharacters,depth);
+        }
+    }
+
+    private static final class ElementRule {
+        private final ElementPath path;
+        private final UnaryOperator<XMLElement> rule;
+
+        ElementRule(ElementPath path, UnaryOperator<XMLElement> rule){
+            this.path=path;
+            this.rule=rule;
+        }
+    }
+
+    private static final class StartTagRule {
+        private final ElementPath path;
+        private final Consumer<XMLElement> rule;
+
+        StartTagRule(ElementPath path, Consumer<XMLElement> rule){
+            this.path=path;
+            this.rule=rule;
+        }
+    }
+}
@@ -1,19 +1,112 @@
 package it.trvi.easyxml;
 
 import org.w3c.dom.*;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 /**
  * Class that provides functions to parse XML code into an XMLElement.
+ * The static functions are the simplest way to parse a document. An instance of XMLTreeBuilder instead keeps its
+ * parsers and reuses them for the following documents, which is faster when many documents must be parsed.
+ * An instance can be shared among threads: each thread gets its own parsers.
  */
 public class XMLTreeBuilder {
 
+    /**
+     * The parsing engines that can be used to build an XMLElement.
+     */
+    public enum Engine {
+        /**
+         * Parses the whole input into a DOM document, then copies it into an XMLElement.
+         * The DOM reports the attributes of an element sorted by name, so they are added in that order, and not in document order as with the other engines.
+         */
+        DOM,
+        /**
+         * Builds the XMLElement directly from the StAX event stream, without an intermediate DOM document.
+         * The attributes are added in document order.
+         */
+        STAX,
+        /**
+         * Reads the whole input in memory and records only the extent of each element, checking that the tags are balanced.
+         * The attributes, the text content and the children of an element are parsed the first time one of them is accessed,
+         * so the time and the memory spent on the parts of the document that are never accessed are saved.
+         * An error in the content of an element is thrown, as a RuntimeException caused by a ParseException, when the element is accessed.
+         * Documents with a DOCTYPE are parsed with the STAX engine.
+         */
+        LAZY
+    }
+
+    private static final XMLTreeBuilder DOM_BUILDER = new XMLTreeBuilder(Engine.DOM);
+    private static final XMLTreeBuilder STAX_BUILDER = new XMLTreeBuilder(Engine.STAX);
+    private static final XMLTreeBuilder LAZY_BUILDER = new XMLTreeBuilder(Engine.LAZY);
+
+    private final Engine engine;
+    private final ThreadLocal<DocumentBuilder> documentBuilders;
+    private final ThreadLocal<XMLInputFactory> inputFactories;
+    private volatile boolean tagIndexing;
+
+    /**
+     * Constructor for an XMLTreeBuilder that uses the DOM engine.
+     */
+    public XMLTreeBuilder(){
+        this(Engine.DOM);
+    }
+
+    /**
+     * Constructor for an XMLTreeBuilder that uses the specified engine.
+     *
+     * @param engine is the parsing engine that will be used
+     */
+    public XMLTreeBuilder(Engine engine){
+        this.engine=engine;
+        documentBuilders=new ThreadLocal<>();
+        inputFactories=ThreadLocal.withInitial(StAXTreeBuilder::newFactory);
+    }
+
+    /**
+     * Returns the parsing engine used by this XMLTreeBuilder.
+     *
+     * @return the parsing engine used by this XMLTreeBuilder
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets whether the XMLElements returned by this XMLTreeBuilder have a tag index, which is built while parsing (see XMLElement.enableTagIndex).
+     * By default, no index is built.
+     *
+     * @param tagIndexing is true if an index of the tag names must be built while parsing, false otherwise
+     */
+    public void setTagIndexing(boolean tagIndexing) {
+        this.tagIndexing = tagIndexing;
+    }
+
+    /**
+     * Returns true if the XMLElements returned by this XMLTreeBuilder have a tag index.
+     *
+     * @return true if an index of the tag names is built while parsing, false otherwise
+     */
+    public boolean isTagIndexing() {
+        return tagIndexing;
+    }
+
     /**
      * Parses into an XMLElement the XML code contained in a string.
      *
@@ -21,9 +114,32 @@ public class XMLTreeBuilder {
      * @return the parsed XMLElement containing the whole XML tree
      * @throws ParseException if there's an error in the XML code
      */
-    public static XMLElement buildFromString(String string) throws ParseException {
+    public XMLElement parseString(String string) throws ParseException {
+        return parseCharSequence(string);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a CharSequence.
+     * The characters are read directly, without being encoded into bytes, so the encoding declared by the XML code is ignored.
+     *
+     * @param characters contains the XML code
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     */
+    public XMLElement parseCharSequence(CharSequence characters) throws ParseException {
+        if(engine==Engine.LAZY){
+            if(!XMLMetrics.isParseEnabled()){
+                return parseLazily(characters.toString());
+            }
+            MetricsRecorder recorder = MetricsRecorder.startParse(engine);
+            recorder.setCharactersRead(characters.length());
+            XMLElement root = parseLazily(characters.toString());
+            recorder.parsed(root);
+            return root;
+        }
+        Reader reader = characters instanceof String ? new StringReader((String) characters) : new CharSequenceReader(characters);
         try{
-            return buildFromStream(new ByteArrayInputStream(string.getBytes()));
+            return parseReader(reader);
         } catch (IOException e){
             throw new RuntimeException(e);
         }
@@ -37,12 +153,10 @@ public class XMLTreeBuilder {
      * @throws ParseException if there's an error in the XML code
      * @throws FileNotFoundException if the file in the specified path does not exist
      */
-    public static XMLElement buildFromFile(String path) throws FileNotFoundException, ParseException {
-        File file = new File(path);
-        return buildFromFile(file);
+    public XMLElement parseFile(String path) throws FileNotFoundException, ParseException {
+        return parseFile(new File(path));
     }
 
-
     /**
      * Parses into an XMLElement the XML code contained in a file.
      *
@@ -51,74 +165,805 @@ public class XMLTreeBuilder {
      * @throws ParseException if there's an error in the XML code
      * @throws FileNotFoundException if the file does not exist
      */
-    public static XMLElement buildFromFile(File file) throws FileNotFoundException, ParseException {
+    public XMLElement parseFile(File file) throws FileNotFoundException, ParseException {
         try{
-            return buildFromStream(new FileInputStream(file));
-        } catch (FileNotFoundException e){
-            throw e;
+            return parsePath(file.toPath());
         } catch (IOException e){
-            throw new RuntimeException(e);
+            throw fileNotFound(e);
         }
     }
 
-
+    /**
+     * Parses into an XMLElement the XML code contained in a file.
+     * Files of 1 MiB or more are read through memory mapping, which avoids copying them through an intermediate buffer.
+     * The encoding is detected from the byte order mark or from the XML declaration, and it's UTF-8 if there's neither.
+     *
+     * @param path is the path of the file
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if the file can't be read
+     */
+    public XMLElement parsePath(Path path) throws ParseException, IOException {
+        return parseStream(openPath(path));
+    }
 
     /**
      * Parses into an XMLElement the XML code read from an InputStream.
+     * The InputStream is closed once the parsing is over.
      *
      * @param stream is the InputStream
      * @return the parsed XMLElement containing the whole XML tree
      * @throws ParseException if there's an error in the XML code
      * @throws IOException if there's an error while reading from the InputStream
      */
-    public static XMLElement buildFromStream(InputStream stream) throws ParseException, IOException {
+    public XMLElement parseStream(InputStream stream) throws ParseException, IOException {
+        return parseSource(new InputSource(stream));
+    }
+
+    /**
+     * Parses into an XMLElement the XML code read from a Reader.
+     * The characters are read directly, without being encoded into bytes, so the encoding declared by the XML code is ignored.
+     * The Reader is closed once the parsing is over.
+     *
+     * @param reader is the Reader
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if there's an error while reading from the Reader
+     */
+    public XMLElement parseReader(Reader reader) throws ParseException, IOException {
+        return parseSource(new InputSource(reader));
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a string, splitting the work among the threads of the common ForkJoinPool.
+     * See parseStringParallel(String, Executor).
+     *
+     * @param string contains the XML code
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     */
+    public XMLElement parseStringParallel(String string) throws ParseException {
+        return parseStringParallel(string,ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a string, splitting the work among the threads of an executor.
+     * The document is split between the children of the root element, which are parsed in groups on different threads and then
+     * attached to the root in document order, so this is useful for large documents whose root has many children.
+     * The result is the same as the one of parseString. Documents that are small, that have a DOCTYPE or that contain an error
+     * are parsed sequentially on the calling thread, and so are all the documents if the engine is LAZY or if there's a single processor.
+     *
+     * @param string contains the XML code
+     * @param executor is the executor that parses the groups of children
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     */
+    public XMLElement parseStringParallel(String string, Executor executor) throws ParseException {
+        if(engine!=Engine.LAZY){
+            MetricsRecorder recorder = XMLMetrics.isParseEnabled() ? MetricsRecorder.startParse(engine) : null;
+            XMLElement root = ParallelTreeBuilder.build(this,string,executor);
+            if(root!=null){
+                if(tagIndexing){
+                    setInvalidTagIndex(root);
+                }
+                if(recorder!=null){
+                    recorder.setCharactersRead(string.length());
+                    recorder.parsed(root);
+                }
+                return root;
+            }
+        }
+        return parseString(string);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a file, splitting the work among the threads of the common ForkJoinPool.
+     * See parseStringParallel(String, Executor).
+     *
+     * @param file is the file
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public XMLElement parseFileParallel(File file) throws FileNotFoundException, ParseException {
+        return parseFileParallel(file,ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a file, splitting the work among the threads of an executor.
+     * The whole file is read in memory and decoded as in parsePath, then it's parsed as in parseStringParallel(String, Executor).
+     *
+     * @param file is the file
+     * @param executor is the executor that parses the groups of children
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public XMLElement parseFileParallel(File file, Executor executor) throws FileNotFoundException, ParseException {
+        String text;
+        try{
+            text = readText(new InputSource(openPath(file.toPath())));
+        } catch (IOException e){
+            throw fileNotFound(e);
+        }
+        return parseStringParallel(text,executor);
+    }
+
+    /*
+    Parses a part of a document for ParallelTreeBuilder, without building the tag index.
+     */
+    XMLElement parseFragment(Reader reader) throws ParseException, IOException {
+        return parseSource(new InputSource(reader),false,null);
+    }
+
+    private XMLElement parseSource(InputSource source) throws ParseException, IOException {
+        if(!XMLMetrics.isParseEnabled()){
+            return parseSource(source,tagIndexing,null);
+        }
+        MetricsRecorder recorder = MetricsRecorder.startParse(engine);
+        XMLElement root = parseSource(recorder.count(source),tagIndexing,recorder);
+        recorder.parsed(root);
+        return root;
+    }
+
+    /*
+    Parses the byte stream or the character stream of the source with the engine of this XMLTreeBuilder, and closes it.
+    If recorder is not null, the DOM engine records in it the end of the DOM parse and of the conversion.
+     */
+    private XMLElement parseSource(InputSource source, boolean tagIndexing, MetricsRecorder recorder) throws ParseException, IOException {
+        if(engine==Engine.LAZY){
+            return parseLazily(readText(source));
+        }
+        if(engine==Engine.STAX){
+            return StAXTreeBuilder.build(inputFactories.get(),source,tagIndexing);
+        }
+        DocumentBuilder builder = getDocumentBuilder();
         Document document;
         try{
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            document = builder.parse(stream);
-        }catch (SAXException | ParserConfigurationException e){
+            document = builder.parse(source);
+        }catch (SAXException | CharConversionException e){
+            //a CharConversionException is thrown for the bytes that are not valid in the encoding of the document
             throw new ParseException(e.getLocalizedMessage(),-1);
+        }finally {
+            //the builder must not keep a reference to the document
+            builder.reset();
         }
 
         document.getDocumentElement().normalize();
+        if(recorder!=null){
+            recorder.domParsed();
+        }
 
         Element root = document.getDocumentElement();
 
-        return buildFromElement(root);
+        TagIndex index = tagIndexing ? new TagIndex() : null;
+        XMLElement result = buildFromElement(root,new NameTable(),index);
+        result.setTagIndex(index);
+        if(recorder!=null){
+            recorder.converted();
+        }
+        return result;
+    }
+
+    /**
+     * Starts reading the XML code from an InputStream and returns an iterator over the elements that match a path.
+     * Only the element that is being returned is kept in memory, so documents of any size can be read. See XMLElementIterator for the syntax of the path.
+     * The StAX parser is always used, independently of the engine of this XMLTreeBuilder.
+     *
+     * @param stream is the InputStream
+     * @param elementPath is the tag name or the path of the elements that must be returned
+     * @return an XMLElementIterator over the elements that match elementPath
+     * @throws ParseException if there's an error at the beginning of the XML code
+     * @throws IllegalArgumentException if elementPath is empty
+     */
+    public XMLElementIterator iterateStream(InputStream stream, String elementPath) throws ParseException {
+        try{
+            return new XMLElementIterator(inputFactories.get().createXMLStreamReader(stream),stream,elementPath);
+        }catch (XMLStreamException e){
+            try{
+                stream.close();
+            }catch (IOException closeException){
+                e.addSuppressed(closeException);
+            }
+            throw new ParseException(e.getLocalizedMessage(),-1);
+        }
+    }
+
+    /**
+     * Starts reading the XML code contained in a file and returns an iterator over the elements that match a path.
+     * Only the element that is being returned is kept in memory, so files of any size can be read. See XMLElementIterator for the syntax of the path.
+     *
+     * @param file is the file
+     * @param elementPath is the tag name or the path of the elements that must be returned
+     * @return an XMLElementIterator over the elements that match elementPath
+     * @throws ParseException if there's an error at the beginning of the XML code
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IllegalArgumentException if elementPath is empty
+     */
+    public XMLElementIterator iterateFile(File file, String elementPath) throws FileNotFoundException, ParseException {
+        try{
+            return iterateStream(openPath(file.toPath()),elementPath);
+        } catch (IOException e){
+            throw fileNotFound(e);
+        }
+    }
+
+    /**
+     * Reads the XML code from an InputStream and passes to an action, one at a time, the elements that match a path.
+     * Only the element that is being processed is kept in memory, so documents of any size can be read. See XMLElementIterator for the syntax of the path.
+     * The InputStream is closed once the reading is over.
+     *
+     * @param stream is the InputStream
+     * @param elementPath is the tag name or the path of the elements that must be passed to action
+     * @param action is the action that is performed on each element that matches elementPath
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if there's an error while reading from the InputStream
+     * @throws IllegalArgumentException if elementPath is empty
+     */
+    public void forEachInStream(InputStream stream, String elementPath, Consumer<XMLElement> action) throws ParseException, IOException {
+        try(XMLElementIterator iterator = iterateStream(stream,elementPath)){
+            XMLElement element;
+            while((element=iterator.nextElement())!=null){
+                action.accept(element);
+            }
+        }
+    }
+
+    /**
+     * Reads the XML code contained in a file and passes to an action, one at a time, the elements that match a path.
+     * Only the element that is being processed is kept in memory, so files of any size can be read. See XMLElementIterator for the syntax of the path.
+     *
+     * @param file is the file
+     * @param elementPath is the tag name or the path of the elements that must be passed to action
+     * @param action is the action that is performed on each element that matches elementPath
+     * @throws ParseException if there's an error in the XML code
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IllegalArgumentException if elementPath is empty
+     */
+    public void forEachInFile(File file, String elementPath, Consumer<XMLElement> action) throws FileNotFoundException, ParseException {
+        try{
+            forEachInStream(openPath(file.toPath()),elementPath,action);
+        } catch (IOException e){
+            throw fileNotFound(e);
+        }
+    }
+
+    /*
+    Returns the DocumentBuilder of the current thread, creating it on its first use.
+     */
+    private DocumentBuilder getDocumentBuilder() throws ParseException {
+        DocumentBuilder builder = documentBuilders.get();
+        if(builder==null){
+            try{
+                builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            }catch (ParserConfigurationException e){
+                throw new ParseException(e.getLocalizedMessage(),-1);
+            }
+            documentBuilders.set(builder);
+        }
+        return builder;
+    }
+
+    /*
+    Builds the lazy tree of a document, or parses it with the STAX engine if the lazy engine doesn't support it.
+     */
+    private XMLElement parseLazily(String text) throws ParseException {
+        XMLElement root = LazyTreeBuilder.build(text);
+        if(root==null){
+            try{
+                return StAXTreeBuilder.build(inputFactories.get(),new InputSource(new StringReader(text)),tagIndexing);
+            } catch (IOException e){
+                throw new RuntimeException(e);
+            }
+        }
+        if(tagIndexing){
+            //the index is built by the first lookup, which loads the whole tree
+            setInvalidTagIndex(root);
+        }
+        return root;
+    }
+
+    /*
+    Gives to root a tag index that is built by its first lookup.
+     */
+    private static void setInvalidTagIndex(XMLElement root){
+        TagIndex index = new TagIndex();
+        index.invalidate();
+        root.setTagIndex(index);
+    }
+
+    /*
+    Reads the whole byte stream or character stream of the source, and closes it.
+     */
+    private static String readText(InputSource source) throws ParseException, IOException {
+        if(source.getByteStream()!=null){
+            try(InputStream stream = source.getByteStream()){
+                return LazyTreeBuilder.decode(stream.readAllBytes());
+            }
+        }
+        try(Reader reader = source.getCharacterStream()){
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while((read=reader.read(buffer))>=0){
+                text.append(buffer,0,read);
+            }
+            return text.toString();
+        }
+    }
+
+    /*
+    Converts the exception thrown while a file was opened or read into the FileNotFoundException of the methods that take a File,
+    which FileInputStream also throws when the file is a directory or can't be read.
+     */
+    static FileNotFoundException fileNotFound(IOException e){
+        if(e instanceof FileNotFoundException){
+            return (FileNotFoundException) e;
+        }
+        FileNotFoundException exception = new FileNotFoundException(e.getLocalizedMessage());
+        exception.initCause(e);
+        return exception;
+    }
+
+    /*
+    Opens a file, mapping it in memory if it's large enough. The bytes are passed to the parser unchanged, so that it detects the encoding.
+     */
+    static InputStream openPath(Path path) throws IOException {
+        if(Files.isDirectory(path)){
+            throw new FileNotFoundException(path+" (Is a directory)");
+        }
+        if(Files.size(path)>=MappedInputStream.MAPPING_THRESHOLD){
+            return new MappedInputStream(path);
+        }
+        return new BufferedInputStream(Files.newInputStream(path));
+    }
+
+    /*
+    Returns the shared XMLTreeBuilder that uses the specified engine.
+     */
+    private static XMLTreeBuilder getSharedBuilder(Engine engine){
+        switch (engine){
+            case STAX: return STAX_BUILDER;
+            case LAZY: return LAZY_BUILDER;
+            default: return DOM_BUILDER;
+        }
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a string.
+     *
+     * @param string contains the XML code
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     */
+    public static XMLElement buildFromString(String string) throws ParseException {
+        return buildFromString(string, Engine.DOM);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a string, using the specified engine.
+     *
+     * @param string contains the XML code
+     * @param engine is the parsing engine that must be used
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     */
+    public static XMLElement buildFromString(String string, Engine engine) throws ParseException {
+        return getSharedBuilder(engine).parseString(string);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a file.
+     *
+     * @param path contains the path of the file
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws FileNotFoundException if the file in the specified path does not exist
+     */
+    public static XMLElement buildFromFile(String path) throws FileNotFoundException, ParseException {
+        File file = new File(path);
+        return buildFromFile(file);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a file, using the specified engine.
+     *
+     * @param path contains the path of the file
+     * @param engine is the parsing engine that must be used
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws FileNotFoundException if the file in the specified path does not exist
+     */
+    public static XMLElement buildFromFile(String path, Engine engine) throws FileNotFoundException, ParseException {
+        File file = new File(path);
+        return buildFromFile(file, engine);
+    }
+
+
+    /**
+     * Parses into an XMLElement the XML code contained in a file.
+     *
+     * @param file is the file
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public static XMLElement buildFromFile(File file) throws FileNotFoundException, ParseException {
+        return buildFromFile(file, Engine.DOM);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a file, using the specified engine.
+     *
+     * @param file is the file
+     * @param engine is the parsing engine that must be used
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public static XMLElement buildFromFile(File file, Engine engine) throws FileNotFoundException, ParseException {
+        return getSharedBuilder(engine).parseFile(file);
+    }
+
+
+
+    /**
+     * Parses into an XMLElement the XML code read from an InputStream.
+     *
+     * @param stream is the InputStream
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if there's an error while reading from the InputStream
+     */
+    public static XMLElement buildFromStream(InputStream stream) throws ParseException, IOException {
+        return buildFromStream(stream, Engine.DOM);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code read from an InputStream, using the specified engine.
+     * The InputStream is closed once the parsing is over.
+     *
+     * @param stream is the InputStream
+     * @param engine is the parsing engine that must be used
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if there's an error while reading from the InputStream
+     */
+    public static XMLElement buildFromStream(InputStream stream, Engine engine) throws ParseException, IOException {
+        return getSharedBuilder(engine).parseStream(stream);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a file. Large files are read through memory mapping.
+     *
+     * @param path is the path of the file
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if the file can't be read
+     */
+    public static XMLElement buildFromPath(Path path) throws ParseException, IOException {
+        return buildFromPath(path, Engine.DOM);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a file, using the specified engine. Large files are read through memory mapping.
+     *
+     * @param path is the path of the file
+     * @param engine is the parsing engine that must be used
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if the file can't be read
+     */
+    public static XMLElement buildFromPath(Path path, Engine engine) throws ParseException, IOException {
+        return getSharedBuilder(engine).parsePath(path);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code read from a Reader. The Reader is closed once the parsing is over.
+     *
+     * @param reader is the Reader
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if there's an error while reading from the Reader
+     */
+    public static XMLElement buildFromReader(Reader reader) throws ParseException, IOException {
+        return buildFromReader(reader, Engine.DOM);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code read from a Reader, using the specified engine. The Reader is closed once the parsing is over.
+     *
+     * @param reader is the Reader
+     * @param engine is the parsing engine that must be used
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if there's an error while reading from the Reader
+     */
+    public static XMLElement buildFromReader(Reader reader, Engine engine) throws ParseException, IOException {
+        return getSharedBuilder(engine).parseReader(reader);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a CharSequence, such as a StringBuilder or a CharBuffer.
+     *
+     * @param characters contains the XML code
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     */
+    public static XMLElement buildFromCharSequence(CharSequence characters) throws ParseException {
+        return buildFromCharSequence(characters, Engine.DOM);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a CharSequence, such as a StringBuilder or a CharBuffer, using the specified engine.
+     *
+     * @param characters contains the XML code
+     * @param engine is the parsing engine that must be used
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     */
+    public static XMLElement buildFromCharSequence(CharSequence characters, Engine engine) throws ParseException {
+        return getSharedBuilder(engine).parseCharSequence(characters);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a string, splitting the work among the threads of the common ForkJoinPool
+     * (see parseStringParallel).
+     *
+     * @param string contains the XML code
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     */
+    public static XMLElement buildFromStringParallel(String string) throws ParseException {
+        return buildFromStringParallel(string, Engine.DOM);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a string, using the specified engine and splitting the work
+     * among the threads of the common ForkJoinPool (see parseStringParallel).
+     *
+     * @param string contains the XML code
+     * @param engine is the parsing engine that must be used
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     */
+    public static XMLElement buildFromStringParallel(String string, Engine engine) throws ParseException {
+        return getSharedBuilder(engine).parseStringParallel(string);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a file, splitting the work among the threads of the common ForkJoinPool
+     * (see parseStringParallel).
+     *
+     * @param file is the file
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public static XMLElement buildFromFileParallel(File file) throws FileNotFoundException, ParseException {
+        return buildFromFileParallel(file, Engine.DOM);
+    }
+
+    /**
+     * Parses into an XMLElement the XML code contained in a file, using the specified engine and splitting the work
+     * among the threads of the common ForkJoinPool (see parseStringParallel).
+     *
+     * @param file is the file
+     * @param engine is the parsing engine that must be used
+     * @return the parsed XMLElement containing the whole XML tree
+     * @throws ParseException if there's an error in the XML code
+     * @throws FileNotFoundException if the file does not exist
+     */
+    public static XMLElement buildFromFileParallel(File file, Engine engine) throws FileNotFoundException, ParseException {
+        return getSharedBuilder(engine).parseFileParallel(file);
+    }
+
+    /**
+     * Reads an XMLElement from a binary snapshot written by XMLElement.writeBinary. The tree is the same that was written,
+     * and it's read several times faster than the equivalent XML code would be parsed.
+     * The InputStream is closed once the reading is over.
+     *
+     * @param stream is the InputStream from which the snapshot is read
+     * @return the XMLElement containing the whole tree
+     * @throws ParseException if the data is not a valid snapshot
+     * @throws IOException if there's an error while reading from the InputStream
+     */
+    public static XMLElement readBinary(InputStream stream) throws ParseException, IOException {
+        byte[] bytes;
+        try(InputStream input = stream){
+            bytes = input.readAllBytes();
+        }
+        return BinaryFormat.read(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Reads an XMLElement from a file containing a binary snapshot written by XMLElement.writeBinary.
+     * Files of 1 MiB or more are read through memory mapping, so they are not copied in memory before being decoded.
+     *
+     * @param path is the path of the file
+     * @return the XMLElement containing the whole tree
+     * @throws ParseException if the file is not a valid snapshot
+     * @throws IOException if the file can't be read
+     */
+    public static XMLElement readBinary(Path path) throws ParseException, IOException {
+        long size = Files.size(path);
+        if(size<MappedInputStream.MAPPING_THRESHOLD){
+            return readBinary(Files.newInputStream(path));
+        }
+        if(size>Integer.MAX_VALUE){
+            throw new IOException("The file is too large to be read as a binary snapshot.");
+        }
+        try(FileChannel channel = FileChannel.open(path,StandardOpenOption.READ)){
+            return BinaryFormat.read(channel.map(FileChannel.MapMode.READ_ONLY,0,size));
+        }
+    }
+
+    /**
+     * Starts reading the XML code from an InputStream and returns an iterator over the elements that match a path.
+     * Only the element that is being returned is kept in memory, so documents of any size can be read. See XMLElementIterator for the syntax of the path.
+     *
+     * @param stream is the InputStream
+     * @param elementPath is the tag name or the path of the elements that must be returned
+     * @return an XMLElementIterator over the elements that match elementPath
+     * @throws ParseException if there's an error at the beginning of the XML code
+     * @throws IllegalArgumentException if elementPath is empty
+     */
+    public static XMLElementIterator iterateFromStream(InputStream stream, String elementPath) throws ParseException {
+        return STAX_BUILDER.iterateStream(stream,elementPath);
+    }
+
+    /**
+     * Starts reading the XML code contained in a file and returns an iterator over the elements that match a path.
+     * Only the element that is being returned is kept in memory, so files of any size can be read. See XMLElementIterator for the syntax of the path.
+     *
+     * @param file is the file
+     * @param elementPath is the tag name or the path of the elements that must be returned
+     * @return an XMLElementIterator over the elements that match elementPath
+     * @throws ParseException if there's an error at the beginning of the XML code
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IllegalArgumentException if elementPath is empty
+     */
+    public static XMLElementIterator iterateFromFile(File file, String elementPath) throws FileNotFoundException, ParseException {
+        return STAX_BUILDER.iterateFile(file,elementPath);
+    }
+
+    /**
+     * Reads the XML code from an InputStream and passes to an action, one at a time, the elements that match a path.
+     * Only the element that is being processed is kept in memory, so documents of any size can be read. See XMLElementIterator for the syntax of the path.
+     * The InputStream is closed once the reading is over.
+     *
+     * @param stream is the InputStream
+     * @param elementPath is the tag name or the path of the elements that must be passed to action
+     * @param action is the action that is performed on each element that matches elementPath
+     * @throws ParseException if there's an error in the XML code
+     * @throws IOException if there's an error while reading from the InputStream
+     * @throws IllegalArgumentException if elementPath is empty
+     */
+    public static void forEachFromStream(InputStream stream, String elementPath, Consumer<XMLElement> action) throws ParseException, IOException {
+        STAX_BUILDER.forEachInStream(stream,elementPath,action);
+    }
+
+    /**
+     * Reads the XML code contained in a file and passes to an action, one at a time, the elements that match a path.
+     * Only the element that is being processed is kept in memory, so files of any size can be read. See XMLElementIterator for the syntax of the path.
+     *
+     * @param file is the file
+     * @param elementPath is the tag name or the path of the elements that must be passed to action
+     * @param action is the action that is performed on each element that matches elementPath
+     * @throws ParseException if there's an error in the XML code
+     * @throws FileNotFoundException if the file does not exist
+     * @throws IllegalArgumentException if elementPath is empty
+     */
+    public static void forEachFromFile(File file, String elementPath, Consumer<XMLElement> action) throws FileNotFoundException, ParseException {
+        STAX_BUILDER.forEachInFile(file,elementPath,action);
     }
 
     /*
-    Takes an Element and creates its corresponding XMLElement.
+    Takes an Element and creates its corresponding XMLElement. The names are deduplicated through the table.
+    If index is not null, the elements are registered in it while they are built.
      */
-    private static XMLElement buildFromElement(Element element){
-        XMLElement result = new XMLElement(element.getTagName());
+    private static XMLElement buildFromElement(Element element, NameTable names, TagIndex index){
+        XMLElement result = new XMLElement(names.get(element.getTagName()));
+        if(index!=null){
+            index.enter(result);
+        }
         NamedNodeMap attributesMap = element.getAttributes();
         //sets the attributes
         Attr attribute;
         for(int i=0;i<attributesMap.getLength();i++){
             attribute = (Attr) attributesMap.item(i);
-            result.addAttribute(attribute.getName(),attribute.getValue());
+            result.addAttribute(names.get(attribute.getName()),attribute.getValue());
         }
         //adds the children and reads the text content
         Node childNode = element.getFirstChild();
-        String[] temp;
-        StringBuilder content;
         while( childNode!=null ){
             if (childNode.getNodeType() == Node.ELEMENT_NODE) {
-                result.addChild(buildFromElement((Element) childNode));
-            }else if(childNode.getNodeType() == Node.TEXT_NODE && childNode.getTextContent().trim().length()>0){
-                temp = childNode.getTextContent().trim().split("\n");
-                content = new StringBuilder();
-                for(int i=0;i<temp.length;i++){
-                    content.append(temp[i].trim()).append("\n");
-                }
-                if(content.length()>0){
-                    result.appendTextContent(content.toString().substring(0,content.length()-1));
-                }
+                result.addChild(buildFromElement((Element) childNode,names,index));
+            }else if(childNode.getNodeType() == Node.TEXT_NODE){
+                String text = childNode.getNodeValue();
+                appendNormalizedText(result,text,0,text.length());
             }
             childNode = childNode.getNextSibling();
         }
+        result.compactText();
+        if(index!=null){
+            index.exit(result);
+        }
         return result;
     }
+
+    /*
+    Appends to the element the text between start and end, trimmed along with each of its lines, unless it's only whitespace.
+    Shared by all the engines, so that they produce the same text content. The text is scanned once,
+    and a text on a single line is appended without being copied.
+     */
+    static void appendNormalizedText(XMLElement element, CharSequence text, int start, int end){
+        while(start<end && text.charAt(start)<=' '){
+            start++;
+        }
+        while(end>start && text.charAt(end-1)<=' '){
+            end--;
+        }
+        int lineStart = start;
+        int lineEnd;
+        int i = start;
+        while(i<end){
+            if(text.charAt(i)!='\n'){
+                i++;
+                continue;
+            }
+            //the line that ends at i, and the newline
+            lineEnd = i;
+            while(lineEnd>lineStart && text.charAt(lineEnd-1)<=' '){
+                lineEnd--;
+            }
+            element.appendLoadedText(text,lineStart,lineEnd);
+            element.appendLoadedText("\n");
+            lineStart = ++i;
+            while(lineStart<end && text.charAt(lineStart)<=' ' && text.charAt(lineStart)!='\n'){
+                lineStart++;
+            }
+            i = lineStart;
+        }
+        if(lineStart<end){
+            element.appendLoadedText(text,lineStart,end);
+        }
+    }
+
+    /*
+    Reader over a CharSequence that doesn't copy it.
+     */
+    private static final class CharSequenceReader extends Reader {
+        private CharSequence characters;
+        private int next;
+
+        CharSequenceReader(CharSequence characters){
+            this.characters=characters;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if(characters==null){
+                throw new IOException("The reader is closed.");
+            }
+            if(length==0){
+                return 0;
+            }
+            if(next>=characters.length()){
+                return -1;
+            }
+            int end = Math.min(next+length,characters.length());
+            for(int i=next;i<end;i++){
+                buffer[offset++] = characters.charAt(i);
+            }
+            length = end-next;
+            next = end;
+            return length;
+        }
+
+        @Override
+        public void close() {
+            characters=null;
+        }
+    }
 }
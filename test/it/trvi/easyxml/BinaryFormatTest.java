@@ -0,0 +1,97 @@
+package it.trvi.easyxml;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryFormatTest {
+    private static final String DOCUMENT = "<root z=\"1\" a=\"\u00e8\"><first b=\"2\">one<inner/>two</first><second>\u20ac \ud83d\ude00</second><third c=\"&lt;&quot;\"/></root>";
+
+    private static byte[] write(XMLElement element) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        element.writeBinary(stream);
+        return stream.toByteArray();
+    }
+
+    private static XMLElement read(byte[] bytes) throws ParseException, IOException {
+        return XMLTreeBuilder.readBinary(new ByteArrayInputStream(bytes));
+    }
+
+    /*
+    The magic number followed by the given bytes.
+     */
+    private static byte[] snapshot(int... bytes){
+        byte[] result = new byte[4+bytes.length];
+        result[0] = 'E';
+        result[1] = 'X';
+        result[2] = 'B';
+        result[3] = 1;
+        for(int i=0;i<bytes.length;i++){
+            result[4+i] = (byte) bytes[i];
+        }
+        return result;
+    }
+
+    @Test
+    void theTreeSurvivesARoundTrip() throws Exception {
+        for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+            XMLElement root = XMLTreeBuilder.buildFromString(DOCUMENT,engine);
+            XMLElement copy = read(write(root));
+            assertEquals(root.toString(),copy.toString(),engine.toString());
+            assertTrue(root.structuralEquals(copy),engine.toString());
+        }
+    }
+
+    @Test
+    void largeFilesAreReadThroughMemoryMapping() throws Exception {
+        StringBuilder document = new StringBuilder("<root>");
+        for(int i=0;i<40000;i++){
+            document.append("<item id=\"").append(i).append("\">text of the item ").append(i).append("</item>");
+        }
+        XMLElement root = XMLTreeBuilder.buildFromString(document.append("</root>").toString());
+        Path file = Files.createTempFile("easyxml",".exb");
+        try{
+            Files.write(file,write(root));
+            assertTrue(Files.size(file)>=1<<20);
+            assertEquals(root.toString(),XMLTreeBuilder.readBinary(file).toString());
+        }finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void truncatedSnapshotsThrowParseException() throws Exception {
+        byte[] bytes = write(XMLTreeBuilder.buildFromString(DOCUMENT));
+        for(int length=0;length<bytes.length;length++){
+            byte[] truncated = Arrays.copyOf(bytes,length);
+            assertThrows(ParseException.class,() -> read(truncated),"length "+length);
+        }
+        byte[] longer = Arrays.copyOf(bytes,bytes.length+1);
+        assertThrows(ParseException.class,() -> read(longer));
+    }
+
+    @Test
+    void hostileSnapshotsThrowParseException(){
+        //huge counts of names, of attributes and of children, which must not be allocated
+        assertThrows(ParseException.class,() -> read(snapshot(0xFF,0xFF,0xFF,0xFF,0x07)));
+        assertThrows(ParseException.class,() -> read(snapshot(1,1,'a',0,0xFF,0xFF,0xFF,0xFF,0x07)));
+        assertThrows(ParseException.class,() -> read(snapshot(1,1,'a',0,0,0,0xFF,0xFF,0xFF,0xFF,0x07)));
+        //more children than there are elements
+        assertThrows(ParseException.class,() -> read(snapshot(1,1,'a',0,0,0,2,0,0,0,0)));
+        //a name that isn't in the table
+        assertThrows(ParseException.class,() -> read(snapshot(1,1,'a',5,0,0,0)));
+        //a negative number and a number longer than five bytes
+        assertThrows(ParseException.class,() -> read(snapshot(1,1,'a',0,0,0xFF,0xFF,0xFF,0xFF,0x0F,0)));
+        assertThrows(ParseException.class,() -> read(snapshot(0x80,0x80,0x80,0x80,0x80,0x80,0)));
+        //not a snapshot
+        assertThrows(ParseException.class,() -> read(new byte[]{'<','r','/','>'}));
+    }
+}
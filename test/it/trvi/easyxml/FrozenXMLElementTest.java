@@ -0,0 +1,154 @@
+package it.trvi.easyxml;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrozenXMLElementTest {
+    private static final String[] DOCUMENTS = {
+            "<root/>",
+            "<root z=\"1\" a=\"2\" m='3'><child b=\"x\" a=\"y\">text</child><child/></root>",
+            "<root>\n\t<a>  first line\n   second line  </a>\n\t<b>&lt;&amp;&gt;&#10;&quot;</b>\n</root>",
+            "<root><a>before<b/>after</a><?pi data?><c><!-- <d x='1'/> --></c></root>",
+            "<root v=\"a&#10;b&#9;c&#13;d\"><e w='&lt;&quot;&apos;'/><e><e><e>deep</e></e></e></root>",
+    };
+    private static final String[] TAGS = {"a","b","c"};
+
+    private static XMLElement randomTree(Random random, int depth){
+        XMLElement element = new XMLElement(TAGS[random.nextInt(TAGS.length)]);
+        for(int i=random.nextInt(3);i>0;i--){
+            element.addAttribute("k"+random.nextInt(4),random.nextBoolean() ? "v"+random.nextInt(10) : "<\"&\n\t>");
+        }
+        switch (random.nextInt(4)){
+            case 0: element.setTextContent("text "+random.nextInt(100)); break;
+            case 1: element.setTextContent("two\nlines & <more>"); break;
+            default:
+        }
+        if(depth<6){
+            for(int i=random.nextInt(4);i>0;i--){
+                element.addChild(randomTree(random,depth+1));
+            }
+        }
+        return element;
+    }
+
+    /*
+    Checks that the snapshot gives the same answers as the element it was created from, for the element and all its descendants.
+     */
+    private static void assertSameContent(XMLElement element, FrozenXMLElement frozen){
+        assertEquals(element.getTagName(),frozen.getTagName());
+        assertEquals(element.getTextContent(),frozen.getTextContent());
+        assertEquals(element.getAllAttributes(),frozen.getAllAttributes());
+        for(String name : element.getAllAttributes().keySet()){
+            assertTrue(frozen.hasAttribute(name));
+            assertEquals(element.getAttribute(name),frozen.getAttribute(name));
+        }
+        assertFalse(frozen.hasAttribute("missing"));
+        for(String tagName : TAGS){
+            List<String> expected = new ArrayList<>();
+            for(XMLElement descendant : element.getDescendantsWithTag(tagName)){
+                expected.add(descendant.toString());
+            }
+            List<String> actual = new ArrayList<>();
+            for(FrozenXMLElement descendant : frozen.getDescendantsWithTag(tagName)){
+                actual.add(descendant.toString());
+            }
+            assertEquals(expected,actual,tagName);
+        }
+        assertEquals(element.getNumberOfChildren(),frozen.getNumberOfChildren());
+        assertEquals(element.getNumberOfChildren(),frozen.getAllChildren().size());
+        for(int i=0;i<element.getNumberOfChildren();i++){
+            FrozenXMLElement child = frozen.getChildAt(i);
+            assertEquals(frozen,child.getParent());
+            assertEquals(child,frozen.getAllChildren().get(i));
+            assertSameContent(element.getChildAt(i),child);
+        }
+    }
+
+    /*
+    Checks that the snapshot of element writes the same XML code and has the same content.
+     */
+    private static void assertFrozenEqual(XMLElement element) throws Exception {
+        FrozenXMLElement frozen = element.freeze();
+        assertEquals(element.toString(),frozen.toString());
+        assertEquals(element.toString("  "),frozen.toString("  "));
+        StringWriter writer = new StringWriter();
+        frozen.writeTo(writer);
+        assertEquals(element.toString(),writer.toString());
+        assertNull(frozen.getParent());
+        assertSameContent(element,frozen);
+        XMLElement copy = frozen.toXMLElement();
+        assertTrue(element.structuralEquals(copy));
+        assertEquals(element.toString(),copy.toString());
+    }
+
+    @Test
+    void snapshotsOfParsedDocumentsMatchTheTree() throws Exception {
+        for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+            for(String document : DOCUMENTS){
+                //the lazy tree is loaded by freeze, and then by the checks
+                assertFrozenEqual(XMLTreeBuilder.buildFromString(document,engine));
+                assertEquals(XMLTreeBuilder.buildFromString(document,engine).toString(),XMLTreeBuilder.buildFromString(document,engine).freeze().toString());
+            }
+        }
+    }
+
+    @Test
+    void snapshotsOfRandomTreesMatchTheTree() throws Exception {
+        Random random = new Random(3);
+        for(int i=0;i<200;i++){
+            XMLElement root = randomTree(random,0);
+            assertFrozenEqual(root);
+            if(root.getNumberOfChildren()>0){
+                //a subtree is frozen without its parent
+                assertFrozenEqual(root.getChildAt(0));
+            }
+        }
+    }
+
+    @Test
+    void snapshotsDontSeeLaterChanges() throws Exception {
+        XMLElement root = XMLTreeBuilder.buildFromString(DOCUMENTS[1]);
+        String before = root.toString();
+        FrozenXMLElement frozen = root.freeze();
+        root.setTextContent("changed");
+        root.addAttribute("z","changed");
+        root.getChildAt(0).addChild(new XMLElement("added"));
+        root.removeChild(1);
+        assertEquals(before,frozen.toString());
+        assertEquals(2,frozen.getNumberOfChildren());
+        //and the copies don't change the snapshot
+        frozen.toXMLElement().getChildAt(0).setTextContent("changed");
+        assertEquals(before,frozen.toString());
+    }
+
+    @Test
+    void elementsAreEqualOnlyInTheSameSnapshot() throws Exception {
+        XMLElement root = XMLTreeBuilder.buildFromString(DOCUMENTS[1]);
+        FrozenXMLElement first = root.freeze();
+        FrozenXMLElement second = root.freeze();
+        assertEquals(first.getChildAt(1),first.getChildAt(1));
+        assertEquals(first.getChildAt(1).hashCode(),first.getChildAt(1).hashCode());
+        assertNotEquals(first.getChildAt(0),first.getChildAt(1));
+        assertNotEquals(first,second);
+        assertEquals(first,first.getChildAt(0).getParent());
+    }
+
+    @Test
+    void invalidReadsThrow() throws Exception {
+        FrozenXMLElement frozen = XMLTreeBuilder.buildFromString(DOCUMENTS[1]).freeze();
+        assertThrows(NoSuchElementException.class,() -> frozen.getAttribute("missing"));
+        assertThrows(IndexOutOfBoundsException.class,() -> frozen.getChildAt(2));
+        assertThrows(IndexOutOfBoundsException.class,() -> frozen.getChildAt(-1));
+        assertTrue(frozen.getDescendantsWithTag("missing").isEmpty());
+        //a modification of the map doesn't reach the snapshot
+        frozen.getAllAttributes().put("a","changed");
+        assertEquals("2",frozen.getAttribute("a"));
+    }
+}
@@ -0,0 +1,117 @@
+package it.trvi.easyxml;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelTraversalTest {
+    private static final String[] TAGS = {"a","b","c"};
+    private static final int[] THRESHOLDS = {1,2,7,100,ParallelTraversal.DEFAULT_THRESHOLD};
+
+    /*
+    Returns the element and its descendants in document order, visited recursively.
+     */
+    private static List<XMLElement> descendants(XMLElement element){
+        List<XMLElement> result = new ArrayList<>();
+        result.add(element);
+        for(int i=0;i<element.getNumberOfChildren();i++){
+            result.addAll(descendants(element.getChildAt(i)));
+        }
+        return result;
+    }
+
+    private static XMLElement randomTree(Random random, int elements){
+        XMLElement root = new XMLElement("a");
+        List<XMLElement> all = new ArrayList<>();
+        all.add(root);
+        for(int i=1;i<elements;i++){
+            //the parents are biased towards the last elements, to mix deep and wide subtrees
+            XMLElement parent = all.get(Math.max(0,all.size()-1-random.nextInt(Math.min(all.size(),random.nextBoolean() ? 3 : 1000))));
+            XMLElement child = new XMLElement(TAGS[random.nextInt(TAGS.length)]);
+            parent.addChild(child);
+            all.add(child);
+        }
+        return root;
+    }
+
+    /*
+    Returns an element with the given number of children without descendants.
+     */
+    private static XMLElement wideElement(String tagName, int leaves){
+        XMLElement element = new XMLElement(tagName);
+        for(int i=0;i<leaves;i++){
+            element.addChild(new XMLElement(TAGS[i%TAGS.length]));
+        }
+        return element;
+    }
+
+    private static void assertTraversalsCorrect(XMLElement root){
+        List<XMLElement> all = descendants(root);
+        for(int threshold : THRESHOLDS){
+            for(String tagName : TAGS){
+                List<XMLElement> expected = all.stream().filter(e -> e.getTagName().equals(tagName)).collect(Collectors.toList());
+                assertEquals(expected,root.getDescendantsWithTagParallel(tagName,threshold),"threshold "+threshold);
+            }
+            Map<XMLElement, Integer> visits = Collections.synchronizedMap(new IdentityHashMap<>());
+            root.visitParallel(element -> visits.merge(element,1,Integer::sum),threshold);
+            assertEquals(all.size(),visits.size(),"threshold "+threshold);
+            for(XMLElement element : all){
+                assertEquals(1,(int) visits.get(element),"threshold "+threshold);
+            }
+            assertEquals(all,root.getDescendantsStream(threshold).parallel().collect(Collectors.toList()),"threshold "+threshold);
+        }
+    }
+
+    @Test
+    void randomTreesGiveTheSequentialResults(){
+        Random random = new Random(3);
+        for(int tree=0;tree<30;tree++){
+            assertTraversalsCorrect(randomTree(random,1+random.nextInt(3000)));
+        }
+    }
+
+    @Test
+    void wideTreesGiveTheSequentialResults(){
+        assertTraversalsCorrect(new XMLElement("a"));
+        XMLElement root = wideElement("a",50000);
+        //a large subtree among the leaves
+        root.addChild(25000,wideElement("b",20000));
+        assertTraversalsCorrect(root);
+    }
+
+    @Test
+    void deepTreesGiveTheSequentialResults(){
+        //deeper than the levels of tasks that can be nested, built from the bottom since adding a child looks for the root
+        XMLElement element = new XMLElement("a");
+        for(int i=0;i<100000;i++){
+            XMLElement parent = new XMLElement(TAGS[i%TAGS.length]);
+            parent.addChild(element);
+            parent.addChild(new XMLElement("c"));
+            element = parent;
+        }
+        XMLElement root = element;
+        for(int threshold : THRESHOLDS){
+            assertEquals(root.getDescendantsWithTag("b"),root.getDescendantsWithTagParallel("b",threshold));
+            LongAdder visits = new LongAdder();
+            root.visitParallel(e -> visits.increment(),threshold);
+            assertEquals(200001L,visits.sum());
+        }
+    }
+
+    @Test
+    void theThresholdMustBePositive(){
+        XMLElement root = new XMLElement("a");
+        assertThrows(IllegalArgumentException.class,() -> root.getDescendantsWithTagParallel("a",0));
+        assertThrows(IllegalArgumentException.class,() -> root.visitParallel(element -> {},-1));
+        assertThrows(IllegalArgumentException.class,() -> root.getDescendantsStream(0));
+    }
+}
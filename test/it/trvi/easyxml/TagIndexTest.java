@@ -0,0 +1,166 @@
+package it.trvi.easyxml;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TagIndexTest {
+    private static final String[] TAGS = {"a","b","c","d"};
+
+    /*
+    Returns the element and its descendants in document order, without using the index.
+     */
+    private static List<XMLElement> descendants(XMLElement element){
+        List<XMLElement> result = new ArrayList<>();
+        result.add(element);
+        for(int i=0;i<element.getNumberOfChildren();i++){
+            result.addAll(descendants(element.getChildAt(i)));
+        }
+        return result;
+    }
+
+    private static List<XMLElement> scan(XMLElement element, String tagName){
+        List<XMLElement> result = new ArrayList<>();
+        for(XMLElement descendant : descendants(element)){
+            if(descendant.getTagName().equals(tagName)){
+                result.add(descendant);
+            }
+        }
+        return result;
+    }
+
+    private static void assertIndexCorrect(XMLElement root){
+        for(XMLElement element : descendants(root)){
+            for(String tagName : TAGS){
+                assertEquals(scan(element,tagName),element.getDescendantsWithTag(tagName));
+            }
+        }
+    }
+
+    private static XMLElement newSubtree(Random random){
+        XMLElement element = new XMLElement(TAGS[random.nextInt(TAGS.length)]);
+        if(random.nextBoolean()){
+            element.addChild(new XMLElement(TAGS[random.nextInt(TAGS.length)]));
+        }
+        return element;
+    }
+
+    /*
+    Applies a random change to the tree of root: an addition, a removal, a swap, a move or the transfer of a subtree.
+     */
+    private static void change(XMLElement root, Random random){
+        List<XMLElement> elements = descendants(root);
+        XMLElement element = elements.get(random.nextInt(elements.size()));
+        int children = element.getNumberOfChildren();
+        switch (random.nextInt(6)){
+            case 0: element.addChild(newSubtree(random)); break;
+            case 1: element.addChild(random.nextInt(children+1),newSubtree(random)); break;
+            case 2:
+                if(children>0){
+                    element.removeChild(random.nextInt(children));
+                }
+                break;
+            case 3:
+                if(children>0){
+                    Iterator<XMLElement> iterator = element.getChildrenIterator();
+                    iterator.next();
+                    iterator.remove();
+                }
+                break;
+            case 4:
+                if(children>1){
+                    element.swapChildrenPosition(random.nextInt(children),random.nextInt(children));
+                    element.moveChildPositionDown(0,random.nextInt(children));
+                }
+                break;
+            default:
+                XMLElement target = elements.get(random.nextInt(elements.size()));
+                if(element!=root && element!=target && !descendants(element).contains(target)){
+                    target.addChild(element);
+                }
+        }
+    }
+
+    @Test
+    void lookupsAreCorrectAfterChanges(){
+        Random random = new Random(7);
+        for(int tree=0;tree<50;tree++){
+            XMLElement root = new XMLElement("a");
+            root.enableTagIndex();
+            for(int i=0;i<200;i++){
+                change(root,random);
+                if(i%10==0){
+                    assertIndexCorrect(root);
+                }
+            }
+            assertIndexCorrect(root);
+        }
+    }
+
+    @Test
+    void indexesBuiltWhileParsingFollowTheChanges() throws Exception {
+        StringBuilder document = new StringBuilder("<a>");
+        for(int i=0;i<30;i++){
+            document.append("<b><c/><d>text</d></b>");
+        }
+        document.append("</a>");
+        Random random = new Random(11);
+        for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+            XMLTreeBuilder builder = new XMLTreeBuilder(engine);
+            builder.setTagIndexing(true);
+            XMLElement root = builder.parseString(document.toString());
+            assertTrue(root.isTagIndexEnabled());
+            assertIndexCorrect(root);
+            for(int i=0;i<100;i++){
+                change(root,random);
+            }
+            assertIndexCorrect(root);
+        }
+    }
+
+    @Test
+    void aMovedSubtreeLeavesTheIndexOfItsTree(){
+        XMLElement first = new XMLElement("a");
+        first.enableTagIndex();
+        XMLElement moved = new XMLElement("b");
+        moved.addChild(new XMLElement("c"));
+        first.addChild(moved);
+        XMLElement second = new XMLElement("a");
+        second.enableTagIndex();
+        second.addChild(moved);
+        assertTrue(first.getDescendantsWithTag("c").isEmpty());
+        assertEquals(List.of(moved.getChildAt(0)),second.getDescendantsWithTag("c"));
+    }
+
+    @Test
+    void concurrentLookupsAgreeAfterAChange() throws Exception {
+        StringBuilder document = new StringBuilder("<a>");
+        for(int i=0;i<20000;i++){
+            document.append("<b><c/></b>");
+        }
+        XMLElement root = XMLTreeBuilder.buildFromString(document.append("</a>").toString());
+        root.enableTagIndex();
+        AtomicInteger wrong = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for(int i=0;i<threads.length;i++){
+            threads[i] = new Thread(() -> {
+                for(int j=0;j<10;j++){
+                    if(root.getDescendantsWithTag("c").size()!=20000){
+                        wrong.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for(Thread thread : threads){
+            thread.join();
+        }
+        assertEquals(0,wrong.get());
+    }
+}
@@ -0,0 +1,137 @@
+package it.trvi.easyxml;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XMLBatchParserTest {
+    private static final int GOOD = 0, MALFORMED = 1, UNREADABLE = 2, TOO_DEEP = 3;
+
+    private static InputStream stream(String document){
+        return new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+    Returns documents of every kind, repeated: the kind of the document i is i%4.
+     */
+    private static List<InputStream> streams(){
+        StringBuilder deep = new StringBuilder();
+        for(int i=0;i<200000;i++){
+            deep.append("<a>");
+        }
+        for(int i=0;i<200000;i++){
+            deep.append("</a>");
+        }
+        String tooDeep = deep.toString();
+        List<InputStream> streams = new ArrayList<>();
+        for(int i=0;i<5;i++){
+            streams.add(stream("<root><item>"+i+"</item></root>"));
+            streams.add(stream("<root><item></root>"));
+            streams.add(new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    throw new IOException("unreadable");
+                }
+            });
+            streams.add(stream(tooDeep));
+        }
+        return streams;
+    }
+
+    @Test
+    void eachDocumentGetsItsOwnResult() throws Exception {
+        List<CompletableFuture<XMLElement>> futures = new XMLBatchParser(new XMLTreeBuilder(),2).parseStreams(streams());
+        for(int i=0;i<futures.size();i++){
+            if(i%4==GOOD){
+                assertEquals(String.valueOf(i/4),futures.get(i).get().getChildAt(0).getTextContent());
+                continue;
+            }
+            ExecutionException exception = assertThrows(ExecutionException.class,futures.get(i)::get);
+            switch (i%4){
+                case MALFORMED: assertTrue(exception.getCause() instanceof ParseException); break;
+                case UNREADABLE: assertTrue(exception.getCause() instanceof IOException); break;
+                case TOO_DEEP: assertTrue(exception.getCause() instanceof StackOverflowError); break;
+            }
+        }
+    }
+
+    @Test
+    void errorsDontStopTheStreams(){
+        for(boolean ordered : new boolean[]{true,false}){
+            List<XMLBatchParser.Result<InputStream>> results;
+            try(Stream<XMLBatchParser.Result<InputStream>> stream = new XMLBatchParser(new XMLTreeBuilder(),2).streamStreams(streams(),ordered)){
+                results = stream.collect(Collectors.toList());
+            }
+            assertEquals(20,results.size());
+            for(int i=0;i<results.size();i++){
+                XMLBatchParser.Result<InputStream> result = results.get(i);
+                if(ordered){
+                    assertEquals(i,result.getIndex());
+                }
+                assertEquals(result.getIndex()%4==GOOD,result.isSuccessful());
+                if(result.isSuccessful()){
+                    assertNotNull(result.getElement());
+                    assertNull(result.getException());
+                }else{
+                    assertNull(result.getElement());
+                    assertNotNull(result.getException());
+                }
+            }
+        }
+    }
+
+    @Test
+    void otherErrorsFailTheirDocumentAndReachTheExecutor() throws Exception {
+        List<Throwable> rethrown = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        Executor executor = command -> {
+            Thread thread = new Thread(() -> {
+                try{
+                    command.run();
+                }catch (Error e){
+                    rethrown.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        };
+        InternalError error = new InternalError("fatal");
+        List<InputStream> streams = new ArrayList<>();
+        for(int i=0;i<6;i++){
+            streams.add(i%3!=1 ? stream("<root>"+i+"</root>") : new InputStream() {
+                @Override
+                public int read(){
+                    throw error;
+                }
+            });
+        }
+        //a single worker, which must be replaced for the documents after the error to be parsed
+        List<CompletableFuture<XMLElement>> futures = new XMLBatchParser(new XMLTreeBuilder(),executor,1).parseStreams(streams);
+        for(int i=0;i<futures.size();i++){
+            if(i%3!=1){
+                assertEquals(String.valueOf(i),futures.get(i).get().getTextContent());
+            }else{
+                assertSame(error,assertThrows(ExecutionException.class,futures.get(i)::get).getCause());
+            }
+        }
+        //the worker rethrows the error after it has failed the future
+        for(Thread thread : List.copyOf(threads)){
+            thread.join();
+        }
+        assertEquals(List.of(error,error),rethrown);
+    }
+}
@@ -0,0 +1,233 @@
+package it.trvi.easyxml;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XMLBinderTest {
+    enum Kind {
+        BOOK,
+        DISC
+    }
+
+    static class Base {
+        int id;
+    }
+
+    static class Item extends Base {
+        String name;
+        Kind kind;
+        boolean available;
+        long stock;
+        double price;
+        char grade;
+        Integer optional;
+        Tag tag;
+        List<Tag> tags;
+        Collection<String> notes;
+        transient int cached;
+        static int shared;
+    }
+
+    static class Tag {
+        @XMLBinder.Text
+        String label;
+        @XMLBinder.Attribute("w")
+        short weight;
+    }
+
+    @XMLBinder.TagName("shelf")
+    static class Shelf {
+        @XMLBinder.Attribute
+        String code;
+        @XMLBinder.Child("entry")
+        ArrayList<Item> items;
+        @XMLBinder.Child
+        String description;
+        @XMLBinder.Ignore
+        String ignored;
+    }
+
+    static class TwoTexts {
+        @XMLBinder.Text
+        String first;
+        @XMLBinder.Text
+        String second;
+    }
+
+    static class NoDefaultConstructor {
+        int value;
+
+        NoDefaultConstructor(int value){
+            this.value=value;
+        }
+    }
+
+    static class Numbers {
+        int number;
+        boolean flag;
+    }
+
+    private static Item item(int id){
+        Item item = new Item();
+        item.id = id;
+        item.name = "item <"+id+"> & \"quoted\"";
+        item.kind = id%2==0 ? Kind.BOOK : Kind.DISC;
+        item.available = id%3==0;
+        item.stock = Long.MAX_VALUE-id;
+        item.price = id+0.25;
+        item.grade = (char) ('a'+id%26);
+        item.optional = id%2==0 ? id : null;
+        item.tag = new Tag();
+        item.tag.label = "main";
+        item.tag.weight = (short) id;
+        item.tags = new ArrayList<>();
+        for(int i=0;i<id%4;i++){
+            Tag tag = new Tag();
+            tag.label = "tag"+i;
+            tag.weight = (short) -i;
+            item.tags.add(tag);
+        }
+        item.notes = new ArrayList<>(List.of("first note","second note"));
+        item.cached = id;
+        return item;
+    }
+
+    private static void assertSameTag(Tag expected, Tag actual){
+        assertEquals(expected.label,actual.label);
+        assertEquals(expected.weight,actual.weight);
+    }
+
+    private static void assertSameItem(Item expected, Item actual){
+        assertEquals(expected.id,actual.id);
+        assertEquals(expected.name,actual.name);
+        assertSame(expected.kind,actual.kind);
+        assertEquals(expected.available,actual.available);
+        assertEquals(expected.stock,actual.stock);
+        assertEquals(expected.price,actual.price);
+        assertEquals(expected.grade,actual.grade);
+        assertEquals(expected.optional,actual.optional);
+        assertSameTag(expected.tag,actual.tag);
+        assertEquals(expected.tags.size(),actual.tags.size());
+        for(int i=0;i<expected.tags.size();i++){
+            assertSameTag(expected.tags.get(i),actual.tags.get(i));
+        }
+        assertEquals(List.copyOf(expected.notes),List.copyOf(actual.notes));
+        assertEquals(0,actual.cached);
+    }
+
+    @Test
+    void objectsSurviveARoundTrip() throws Exception {
+        XMLBinder<Item> binder = XMLBinder.of(Item.class);
+        for(int id=0;id<12;id++){
+            Item item = item(id);
+            XMLElement element = binder.write(item);
+            assertEquals("item",element.getTagName());
+            assertSameItem(item,binder.read(element));
+            //through the XML code too, with every engine
+            for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+                assertSameItem(item,binder.read(XMLTreeBuilder.buildFromString(element.toString(),engine)));
+            }
+        }
+    }
+
+    @Test
+    void fieldsAreBoundByConventionAndByAnnotations() throws Exception {
+        Item item = item(3);
+        XMLElement element = XMLBinder.of(Item.class).write(item);
+        //simple fields are attributes, the others are children; nulls and transient or static fields are not written
+        assertEquals(Map.of("id","3","name",item.name,"kind","DISC","available","true","stock",String.valueOf(item.stock),
+                "price","3.25","grade","d"),element.getAllAttributes());
+        List<String> children = new ArrayList<>();
+        for(XMLElement child : element.getAllChildren()){
+            children.add(child.getTagName());
+        }
+        assertEquals(List.of("tag","tags","tags","tags","notes","notes"),children);
+        assertEquals("main",element.getChildAt(0).getTextContent());
+        assertEquals("3",element.getChildAt(0).getAttribute("w"));
+        assertEquals("second note",element.getChildAt(5).getTextContent());
+
+        Shelf shelf = new Shelf();
+        shelf.code = "A1";
+        shelf.items = new ArrayList<>(List.of(item(1),item(2)));
+        shelf.description = "top";
+        shelf.ignored = "ignored";
+        XMLBinder<Shelf> shelfBinder = XMLBinder.of(Shelf.class);
+        assertEquals("shelf",shelfBinder.getTagName());
+        assertSame(Shelf.class,shelfBinder.getType());
+        XMLElement shelfElement = shelfBinder.write(shelf);
+        assertEquals("shelf",shelfElement.getTagName());
+        assertEquals(Map.of("code","A1"),shelfElement.getAllAttributes());
+        assertEquals(2,shelfElement.getDescendantsWithTag("entry").size());
+        assertEquals("top",shelfElement.getChildAt(2).getTextContent());
+        Shelf read = shelfBinder.read(shelfElement);
+        assertEquals("A1",read.code);
+        assertEquals("top",read.description);
+        assertNull(read.ignored);
+        assertSameItem(shelf.items.get(1),read.items.get(1));
+    }
+
+    @Test
+    void simpleFieldsAreReadFromAttributesOrChildren() throws Exception {
+        XMLElement element = XMLTreeBuilder.buildFromString("<item id=\" 7 \" kind=\"BOOK\"><name>from a child</name><available>1</available>" +
+                "<price>2.5</price><ignored/><tag w=\"4\">label</tag><tags>x</tags><tags w=\"1\"/></item>");
+        Item item = XMLBinder.of(Item.class).read(element);
+        assertEquals(7,item.id);
+        assertSame(Kind.BOOK,item.kind);
+        assertEquals("from a child",item.name);
+        assertTrue(item.available);
+        assertEquals(2.5,item.price);
+        assertEquals("label",item.tag.label);
+        assertEquals(4,item.tag.weight);
+        assertEquals(2,item.tags.size());
+        assertEquals(1,item.tags.get(1).weight);
+        //the missing values are 0, false, null or an empty list
+        assertEquals(0L,item.stock);
+        assertEquals(0,item.grade);
+        assertNull(item.optional);
+        assertTrue(item.notes.isEmpty());
+        //the attribute takes precedence over the child
+        assertEquals("attribute",XMLBinder.of(Item.class).read(XMLTreeBuilder.buildFromString("<item name=\"attribute\"><name>child</name></item>")).name);
+    }
+
+    @Test
+    void readAllKeepsTheOrder() throws Exception {
+        StringBuilder document = new StringBuilder("<root>");
+        for(int i=0;i<20;i++){
+            document.append("<numbers number=\"").append(i).append("\" flag=\"").append(i%2==0).append("\"/>");
+        }
+        XMLElement root = XMLTreeBuilder.buildFromString(document.append("</root>").toString());
+        ArrayList<Numbers> numbers = XMLBinder.of(Numbers.class).readAll(root.getDescendantsWithTag("numbers"));
+        assertEquals(20,numbers.size());
+        for(int i=0;i<20;i++){
+            assertEquals(i,numbers.get(i).number);
+            assertEquals(i%2==0,numbers.get(i).flag);
+        }
+    }
+
+    @Test
+    void invalidValuesThrowIllegalArgumentException() throws Exception {
+        XMLBinder<Numbers> binder = XMLBinder.of(Numbers.class);
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> binder.read(XMLTreeBuilder.buildFromString("<numbers number=\"x\"/>")));
+        assertTrue(exception.getMessage().contains("\"number\""),exception.getMessage());
+        assertThrows(IllegalArgumentException.class,() -> binder.read(XMLTreeBuilder.buildFromString("<numbers flag=\"yes\"/>")));
+        assertThrows(IllegalArgumentException.class,() -> XMLBinder.of(Item.class).read(XMLTreeBuilder.buildFromString("<item kind=\"OTHER\"/>")));
+        assertThrows(IllegalArgumentException.class,() -> XMLBinder.of(Item.class).read(XMLTreeBuilder.buildFromString("<item grade=\"ab\"/>")));
+    }
+
+    @Test
+    void classesThatCantBeBoundAreRejected(){
+        assertThrows(IllegalArgumentException.class,() -> XMLBinder.of(TwoTexts.class));
+        assertThrows(IllegalArgumentException.class,() -> XMLBinder.of(NoDefaultConstructor.class));
+        assertThrows(IllegalArgumentException.class,() -> XMLBinder.of(String.class));
+        assertThrows(IllegalArgumentException.class,() -> XMLBinder.of(List.class));
+        assertThrows(IllegalArgumentException.class,() -> XMLBinder.of(int[].class));
+        assertSame(XMLBinder.of(Item.class),XMLBinder.of(Item.class));
+    }
+}
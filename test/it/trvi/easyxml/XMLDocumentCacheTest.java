@@ -0,0 +1,163 @@
+package it.trvi.easyxml;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XMLDocumentCacheTest {
+    private static final String DOCUMENT = "<root a=\"1\"><item>one</item><item>two</item></root>";
+
+    private interface Body {
+        void run(Path directory) throws Exception;
+    }
+
+    /*
+    Runs the body with a temporary directory, which is deleted afterwards with all its files.
+     */
+    private static void withDirectory(Body body) throws Exception {
+        Path directory = Files.createTempDirectory("easyxml");
+        try{
+            body.run(directory);
+        }finally {
+            try(Stream<Path> files = Files.list(directory)){
+                for(Path file : (Iterable<Path>) files::iterator){
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static Path write(Path directory, String name, String document) throws Exception {
+        return Files.write(directory.resolve(name),document.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void theSecondGetIsAHitAndReturnsAnIndependentCopy() throws Exception {
+        withDirectory(directory -> {
+            Path file = write(directory,"a.xml",DOCUMENT);
+            XMLDocumentCache cache = new XMLDocumentCache(1<<20);
+            XMLElement first = cache.get(file);
+            assertEquals(0,cache.getHitCount());
+            assertEquals(1,cache.getMissCount());
+            first.getChildAt(0).setTextContent("changed");
+            first.addAttribute("b","2");
+            XMLElement second = cache.get(file.toFile());
+            XMLElement clone = cache.getClone(file);
+            assertEquals(2,cache.getHitCount());
+            assertEquals(1,cache.size());
+            assertNotSame(first,second);
+            assertEquals(XMLTreeBuilder.buildFromString(DOCUMENT).toString(),second.toString());
+            assertEquals(second.toString(),clone.toString());
+            assertNull(clone.getParent());
+        });
+    }
+
+    @Test
+    void aChangedFileIsParsedAgain() throws Exception {
+        withDirectory(directory -> {
+            Path file = write(directory,"a.xml",DOCUMENT);
+            XMLDocumentCache cache = new XMLDocumentCache(1<<20);
+            cache.get(file);
+            write(directory,"a.xml","<root><other/></root>");
+            assertEquals("other",cache.get(file).getChildAt(0).getTagName());
+            assertEquals(2,cache.getMissCount());
+            assertEquals(1,cache.size());
+            cache.invalidate(file);
+            assertEquals(0,cache.size());
+            assertEquals(0,cache.getMemoryUsage());
+        });
+    }
+
+    @Test
+    void theLeastRecentlyUsedDocumentsAreEvicted() throws Exception {
+        withDirectory(directory -> {
+            Path a = write(directory,"a.xml",DOCUMENT);
+            Path b = write(directory,"b.xml",DOCUMENT);
+            Path c = write(directory,"c.xml",DOCUMENT);
+            XMLDocumentCache probe = new XMLDocumentCache(1<<20);
+            probe.get(a);
+            long memory = probe.getMemoryUsage();
+            assertTrue(memory>0);
+            //room for two documents
+            XMLDocumentCache cache = new XMLDocumentCache(2*memory+memory/2);
+            cache.get(a);
+            cache.get(b);
+            cache.get(a);
+            cache.get(c);
+            assertEquals(1,cache.getEvictionCount());
+            assertEquals(2,cache.size());
+            assertTrue(cache.getMemoryUsage()<=cache.getMaximumMemory());
+            long misses = cache.getMissCount();
+            cache.get(a);
+            cache.get(c);
+            assertEquals(misses,cache.getMissCount());
+            cache.get(b);
+            assertEquals(misses+1,cache.getMissCount());
+            //a document larger than the whole budget is not cached
+            XMLDocumentCache small = new XMLDocumentCache(memory-1);
+            small.get(a);
+            assertEquals(0,small.size());
+            assertEquals(0,small.getMemoryUsage());
+        });
+    }
+
+    @Test
+    void errorsAreThrownAndNotCached() throws Exception {
+        withDirectory(directory -> {
+            XMLDocumentCache cache = new XMLDocumentCache(1<<20);
+            assertThrows(FileNotFoundException.class,() -> cache.get(directory.resolve("missing.xml").toFile()));
+            Path bad = write(directory,"bad.xml","<root>");
+            assertThrows(ParseException.class,() -> cache.get(bad));
+            assertEquals(0,cache.size());
+            write(directory,"bad.xml","<root/>  ");
+            assertEquals("root",cache.get(bad).getTagName());
+        });
+    }
+
+    @Test
+    void concurrentGetsShareTheDocument() throws Exception {
+        withDirectory(directory -> {
+            StringBuilder document = new StringBuilder("<root>");
+            for(int i=0;i<20000;i++){
+                document.append("<item id=\"").append(i).append("\"/>");
+            }
+            Path file = write(directory,"a.xml",document.append("</root>").toString());
+            for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+                XMLDocumentCache cache = new XMLDocumentCache(1L<<30,new XMLTreeBuilder(engine));
+                ExecutorService executor = Executors.newFixedThreadPool(8);
+                try{
+                    List<Callable<XMLElement>> gets = new ArrayList<>();
+                    for(int i=0;i<16;i++){
+                        gets.add(() -> {
+                            XMLElement root = cache.get(file);
+                            root.getChildAt(0).addAttribute("id","changed");
+                            return root;
+                        });
+                    }
+                    for(Future<XMLElement> future : executor.invokeAll(gets)){
+                        assertEquals(20000,future.get().getNumberOfChildren());
+                    }
+                }finally {
+                    executor.shutdown();
+                }
+                assertEquals(1,cache.size());
+                assertEquals(16,cache.getHitCount()+cache.getMissCount());
+                assertEquals("0",cache.get(file).getChildAt(0).getAttribute("id"),engine.toString());
+            }
+        });
+    }
+}
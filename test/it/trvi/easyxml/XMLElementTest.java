@@ -0,0 +1,125 @@
+package it.trvi.easyxml;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XMLElementTest {
+    private static final String DOCUMENT = "<root a=\"1\"><first b=\"2\">one<inner/></first><second>two</second><third c=\"3\"/></root>";
+
+    private static XMLElement parse(String document) throws Exception {
+        return XMLTreeBuilder.buildFromString(document);
+    }
+
+    /*
+    Applies the change to the original after a copy-on-write clone has been made, and checks that the copy doesn't see it.
+     */
+    private static void assertCopyIsolated(Consumer<XMLElement> change) throws Exception {
+        XMLElement original = parse(DOCUMENT);
+        XMLElement copy = original.copyOnWriteClone();
+        change.accept(original);
+        assertEquals(parse(DOCUMENT).toString(),copy.toString());
+        assertTrue(copy.structuralEquals(parse(DOCUMENT)));
+    }
+
+    @Test
+    void copiesDontSeeTheChangesOfTheOriginal() throws Exception {
+        assertCopyIsolated(root -> root.setTextContent("changed"));
+        assertCopyIsolated(root -> root.getChildAt(0).appendTextContent("more"));
+        assertCopyIsolated(root -> root.addAttribute("a","changed"));
+        assertCopyIsolated(root -> root.getChildAt(2).removeAttributeByName("c"));
+        assertCopyIsolated(root -> root.getChildAt(0).addChild(new XMLElement("added")));
+        assertCopyIsolated(root -> root.swapChildrenPosition(0,2));
+        assertCopyIsolated(root -> root.getChildAt(0).getChildAt(0).setTextContent("deep"));
+    }
+
+    @Test
+    void copiesDontSeeTheChangesOfRemovedChildren() throws Exception {
+        assertCopyIsolated(root -> {
+            XMLElement child = root.getChildAt(0);
+            root.removeChild(0);
+            child.setTextContent("changed");
+            child.getChildAt(0).addAttribute("x","y");
+        });
+        assertCopyIsolated(root -> {
+            XMLElement child = root.getChildAt(0);
+            Iterator<XMLElement> iterator = root.getChildrenIterator();
+            iterator.next();
+            iterator.remove();
+            child.setTextContent("changed");
+        });
+        assertCopyIsolated(root -> {
+            XMLElement child = root.getChildAt(1);
+            new XMLElement("other").addChild(child);
+            child.setTextContent("changed");
+        });
+    }
+
+    @Test
+    void copiesDontSeeTheChangesMadeThroughTheAttributesIterator() throws Exception {
+        assertCopyIsolated(root -> root.getAttributesIterator().next().setValue("changed"));
+        assertCopyIsolated(root -> {
+            Iterator<Map.Entry<String, String>> iterator = root.getAttributesIterator();
+            iterator.next();
+            iterator.remove();
+        });
+    }
+
+    @Test
+    void theOriginalDoesntSeeTheChangesOfTheCopy() throws Exception {
+        XMLElement original = parse(DOCUMENT);
+        XMLElement copy = original.copyOnWriteClone();
+        copy.getChildAt(0).setTextContent("changed");
+        copy.getChildAt(1).addAttribute("d","4");
+        copy.removeChild(2);
+        assertEquals(parse(DOCUMENT).toString(),original.toString());
+    }
+
+    @Test
+    void structuralHashFollowsTheChanges() throws Exception {
+        XMLElement root = parse(DOCUMENT);
+        int hash = root.structuralHashCode();
+        root.getChildAt(0).getChildAt(0).setTextContent("text");
+        assertNotEquals(hash,root.structuralHashCode());
+        assertEquals(parse("<root a=\"1\"><first b=\"2\">one<inner>text</inner></first><second>two</second><third c=\"3\"/></root>").structuralHashCode(),
+                root.structuralHashCode());
+
+        root = parse(DOCUMENT);
+        root.structuralHashCode();
+        root.getChildAt(1).getAttributesIterator();
+        root.getChildAt(2).getAttributesIterator().next().setValue("4");
+        assertEquals(parse("<root a=\"1\"><first b=\"2\">one<inner/></first><second>two</second><third c=\"4\"/></root>").structuralHashCode(),
+                root.structuralHashCode());
+
+        root = parse(DOCUMENT);
+        root.structuralHashCode();
+        Iterator<Map.Entry<String, String>> attributes = root.getChildAt(0).getAttributesIterator();
+        attributes.next();
+        attributes.remove();
+        root.removeChild(2);
+        root.getChildAt(1).addChild(new XMLElement("new"));
+        XMLElement expected = parse("<root a=\"1\"><first>one<inner/></first><second>two<new/></second></root>");
+        assertEquals(expected.structuralHashCode(),root.structuralHashCode());
+        assertTrue(expected.structuralEquals(root));
+    }
+
+    @Test
+    void aFailedAddChildChangesNothing() throws Exception {
+        XMLElement source = parse(DOCUMENT);
+        XMLElement target = parse("<target><a/></target>");
+        XMLElement child = source.getChildAt(1);
+        assertThrows(IndexOutOfBoundsException.class,() -> target.addChild(2,child));
+        assertThrows(IndexOutOfBoundsException.class,() -> target.addChild(-1,child));
+        assertSame(source,child.getParent());
+        assertEquals(parse(DOCUMENT).toString(),source.toString());
+        assertEquals(1,target.getNumberOfChildren());
+        //moving a child within its parent counts it only once
+        assertThrows(IndexOutOfBoundsException.class,() -> source.addChild(3,child));
+        source.addChild(2,child);
+        assertSame(child,source.getChildAt(2));
+    }
+}
@@ -0,0 +1,203 @@
+package it.trvi.easyxml;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XMLMetricsTest {
+    //5 elements, 4 attributes, 3 levels
+    private static final String DOCUMENT = "<root a=\"1\" b=\"2\"><first c=\"3\"><inner/></first><second d=\"4\"/><third/></root>";
+
+    /*
+    Collects the measurements of the documents parsed and serialised by the current thread, since the listeners are global.
+     */
+    private static final class Collector implements XMLMetrics.Listener {
+        private final Thread thread = Thread.currentThread();
+        final List<XMLMetrics.ParseMetrics> parses = Collections.synchronizedList(new ArrayList<>());
+        final List<XMLMetrics.SerializationMetrics> serializations = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void parsed(XMLMetrics.ParseMetrics metrics){
+            if(Thread.currentThread()==thread){
+                parses.add(metrics);
+            }
+        }
+
+        @Override
+        public void serialized(XMLMetrics.SerializationMetrics metrics){
+            if(Thread.currentThread()==thread){
+                serializations.add(metrics);
+            }
+        }
+    }
+
+    @Test
+    void parsesAreMeasuredByEveryEngine() throws Exception {
+        Collector collector = new Collector();
+        XMLMetrics.addListener(collector);
+        try{
+            byte[] bytes = DOCUMENT.getBytes(StandardCharsets.UTF_8);
+            for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+                XMLTreeBuilder builder = new XMLTreeBuilder(engine);
+                collector.parses.clear();
+                builder.parseString(DOCUMENT).loadAll();
+                builder.parseStream(new ByteArrayInputStream(bytes)).loadAll();
+                assertEquals(2,collector.parses.size(),engine.toString());
+                XMLMetrics.ParseMetrics characters = collector.parses.get(0);
+                XMLMetrics.ParseMetrics stream = collector.parses.get(1);
+                assertEquals(DOCUMENT.length(),characters.getCharactersRead(),engine.toString());
+                assertEquals(-1L,characters.getBytesRead(),engine.toString());
+                assertEquals(bytes.length,stream.getBytesRead(),engine.toString());
+                assertEquals(-1L,stream.getCharactersRead(),engine.toString());
+                for(XMLMetrics.ParseMetrics metrics : collector.parses){
+                    assertSame(engine,metrics.getEngine());
+                    assertTrue(metrics.getDuration()>=0,engine.toString());
+                    if(engine==XMLTreeBuilder.Engine.DOM){
+                        assertTrue(metrics.getDomParseDuration()>=0);
+                        assertTrue(metrics.getConversionDuration()>=0);
+                        assertTrue(metrics.getDomParseDuration()+metrics.getConversionDuration()<=metrics.getDuration());
+                    }else{
+                        assertEquals(-1L,metrics.getDomParseDuration(),engine.toString());
+                        assertEquals(-1L,metrics.getConversionDuration(),engine.toString());
+                    }
+                    //the lazy engine has loaded nothing but the tag of the root when the tree is measured
+                    if(engine!=XMLTreeBuilder.Engine.LAZY){
+                        assertEquals(5L,metrics.getElementCount(),engine.toString());
+                        assertEquals(4L,metrics.getAttributeCount(),engine.toString());
+                        assertEquals(3,metrics.getMaxDepth(),engine.toString());
+                    }else{
+                        assertEquals(1L,metrics.getElementCount());
+                        assertEquals(0L,metrics.getAttributeCount());
+                        assertEquals(1,metrics.getMaxDepth());
+                    }
+                }
+            }
+        }finally {
+            XMLMetrics.removeListener(collector);
+        }
+    }
+
+    @Test
+    void serializationsAreMeasured() throws Exception {
+        XMLElement root = XMLTreeBuilder.buildFromString(DOCUMENT);
+        Collector collector = new Collector();
+        XMLMetrics.addListener(collector);
+        try{
+            String text = root.toString();
+            StringWriter writer = new StringWriter();
+            root.writeTo(writer,"  ");
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            root.getChildAt(0).writeTo(stream,StandardCharsets.UTF_8);
+            assertEquals(3,collector.serializations.size());
+            assertEquals(5L,collector.serializations.get(0).getElementCount());
+            assertEquals(text.length(),collector.serializations.get(0).getCharactersWritten());
+            assertEquals(5L,collector.serializations.get(1).getElementCount());
+            assertEquals(writer.toString().length(),collector.serializations.get(1).getCharactersWritten());
+            assertEquals(2L,collector.serializations.get(2).getElementCount());
+            assertEquals(root.getChildAt(0).toString().length(),collector.serializations.get(2).getCharactersWritten());
+            for(XMLMetrics.SerializationMetrics metrics : collector.serializations){
+                assertTrue(metrics.getDuration()>=0);
+            }
+            assertTrue(collector.parses.isEmpty());
+        }finally {
+            XMLMetrics.removeListener(collector);
+        }
+    }
+
+    @Test
+    void failedParsesAreNotReported(){
+        Collector collector = new Collector();
+        XMLMetrics.addListener(collector);
+        try{
+            for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+                XMLTreeBuilder builder = new XMLTreeBuilder(engine);
+                assertThrows(ParseException.class,() -> builder.parseString("<root><a></root>").loadAll(),engine.toString());
+            }
+            assertTrue(collector.parses.isEmpty());
+        }finally {
+            XMLMetrics.removeListener(collector);
+        }
+    }
+
+    @Test
+    void removedListenersAreNotCalled() throws Exception {
+        Collector removed = new Collector();
+        Collector kept = new Collector();
+        XMLMetrics.addListener(removed);
+        XMLMetrics.addListener(kept);
+        try{
+            XMLTreeBuilder.buildFromString(DOCUMENT).toString();
+            XMLMetrics.removeListener(removed);
+            XMLTreeBuilder.buildFromString(DOCUMENT).toString();
+            assertEquals(1,removed.parses.size());
+            assertEquals(1,removed.serializations.size());
+            assertEquals(2,kept.parses.size());
+            assertEquals(2,kept.serializations.size());
+        }finally {
+            XMLMetrics.removeListener(removed);
+            XMLMetrics.removeListener(kept);
+        }
+    }
+
+    @Test
+    void flightRecorderEventsHaveTheMeasurements() throws Exception {
+        Path file = Files.createTempFile("easyxml",".jfr");
+        try{
+            try(Recording recording = new Recording()){
+                recording.enable("it.trvi.easyxml.Parse");
+                recording.enable("it.trvi.easyxml.Serialize");
+                recording.start();
+                new XMLTreeBuilder(XMLTreeBuilder.Engine.DOM).parseString(DOCUMENT).toString();
+                new XMLTreeBuilder(XMLTreeBuilder.Engine.STAX).parseStream(new ByteArrayInputStream(DOCUMENT.getBytes(StandardCharsets.UTF_8)));
+                recording.stop();
+                recording.dump(file);
+            }
+            List<RecordedEvent> parses = new ArrayList<>();
+            List<RecordedEvent> serializations = new ArrayList<>();
+            for(RecordedEvent event : RecordingFile.readAllEvents(file)){
+                String name = event.getEventType().getName();
+                if(name.equals("it.trvi.easyxml.Parse")){
+                    parses.add(event);
+                }else if(name.equals("it.trvi.easyxml.Serialize")){
+                    serializations.add(event);
+                }
+            }
+            assertEquals(2,parses.size());
+            assertEquals(1,serializations.size());
+            for(RecordedEvent event : parses){
+                assertEquals(5L,event.getLong("elementCount"));
+                assertEquals(4L,event.getLong("attributeCount"));
+                assertEquals(3,event.getInt("maxDepth"));
+            }
+            RecordedEvent dom = parses.get(0).getString("engine").equals("DOM") ? parses.get(0) : parses.get(1);
+            RecordedEvent stax = dom==parses.get(0) ? parses.get(1) : parses.get(0);
+            assertEquals("STAX",stax.getString("engine"));
+            assertEquals(DOCUMENT.length(),dom.getLong("charactersRead"));
+            //a missing amount or timespan is recorded as Long.MIN_VALUE
+            assertEquals(Long.MIN_VALUE,dom.getLong("bytesRead"));
+            assertTrue(dom.getLong("domParseDuration")>=0);
+            assertEquals(DOCUMENT.length(),stax.getLong("bytesRead"));
+            assertEquals(-1L,stax.getLong("charactersRead"));
+            assertEquals(Long.MIN_VALUE,stax.getLong("domParseDuration"));
+            assertEquals(Long.MIN_VALUE,stax.getLong("conversionDuration"));
+            assertEquals(5L,serializations.get(0).getLong("elementCount"));
+            assertEquals(XMLTreeBuilder.buildFromString(DOCUMENT).toString().length(),serializations.get(0).getLong("charactersWritten"));
+        }finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package it.trvi.easyxml;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XMLPatchTest {
+    private static final String[] TAGS = {"a","b","c"};
+    private static final String[] NAMES = {"k0","k1","k2","k3"};
+
+    private static List<XMLElement> descendants(XMLElement element){
+        List<XMLElement> result = new ArrayList<>();
+        result.add(element);
+        for(int i=0;i<element.getNumberOfChildren();i++){
+            result.addAll(descendants(element.getChildAt(i)));
+        }
+        return result;
+    }
+
+    private static XMLElement randomElement(Random random, int depth){
+        XMLElement element = new XMLElement(TAGS[random.nextInt(TAGS.length)]);
+        for(String name : NAMES){
+            if(random.nextInt(3)==0){
+                element.addAttribute(name,"v"+random.nextInt(3));
+            }
+        }
+        if(random.nextInt(3)==0){
+            element.setTextContent("t"+random.nextInt(3));
+        }
+        for(int i=depth>0 ? random.nextInt(4) : 0;i>0;i--){
+            element.addChild(randomElement(random,depth-1));
+        }
+        return element;
+    }
+
+    /*
+    Applies a few random changes to a copy of the tree, including changes of the order of the attributes.
+     */
+    private static XMLElement mutate(XMLElement root, Random random){
+        XMLElement copy = (XMLElement) root.clone();
+        for(int changes=random.nextInt(4);changes>=0;changes--){
+            List<XMLElement> elements = descendants(copy);
+            XMLElement element = elements.get(random.nextInt(elements.size()));
+            String name = NAMES[random.nextInt(NAMES.length)];
+            switch (random.nextInt(7)){
+                case 0: element.setTextContent("t"+random.nextInt(3)); break;
+                case 1: element.addAttribute(name,"w"+random.nextInt(3)); break;
+                case 2:
+                    //moves the attribute to the end
+                    if(element.hasAttribute(name)){
+                        element.addAttribute(name,element.removeAttributeByName(name));
+                    }
+                    break;
+                case 3:
+                    if(element.hasAttribute(name)){
+                        element.removeAttributeByName(name);
+                    }
+                    break;
+                case 4: element.addChild(random.nextInt(element.getNumberOfChildren()+1),randomElement(random,2)); break;
+                case 5:
+                    if(element.getNumberOfChildren()>0){
+                        element.removeChild(random.nextInt(element.getNumberOfChildren()));
+                    }
+                    break;
+                default:
+                    if(element.getNumberOfChildren()>1){
+                        element.swapChildrenPosition(0,element.getNumberOfChildren()-1);
+                    }
+            }
+        }
+        return copy;
+    }
+
+    @Test
+    void theAppliedPatchGivesTheSecondTree(){
+        Random random = new Random(5);
+        for(int i=0;i<3000;i++){
+            XMLElement from = randomElement(random,4);
+            XMLElement to = random.nextInt(10)==0 ? randomElement(random,4) : mutate(from,random);
+            String original = from.toString();
+            XMLPatch patch = XMLPatch.diff(from,to);
+            assertEquals(original,from.toString(),"diff must not change the tree");
+            assertEquals(to.toString(),patch.apply((XMLElement) from.clone()).toString(),patch.toString());
+            //the patch can be applied again
+            assertEquals(to.toString(),patch.apply((XMLElement) from.clone()).toString());
+            assertEquals(from.toString().equals(to.toString()),patch.isEmpty());
+        }
+    }
+
+    @Test
+    void theOrderOfTheAttributesIsReproduced() throws Exception {
+        XMLElement from = XMLTreeBuilder.buildFromString("<a k0=\"w1\" k1=\"w0\"><b x=\"1\" y=\"2\" z=\"3\"/></a>");
+        XMLElement to = XMLTreeBuilder.buildFromString("<a k1=\"w0\" k0=\"w1\"><b x=\"1\" z=\"3\" y=\"2\" w=\"4\"/></a>");
+        assertTrue(from.getChildAt(0).structuralEquals(XMLTreeBuilder.buildFromString("<b z=\"3\" y=\"2\" x=\"1\"/>")));
+        XMLPatch patch = XMLPatch.diff(from,to);
+        assertFalse(patch.isEmpty());
+        assertEquals(to.toString(),patch.apply(from).toString());
+        assertTrue(XMLPatch.diff(from,to).isEmpty());
+    }
+
+    @Test
+    void equalTreesGiveAnEmptyPatch() throws Exception {
+        String document = "<a k0=\"1\"><b>text</b><c k1=\"2\"/></a>";
+        assertTrue(XMLPatch.diff(XMLTreeBuilder.buildFromString(document),XMLTreeBuilder.buildFromString(document)).isEmpty());
+    }
+
+    @Test
+    void aPatchDoesntApplyToAnotherTree() throws Exception {
+        XMLPatch patch = XMLPatch.diff(XMLTreeBuilder.buildFromString("<a><b/><c/></a>"),XMLTreeBuilder.buildFromString("<a><b/><c>text</c></a>"));
+        assertThrows(IllegalArgumentException.class,() -> patch.apply(XMLTreeBuilder.buildFromString("<a/>")));
+    }
+}
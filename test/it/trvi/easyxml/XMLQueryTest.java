@@ -0,0 +1,135 @@
+package it.trvi.easyxml;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XMLQueryTest {
+    private static final String DOCUMENT = "<r>"
+            +"<a id=\"1\" k=\"x\"><b id=\"2\">one</b><b id=\"3\" k=\"y\">two</b><c id=\"4\"><b id=\"5\">three</b></c></a>"
+            +"<a id=\"6\"><b id=\"7\">four</b></a>"
+            +"<b id=\"8\" k=\"x\">five</b>"
+            +"</r>";
+    private static final String[] TAGS = {"a","b","c"};
+
+    private static List<String> ids(String expression) throws Exception {
+        return XMLQuery.compile(expression).evaluate(XMLTreeBuilder.buildFromString(DOCUMENT)).stream()
+                .map(element -> element.getAttribute("id")).collect(Collectors.toList());
+    }
+
+    @Test
+    void stepsAndPredicatesSelectTheExpectedElements() throws Exception {
+        assertEquals(List.of("2","3","7"),ids("a/b"));
+        assertEquals(List.of("2","3","7"),ids("/r/a/b"));
+        assertEquals(List.of(),ids("/a/b"));
+        assertEquals(List.of("2","3","5","7","8"),ids("//b"));
+        assertEquals(List.of("2","3","5","7","8"),ids(".//b"));
+        assertEquals(List.of("2","3","4","7"),ids("a/*"));
+        assertEquals(List.of("2","3","5","7"),ids("a//b"));
+        assertEquals(List.of("3","8"),ids("//b[@k]"));
+        assertEquals(List.of("8"),ids("//*[@k='x'][text()='five']"));
+        //as in XPath, an element without the attribute doesn't match a comparison with it
+        assertEquals(List.of("8"),ids("//b[@k!='y']"));
+        assertEquals(List.of("2","3","7"),ids("//b[text()!='three'][contains(text(),'o')]"));
+        assertEquals(List.of("1"),ids("a[contains(@k,'x')]"));
+        assertEquals(List.of("2","5","7","8"),ids("//b[1]"));
+        assertEquals(List.of("3","5","7","8"),ids("//b[last()]"));
+        assertEquals(List.of("3"),ids("a/b[2]"));
+        assertEquals(List.of("5"),ids("a/c/b[text()='three']"));
+    }
+
+    @Test
+    void firstLimitAndStreamAgreeWithEvaluate() throws Exception {
+        XMLElement root = XMLTreeBuilder.buildFromString(DOCUMENT);
+        XMLQuery query = XMLQuery.compile("//b");
+        List<XMLElement> all = query.evaluate(root);
+        assertSame(all.get(0),query.first(root));
+        assertEquals(all.subList(0,2),query.evaluate(root,2));
+        assertEquals(all,query.stream(root).collect(Collectors.toList()));
+        assertNull(XMLQuery.compile("//d").first(root));
+        assertEquals("//b",query.getExpression());
+    }
+
+    @Test
+    void invalidExpressionsAreRejected(){
+        for(String expression : new String[]{"","a/","a//","a[","a[@]","a[1][@k]","a[@k='x]","a[text()]"}){
+            assertThrows(IllegalArgumentException.class,() -> XMLQuery.compile(expression),expression);
+        }
+    }
+
+    @Test
+    void randomPathsMatchAStepByStepEvaluation(){
+        Random random = new Random(13);
+        for(int tree=0;tree<200;tree++){
+            XMLElement root = randomTree(random);
+            for(int query=0;query<20;query++){
+                int steps = 1+random.nextInt(3);
+                boolean[] descendant = new boolean[steps];
+                String[] tags = new String[steps];
+                StringBuilder expression = new StringBuilder();
+                for(int i=0;i<steps;i++){
+                    descendant[i] = random.nextBoolean();
+                    tags[i] = random.nextInt(4)==0 ? "*" : TAGS[random.nextInt(TAGS.length)];
+                    expression.append(i==0 ? (descendant[i] ? ".//" : "") : (descendant[i] ? "//" : "/")).append(tags[i]);
+                }
+                assertEquals(evaluate(root,descendant,tags),XMLQuery.compile(expression.toString()).evaluate(root),expression.toString());
+            }
+        }
+    }
+
+    private static XMLElement randomTree(Random random){
+        XMLElement root = new XMLElement("r");
+        List<XMLElement> all = new ArrayList<>();
+        all.add(root);
+        for(int i=random.nextInt(60);i>0;i--){
+            XMLElement child = new XMLElement(TAGS[random.nextInt(TAGS.length)]);
+            all.get(random.nextInt(all.size())).addChild(child);
+            all.add(child);
+        }
+        return root;
+    }
+
+    /*
+    Evaluates the steps one at a time on the whole set of context elements, then sorts the result in document order.
+     */
+    private static List<XMLElement> evaluate(XMLElement root, boolean[] descendant, String[] tags){
+        List<XMLElement> context = List.of(root);
+        for(int i=0;i<tags.length;i++){
+            Map<XMLElement, Boolean> next = new IdentityHashMap<>();
+            for(XMLElement element : context){
+                List<XMLElement> candidates = new ArrayList<>();
+                if(descendant[i]){
+                    candidates.addAll(documentOrder(element));
+                    candidates.remove(0);
+                }else{
+                    for(int j=0;j<element.getNumberOfChildren();j++){
+                        candidates.add(element.getChildAt(j));
+                    }
+                }
+                for(XMLElement candidate : candidates){
+                    if(tags[i].equals("*") || candidate.getTagName().equals(tags[i])){
+                        next.put(candidate,true);
+                    }
+                }
+            }
+            context = documentOrder(root).stream().filter(next::containsKey).collect(Collectors.toList());
+        }
+        return context;
+    }
+
+    private static List<XMLElement> documentOrder(XMLElement element){
+        List<XMLElement> result = new ArrayList<>();
+        result.add(element);
+        for(int i=0;i<element.getNumberOfChildren();i++){
+            result.addAll(documentOrder(element.getChildAt(i)));
+        }
+        return result;
+    }
+}
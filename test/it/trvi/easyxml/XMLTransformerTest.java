@@ -0,0 +1,251 @@
+package it.trvi.easyxml;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XMLTransformerTest {
+    private static final String DOCUMENT = "<?xml version=\"1.0\"?>\n<!-- records -->\n<root version=\"1\">\n" +
+            "\t<record id=\"1\" kind=\"a\"><name>  one  </name><value>1</value></record>\n" +
+            "\t<record id=\"2\" kind=\"b\"><name>two</name><value>2</value><![CDATA[<raw>]]></record>\n" +
+            "\t<other><record id=\"3\" kind=\"a\"><name>three</name></record></other>\n" +
+            "\t<empty/>\n" +
+            "</root>";
+
+    private static InputStream stream(String document){
+        return new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+    Parses with StAX, which keeps the order of the attributes like XMLTransformer does.
+     */
+    private static XMLElement parse(String document) throws ParseException {
+        return XMLTreeBuilder.buildFromString(document,XMLTreeBuilder.Engine.STAX);
+    }
+
+    private static String transform(XMLTransformer transformer, String document) throws Exception {
+        StringWriter writer = new StringWriter();
+        transformer.transform(stream(document),writer);
+        return writer.toString();
+    }
+
+    /*
+    Returns the element and its descendants that have the tag name, in document order.
+     */
+    private static List<XMLElement> withTag(XMLElement element, String tagName){
+        List<XMLElement> result = new ArrayList<>();
+        if(element.getTagName().equals(tagName)){
+            result.add(element);
+        }
+        for(int i=0;i<element.getNumberOfChildren();i++){
+            result.addAll(withTag(element.getChildAt(i),tagName));
+        }
+        return result;
+    }
+
+    /*
+    Returns a random document whose elements have text only before their children, so that the output of toString is matched exactly.
+     */
+    private static XMLElement randomTree(Random random, int depth){
+        XMLElement element = new XMLElement(random.nextInt(3)==0 ? "record" : "node"+random.nextInt(3));
+        for(int i=random.nextInt(3);i>0;i--){
+            element.addAttribute("a"+random.nextInt(4),"v<&\"'"+random.nextInt(10));
+        }
+        if(random.nextBoolean()){
+            element.setTextContent("text "+random.nextInt(100));
+        }
+        if(depth<5){
+            for(int i=random.nextInt(4);i>0;i--){
+                element.addChild(randomTree(random,depth+1));
+            }
+        }
+        return element;
+    }
+
+    @Test
+    void withoutRulesTheOutputIsTheOneOfToString() throws Exception {
+        XMLTransformer transformer = new XMLTransformer();
+        assertEquals(parse(DOCUMENT).toString(),transform(transformer,DOCUMENT));
+        Random random = new Random(5);
+        for(int i=0;i<50;i++){
+            String document = randomTree(random,0).toString();
+            assertEquals(document,transform(transformer,document));
+        }
+    }
+
+    @Test
+    void textAfterChildrenGivesTheSameTree() throws Exception {
+        String document = "<root>before<a>in a</a>between<b/>after</root>";
+        String output = transform(new XMLTransformer(),document);
+        assertTrue(parse(document).structuralEquals(parse(output)),output);
+        //a removed child leaves the text around it joined, as removeChild does
+        XMLTransformer transformer = new XMLTransformer();
+        transformer.addRule("a",element -> null);
+        XMLElement expected = parse(document);
+        expected.removeChild(0);
+        assertTrue(expected.structuralEquals(parse(transform(transformer,document))));
+    }
+
+    @Test
+    void rulesGiveTheSameResultAsTheTree() throws Exception {
+        Random random = new Random(9);
+        for(int i=0;i<50;i++){
+            String document = randomTree(random,0).toString();
+            XMLTransformer transformer = new XMLTransformer();
+            transformer.addRule("record",element -> {
+                if(element.getNumberOfChildren()%2==1){
+                    return null;
+                }
+                element.addAttribute("seen","yes");
+                element.addChild(new XMLElement("added"));
+                return element;
+            });
+            XMLElement expected = parse(document);
+            //the outermost records are passed to the rule, the ones inside them are not
+            List<XMLElement> records = new ArrayList<>();
+            for(XMLElement record : withTag(expected,"record")){
+                boolean nested = false;
+                for(XMLElement ancestor = record.getParent(); ancestor!=null; ancestor = ancestor.getParent()){
+                    nested |= ancestor.getTagName().equals("record");
+                }
+                if(!nested){
+                    records.add(record);
+                }
+            }
+            boolean removedRoot = false;
+            for(XMLElement record : records){
+                if(record.getNumberOfChildren()%2==1){
+                    if(record.getParent()==null){
+                        removedRoot = true;
+                    }else{
+                        record.getParent().removeChild(record);
+                    }
+                }else{
+                    record.addAttribute("seen","yes");
+                    record.addChild(new XMLElement("added"));
+                }
+            }
+            StringWriter writer = new StringWriter();
+            assertEquals(records.size(),transformer.transform(stream(document),writer));
+            assertEquals(removedRoot ? "" : expected.toString(),writer.toString(),document);
+        }
+    }
+
+    @Test
+    void rulesCanReplaceAndRemoveElements() throws Exception {
+        XMLTransformer transformer = new XMLTransformer();
+        transformer.addRule("/root/record",element -> {
+            if(element.getAttribute("kind").equals("b")){
+                return null;
+            }
+            XMLElement replacement = new XMLElement("item");
+            replacement.addAttribute("key",element.getAttribute("id"));
+            replacement.setTextContent(element.getChildAt(0).getTextContent());
+            return replacement;
+        });
+        transformer.addRule("record",element -> {
+            element.setTextContent("nested");
+            return element;
+        });
+        String expected = "<root version=\"1\">\n\t<item key=\"1\">\n\t\tone\n\t</item>\n\t<other>\n\t\t<record id=\"3\" kind=\"a\">\n\t\t\tnested\n" +
+                "\t\t\t<name>\n\t\t\t\tthree\n\t\t\t</name>\n\t\t</record>\n\t</other>\n\t<empty>\n\t</empty>\n</root>";
+        StringWriter writer = new StringWriter();
+        assertEquals(3,transformer.transform(stream(DOCUMENT),writer));
+        assertEquals(expected,writer.toString());
+    }
+
+    @Test
+    void onlyTheFirstMatchingRuleIsApplied() throws Exception {
+        XMLTransformer transformer = new XMLTransformer();
+        List<String> calls = new ArrayList<>();
+        transformer.addRule("other",element -> {
+            calls.add("other");
+            return element;
+        });
+        transformer.addRule("*",element -> {
+            calls.add(element.getTagName());
+            return element;
+        });
+        transformer.addRule("record",element -> {
+            calls.add("record");
+            return element;
+        });
+        String output = transform(transformer,DOCUMENT);
+        //"*" matches the root, so nothing inside it reaches the other rules
+        assertEquals(List.of("root"),calls);
+        assertEquals(parse(DOCUMENT).toString(),output);
+    }
+
+    @Test
+    void startTagRulesChangeTheAttributesOnly() throws Exception {
+        XMLTransformer transformer = new XMLTransformer();
+        transformer.addStartTagRule("record",element -> {
+            element.addAttribute("kind","changed");
+            element.removeAttributeByName("id");
+        });
+        transformer.addRule("name",element -> null);
+        transformer.addStartTagRule("name",element -> fail("the rule on the whole element takes precedence"));
+        XMLElement expected = parse(DOCUMENT);
+        for(XMLElement record : withTag(expected,"record")){
+            record.addAttribute("kind","changed");
+            record.removeAttributeByName("id");
+        }
+        for(XMLElement name : withTag(expected,"name")){
+            name.getParent().removeChild(0);
+        }
+        StringWriter writer = new StringWriter();
+        assertEquals(6,transformer.transform(stream(DOCUMENT),writer));
+        assertEquals(expected.toString(),writer.toString());
+    }
+
+    @Test
+    void filesAreWrittenWithTheCharsetAndTheTabulation() throws Exception {
+        Path directory = Files.createTempDirectory("easyxml");
+        Path input = directory.resolve("input.xml");
+        Path output = directory.resolve("output.xml");
+        try{
+            String document = "<root><a>caf\u00e9 \u4e2d</a><b/></root>";
+            Files.write(input,document.getBytes(StandardCharsets.UTF_8));
+            XMLTransformer transformer = new XMLTransformer();
+            transformer.setTabulationCharacters("  ");
+            assertEquals(0,transformer.transform(input,output,StandardCharsets.UTF_16));
+            assertEquals(parse(document).toString("  "),new String(Files.readAllBytes(output),StandardCharsets.UTF_16));
+        }finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    void malformedDocumentsThrowParseExceptionAndCloseTheStream(){
+        boolean[] closed = {false};
+        InputStream input = new ByteArrayInputStream("<root><a></root>".getBytes(StandardCharsets.UTF_8)){
+            @Override
+            public void close(){
+                closed[0] = true;
+            }
+        };
+        assertThrows(ParseException.class,() -> new XMLTransformer().transform(input,new StringWriter()));
+        assertTrue(closed[0]);
+        assertThrows(ParseException.class,() -> transform(new XMLTransformer(),"<root/><other/>"));
+        assertThrows(ParseException.class,() -> new XMLTransformer().transform(new ByteArrayInputStream(new byte[]{'<','r','>',(byte)0xC3,'(','<','/','r','>'}),new StringWriter()));
+    }
+
+    @Test
+    void emptyPathsAreRejected(){
+        assertThrows(IllegalArgumentException.class,() -> new XMLTransformer().addRule("",element -> element));
+        assertThrows(IllegalArgumentException.class,() -> new XMLTransformer().addStartTagRule("",element -> {}));
+    }
+}
@@ -0,0 +1,155 @@
+package it.trvi.easyxml;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class XMLTreeBuilderTest {
+    private static final String[] DOCUMENTS = {
+            "<root/>",
+            "<root z=\"1\" a=\"2\" m='3'><child b=\"x\" a=\"y\">text</child><child/></root>",
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- comment -->\n<root>\n\t<a>  first line\n   second line  </a>\n\t<b>&lt;&amp;&gt;&#10;&quot;</b>\n</root>",
+            "<root><a>before<b/>after</a><?pi data?><c><!-- <d x='1'/> --></c></root>",
+            "<root><item id=\"1\" name=\"one\"><value>1</value></item><item id=\"2\" name=\"two\"><value>2</value></item></root>",
+            "<root v=\"a&#10;b&#9;c&#13;d\"><e w='&lt;&quot;&apos;'/></root>",
+            "<!DOCTYPE root [<!ENTITY e \"entity text\">]><root a=\"&e;\">&e;</root>",
+    };
+
+    private static XMLElement parse(String document, XMLTreeBuilder.Engine engine) throws ParseException {
+        XMLElement root = XMLTreeBuilder.buildFromString(document,engine);
+        root.loadAll();
+        return root;
+    }
+
+    @Test
+    void enginesBuildTheSameTree() throws Exception {
+        for(String document : DOCUMENTS){
+            XMLElement dom = parse(document,XMLTreeBuilder.Engine.DOM);
+            XMLElement stax = parse(document,XMLTreeBuilder.Engine.STAX);
+            XMLElement lazy = parse(document,XMLTreeBuilder.Engine.LAZY);
+            //the DOM engine sorts the attributes by name, which structuralEquals ignores
+            for(XMLElement actual : new XMLElement[]{stax,lazy}){
+                assertTrue(dom.structuralEquals(actual),document);
+                assertEquals(dom.structuralHashCode(),actual.structuralHashCode(),document);
+            }
+            assertEquals(stax.toString(),lazy.toString(),document);
+        }
+    }
+
+    @Test
+    void inputsAndParallelParsingBuildTheSameTree() throws Exception {
+        StringBuilder builder = new StringBuilder("<root>");
+        for(int i=0;i<2000;i++){
+            builder.append("<record id=\"").append(i).append("\" b=\"x\" a=\"y\"><name>n").append(i).append("</name></record>");
+        }
+        String document = builder.append("</root>").toString();
+        for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+            XMLTreeBuilder treeBuilder = new XMLTreeBuilder(engine);
+            String expected = treeBuilder.parseString(document).toString();
+            assertEquals(expected,treeBuilder.parseString(document).toString(),engine.toString());
+            assertEquals(expected,treeBuilder.parseStream(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8))).toString(),engine.toString());
+            assertEquals(expected,treeBuilder.parseStringParallel(document).toString(),engine.toString());
+        }
+    }
+
+    @Test
+    void attributesFollowTheOrderOfTheEngine() throws Exception {
+        for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+            XMLElement root = parse("<root z=\"1\" a=\"2\" m=\"3\"/>",engine);
+            List<String> names = new ArrayList<>();
+            for(Iterator<Map.Entry<String, String>> iterator = root.getAttributesIterator(); iterator.hasNext();){
+                names.add(iterator.next().getKey());
+            }
+            assertEquals(engine==XMLTreeBuilder.Engine.DOM ? List.of("a","m","z") : List.of("z","a","m"),names,engine.toString());
+        }
+    }
+
+    @Test
+    void whitespaceInAttributesSurvivesARoundTrip() throws Exception {
+        XMLElement element = new XMLElement("root");
+        element.addAttribute("value","a\nb\tc\rd \"e\" <&>");
+        for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+            assertEquals(element.getAttribute("value"),parse(element.toString(),engine).getAttribute("value"),engine.toString());
+        }
+    }
+
+    @Test
+    void malformedDocumentsThrowParseException(){
+        for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+            assertThrows(ParseException.class,() -> parse("<root><a></root>",engine),engine.toString());
+            assertThrows(ParseException.class,() -> parse("<root/><other/>",engine),engine.toString());
+        }
+    }
+
+    @Test
+    void invalidBytesThrowParseException(){
+        byte[][] documents = {
+                {'<','r','>',(byte)0xC3,'(','<','/','r','>'},
+                {(byte)0xEF,(byte)0xBB,(byte)0xBF,'<','r','>',(byte)0xFF,'<','/','r','>'},
+                "<?xml version=\"1.0\" encoding=\"US-ASCII\"?><r>\u00e9</r>".getBytes(StandardCharsets.ISO_8859_1),
+        };
+        for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+            XMLTreeBuilder builder = new XMLTreeBuilder(engine);
+            for(byte[] document : documents){
+                assertThrows(ParseException.class,() -> builder.parseStream(new ByteArrayInputStream(document)).loadAll(),engine.toString());
+            }
+        }
+    }
+
+    @Test
+    void filesThatCantBeReadThrowFileNotFoundException() throws Exception {
+        Path directory = Files.createTempDirectory("easyxml");
+        try{
+            for(XMLTreeBuilder.Engine engine : XMLTreeBuilder.Engine.values()){
+                XMLTreeBuilder builder = new XMLTreeBuilder(engine);
+                assertThrows(FileNotFoundException.class,() -> builder.parseFile(directory.toFile()));
+                assertThrows(FileNotFoundException.class,() -> builder.parseFile(directory.resolve("missing.xml").toFile()));
+            }
+            assertThrows(FileNotFoundException.class,() -> XMLTreeBuilder.forEachFromFile(directory.toFile(),"a",element -> {}));
+        }finally {
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    void pathsThatBeginWithASlashStartFromTheRoot() throws Exception {
+        String document = "<root><root><a/></root><a/></root>";
+        assertEquals(List.of(2),childCounts(document,"/root"));
+        assertEquals(List.of(2),childCounts(document,"root"));
+        assertEquals(List.of(1),childCounts(document,"root/root"));
+        assertEquals(List.of(0,0),childCounts(document,"a"));
+        assertEquals(List.of(0),childCounts(document,"/root/a"));
+    }
+
+    @Test
+    void anInvalidPathClosesTheStream(){
+        boolean[] closed = {false};
+        InputStream stream = new ByteArrayInputStream("<root/>".getBytes(StandardCharsets.UTF_8)){
+            @Override
+            public void close(){
+                closed[0] = true;
+            }
+        };
+        assertThrows(IllegalArgumentException.class,() -> XMLTreeBuilder.iterateFromStream(stream,"/"));
+        assertTrue(closed[0]);
+    }
+
+    private static List<Integer> childCounts(String document, String path) throws Exception {
+        List<Integer> counts = new ArrayList<>();
+        XMLTreeBuilder.forEachFromStream(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)),path,
+                element -> counts.add(element.getNumberOfChildren()));
+        return counts;
+    }
+}